@@ -20,6 +20,15 @@ public enum AppConstant {
     FILE_WIPE_MILLIS("gdp.file.age.limit"), // Age, in milliseconds, that a file can be before it gets wiped (Default: 48 hours)
     FILE_WIPE_CHECK_RATE("gdp.file.wipe.check.rate"), // Rate, in milliseconds, at which to run the file wipe timer
     MAX_DATA_CHUCK_REQUEST_SIZE("gdp.data.request.size.max.bytes"), // For multi-timestep access pattern, how big to make slices
+    DATA_REQUEST_READ_AHEAD("gdp.data.request.readahead"), // For multi-timestep access pattern, number of slices to request ahead of traversal (0 disables)
+    DATA_REQUEST_TARGET_LATENCY("gdp.data.request.latency.target.millis"), // For multi-timestep access pattern, adapt slice size so requests take about this long (0 uses fixed slices, halved while requests fail)
+    TRAVERSAL_PARALLELISM("gdp.traversal.parallelism"), // Number of worker threads used to traverse timesteps (1 is serial traversal)
+    COVERAGE_PARALLELISM("gdp.coverage.parallelism"), // Number of worker threads each request uses to calculate feature coverage of grid cells (1 is serial)
+    COVERAGE_PRECOMPUTE_TRANSFORM("gdp.coverage.transform.precompute"), // Transform all grid cell edges to the feature CRS once instead of per feature
+    COVERAGE_CACHE_SIZE_MAX("gdp.cache.coverage.size.max.bytes"), // Max bytes of feature coverage weights cached under CACHE_LOCATION (0, the default, disables)
+    GML_SPILL("gdp.gml.spill"), // Write uploaded GML features to a binary file on first parse so later iterations skip the XML parsing
+    TIMESERIES_FETCH_PARALLELISM("gdp.timeseries.fetch.parallelism"), // Number of stations fetched from SOS at once (1 is serial fetching)
+    TIMESERIES_FETCH_HOST_CONNECTIONS("gdp.timeseries.fetch.host.connections"), // Max concurrent requests to a single SOS host, shared by all requests
 
     WFS_ENDPOINT("gdp.geoserver.url"), // Default location where Geoserver can be found
     WFS_USER("gdp.geoserver.username"), // Username for Geoserver endpoint if needed
@@ -47,7 +56,13 @@ public enum AppConstant {
     HEURISTIC_SUMMARY_OUTPUT_MAX("gdp.heuristic.summary.output.max"), // Max size for csv/tsv file
     HEURISTIC_TIME_TOTAL_MAX("gdp.heuristic.time.max"), // Total job time to allow before failing (actual processing)
 
-    ANALYTICS_GEOIP_ENDPOINT("gdp.analytics.geoip.endpoint"); // Where to get IP to location info
+    QUEUE_AGING_RATE("gdp.queue.aging.bytes.per.second"), // Estimated bytes read a queued request is allowed to defer to smaller requests per second it waits (0 is first come first served)
+    QUEUE_UNKNOWN_SIZE("gdp.queue.unknown.size.bytes"), // Estimated bytes read assumed for queued requests that have no estimate
+    QUEUE_NODE_NAME("gdp.queue.node.name"), // Name this node records on the throttle queue work it dispatches, must be unique and stable across restarts (empty uses the host name)
+
+    ANALYTICS_GEOIP_ENDPOINT("gdp.analytics.geoip.endpoint"), // Where to get IP to location info
+    ANALYTICS_BUFFER_SIZE("gdp.analytics.buffer.size"), // Max pending analytics updates before new ones are dropped
+    ANALYTICS_FLUSH_MILLIS("gdp.analytics.flush.millis"); // Longest time, in milliseconds, analytics updates wait before being written
 
     private String input;
     private String value;
@@ -115,6 +130,42 @@ public enum AppConstant {
             if (input.equals("gdp.data.request.size.max.bytes")) {
                 result = Long.toString(1024l * 1024l * 10l);
             }
+            // DATA_REQUEST_READ_AHEAD
+            if (input.equals("gdp.data.request.readahead")) {
+                result = "0";
+            }
+            // DATA_REQUEST_TARGET_LATENCY
+            if (input.equals("gdp.data.request.latency.target.millis")) {
+                result = "0";
+            }
+            // TRAVERSAL_PARALLELISM
+            if (input.equals("gdp.traversal.parallelism")) {
+                result = "1";
+            }
+            // COVERAGE_PARALLELISM
+            if (input.equals("gdp.coverage.parallelism")) {
+                result = "1";
+            }
+            // COVERAGE_PRECOMPUTE_TRANSFORM
+            if (input.equals("gdp.coverage.transform.precompute")) {
+                result = "false";
+            }
+            // COVERAGE_CACHE_SIZE_MAX
+            if (input.equals("gdp.cache.coverage.size.max.bytes")) {
+                result = "0";
+            }
+            // GML_SPILL
+            if (input.equals("gdp.gml.spill")) {
+                result = "false";
+            }
+            // TIMESERIES_FETCH_PARALLELISM
+            if (input.equals("gdp.timeseries.fetch.parallelism")) {
+                result = "8";
+            }
+            // TIMESERIES_FETCH_HOST_CONNECTIONS
+            if (input.equals("gdp.timeseries.fetch.host.connections")) {
+                result = "4";
+            }
             ///////////////////// Endpoint constants
             // WFS_ENDPOINT
             if (input.equals("gdp.geoserver.url")) {
@@ -209,10 +260,27 @@ public enum AppConstant {
                 result = String.valueOf(24l * 60l * 60l * 1000l); // 24 hours
             }
 
+            // QUEUE_AGING_RATE
+            if (input.equals("gdp.queue.aging.bytes.per.second")) {
+                result = String.valueOf(10l * 1024l * 1024l); // 10 MB
+            }
+            // QUEUE_UNKNOWN_SIZE
+            if (input.equals("gdp.queue.unknown.size.bytes")) {
+                result = String.valueOf(10l * 1024l * 1024l * 1024l); // 10 GB
+            }
+
             // ANALYTICS_GEOIP_ENDPOINT
             if (input.equals("gdp.analytics.geoip.endpoint")) {
                 result = "https://freegeoip.net/xml/";
             }
+            // ANALYTICS_BUFFER_SIZE
+            if (input.equals("gdp.analytics.buffer.size")) {
+                result = "10000";
+            }
+            // ANALYTICS_FLUSH_MILLIS
+            if (input.equals("gdp.analytics.flush.millis")) {
+                result = "5000";
+            }
 
             System.setProperty(input, result);
         }
@@ -4,6 +4,9 @@ import com.google.common.base.Preconditions;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
@@ -95,20 +98,13 @@ public class StationDataCSVWriter {
                 featureCollection,
                 DefaultGeographicCRS.WGS84);
 
+        STRtree featureIndex = buildFeatureIndex(featureCollection);
+
         List<PointFeatureCache> pointFeatureCacheList = new ArrayList<PointFeatureCache>();
         for (Station station : stationTimeSeriesFeatureCollection.getStations(featureCollectionLLR)) {
             Coordinate stationCoordinate = new Coordinate(station.getLongitude(), station.getLatitude());
             Geometry stationGeometry = GEOMETRY_FACTORY.createPoint(stationCoordinate);
-            boolean stationContained = false;
-            FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
-            try {
-                while (featureIterator.hasNext() && !stationContained) {
-                    stationContained = ((Geometry) featureIterator.next().getDefaultGeometry()).contains(stationGeometry);
-                }
-            } finally {
-                featureCollection.close(featureIterator);
-            }
-            if (stationContained) {
+            if (isContained(featureIndex, stationGeometry)) {
                 StationTimeSeriesFeature stationTimeSeriesFeature = stationTimeSeriesFeatureCollection.getStationFeature(station).subset(dateRange);
                 PointFeatureCache pointFeatureCache
                         = new PointFeatureCache(stationTimeSeriesFeature, variableList);
@@ -232,6 +228,38 @@ public class StationDataCSVWriter {
         return true;
     }
 
+    /**
+     * Index of the feature geometries, built once so each station is only
+     * tested against the features whose envelope it falls in.
+     */
+    static STRtree buildFeatureIndex(FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection) {
+        STRtree featureIndex = new STRtree();
+        FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
+        try {
+            while (featureIterator.hasNext()) {
+                Geometry featureGeometry = (Geometry) featureIterator.next().getDefaultGeometry();
+                if (featureGeometry != null && !featureGeometry.isEmpty()) {
+                    featureIndex.insert(
+                            featureGeometry.getEnvelopeInternal(),
+                            PreparedGeometryFactory.prepare(featureGeometry));
+                }
+            }
+        } finally {
+            featureCollection.close(featureIterator);
+        }
+        featureIndex.build();
+        return featureIndex;
+    }
+
+    static boolean isContained(STRtree featureIndex, Geometry stationGeometry) {
+        for (Object candidate : featureIndex.query(stationGeometry.getEnvelopeInternal())) {
+            if (((PreparedGeometry) candidate).contains(stationGeometry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static class PointFeatureCache {
 
         public final static long MILLIS_PER_DAY = 1000 * 60 * 60 * 24;
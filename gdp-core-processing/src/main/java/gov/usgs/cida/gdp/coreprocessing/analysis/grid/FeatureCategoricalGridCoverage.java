@@ -1,41 +1,33 @@
 package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import gov.usgs.cida.gdp.coreprocessing.Delimiter;
-import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridUtility.IndexToCoordinateBuilder;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Writer;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.TimeZone;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.SchemaException;
-import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
-import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.FactoryException;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
+import ucar.nc2.dataset.CoordinateAxis1DTime;
 import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.GridDatatype;
@@ -46,8 +38,6 @@ import ucar.nc2.dt.GridDatatype;
  */
 public class FeatureCategoricalGridCoverage {
 
-    private static final Logger log = LoggerFactory.getLogger(FeatureCategoricalGridCoverage.class);
-
     public static void execute(
             FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
             String attributeName,
@@ -64,6 +54,11 @@ public class FeatureCategoricalGridCoverage {
         execute(featureCollection, attributeName, gridDatatype, writer, delimiter, true);
     }
 
+    /**
+     * Counts the category of each cell whose centre is in a feature, per
+     * feature attribute value.  The grid is traversed once for all features,
+     * grids with a time axis get a row per attribute value for each timestep.
+     */
     public static void execute(
             FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
             String attributeName,
@@ -75,8 +70,8 @@ public class FeatureCategoricalGridCoverage {
 
         GridCoordSystem gcs = gridDataType.getCoordinateSystem();
         GridType gt = GridType.findGridType(gcs);
-        if (gt != GridType.YX) {
-            throw new IllegalStateException("Currently require y-x grid for this operation");
+        if (gt != GridType.YX && gt != GridType.TYX) {
+            throw new IllegalStateException("Currently require y-x or t-y-x grid for this operation");
         }
 
         // these two calls are used to test for coverage/intersection based on 'requireFullCoverage',
@@ -84,157 +79,331 @@ public class FeatureCategoricalGridCoverage {
         Range[] featureCollectionRanges = GridUtility.getXYRangesFromBoundingBox(featureCollection.getBounds(), gcs, requireFullCoverage);
         gridDataType = gridDataType.makeSubset(null, null, null, null, featureCollectionRanges[1], featureCollectionRanges[0]);
 
-        CoordinateReferenceSystem gridCRS = CRSUtility.getCRSFromGridCoordSystem(gcs);
-        CoordinateReferenceSystem featureCRS
-                = featureCollection.getSchema().getCoordinateReferenceSystem();
-
-        MathTransform gridToFeatureTransform = CRS.findMathTransform(
-                gridCRS,
-                featureCRS,
+        // features outside the grid keep their row, with no samples
+        FeatureCellMembership membership = FeatureCellMembership.calculate(
+                featureCollection,
+                attributeName,
+                gridDataType.getCoordinateSystem(),
+                requireFullCoverage,
                 true);
 
-        AttributeDescriptor attributeDescriptor
-                = featureCollection.getSchema().getDescriptor(attributeName);
-        if (attributeDescriptor == null) {
-            throw new IllegalArgumentException(
-                    "Attribute " + attributeName + " not found in FeatureCollection.");
-        }
+        boolean timestepped = gt == GridType.TYX;
+        CategoricalCoverageVisitor visitor = new CategoricalCoverageVisitor(membership, timestepped);
+        try {
+            new GridCellTraverser(gridDataType).traverse(visitor);
+            visitor.finishCounts();
 
-        boolean attributeComparable = Comparable.class.isAssignableFrom(
-                attributeDescriptor.getType().getBinding());
+            int[] categoryColumns = visitor.categoryIndex.getColumnsByCategory();
 
-        Map<Object, Map<Integer, Integer>> attributeToCategoricalCoverageMap = attributeComparable
-                ? // rely on Comparable to sort
-                new TreeMap<Object, Map<Integer, Integer>>()
-                : // use order from FeatureCollection.iterator();
-                new LinkedHashMap<Object, Map<Integer, Integer>>();
-        SortedSet<Integer> categorySet = new TreeSet<Integer>();
+            SimpleDelimitedWriter delimitedWriter = new SimpleDelimitedWriter(delimiter, writer);
 
-        Iterator<SimpleFeature> featureIterator = featureCollection.iterator();
+            List<Object> headerRow = new ArrayList<Object>();
+            if (timestepped) {
+                headerRow.add("");
+            }
+            for (int column : categoryColumns) {
+                headerRow.add("Category");
+            }
+            delimitedWriter.writeRow(null, headerRow);
 
-        try {
-            while (featureIterator.hasNext()) {
+            headerRow.clear();
+            if (timestepped) {
+                headerRow.add("Attribute");
+            }
+            for (int column : categoryColumns) {
+                headerRow.add(visitor.categoryIndex.getCategory(column));
+            }
+            headerRow.add("Sample Count");
+            delimitedWriter.writeRow(timestepped ? "Timestep" : "Attribute", headerRow);
+
+            List<Object> attributeValueList = membership.getAttributeValueList();
+            if (timestepped) {
+                // timesteps were spilled as they finished, only the category
+                // columns had to wait for the end of the traversal
+                DataInputStream countsInput = visitor.openSpilledCounts();
+                try {
+                    long[][] perAttributeCounts = new long[attributeValueList.size()][];
+                    for (int timestep = 0; timestep < visitor.timestepCount; ++timestep) {
+                        String timestepLabel = countsInput.readUTF();
+                        for (int attributeIndex = 0; attributeIndex < perAttributeCounts.length; ++attributeIndex) {
+                            long[] counts = new long[countsInput.readInt()];
+                            for (int column = 0; column < counts.length; ++column) {
+                                counts[column] = countsInput.readLong();
+                            }
+                            perAttributeCounts[attributeIndex] = counts;
+                        }
+                        writeRows(delimitedWriter, timestepLabel, attributeValueList, perAttributeCounts, categoryColumns);
+                    }
+                } finally {
+                    countsInput.close();
+                }
+            } else if (visitor.perAttributeCounts != null) {
+                writeRows(delimitedWriter, null, attributeValueList, visitor.perAttributeCounts, categoryColumns);
+            }
+        } finally {
+            visitor.deleteSpilledCounts();
+        }
+    }
 
-                SimpleFeature feature = featureIterator.next();
-                Object attribute = feature.getAttribute(attributeName);
+    /**
+     * Writes a row per attribute value, labelled by timestepLabel with the
+     * attribute value in the first column, or by the attribute value if
+     * timestepLabel is null.
+     */
+    private static void writeRows(
+            SimpleDelimitedWriter delimitedWriter,
+            String timestepLabel,
+            List<Object> attributeValueList,
+            long[][] perAttributeCounts,
+            int[] categoryColumns)
+            throws IOException {
+        List<Object> rowValues = new ArrayList<Object>();
+        for (int attributeIndex = 0; attributeIndex < perAttributeCounts.length; ++attributeIndex) {
+            long[] counts = perAttributeCounts[attributeIndex];
+            long total = 0;
+            // gather total sample count for attribute
+            for (long count : counts) {
+                total += count;
+            }
+            rowValues.clear();
+            if (timestepLabel != null) {
+                rowValues.add(attributeValueList.get(attributeIndex));
+            }
+            // calculate and store fraction for each categorical type
+            for (int column : categoryColumns) {
+                long count = column < counts.length ? counts[column] : 0;
+                float fraction = count == 0 ? 0 : (float) count / (float) total;
+                rowValues.add(fraction);
+            }
+            rowValues.add(total);
 
-                if (attribute != null) {
+            delimitedWriter.writeRow(
+                    timestepLabel != null ? timestepLabel : attributeValueList.get(attributeIndex).toString(),
+                    rowValues);
+        }
+    }
 
-                    Map<Integer, Integer> categoricalCoverageMap
-                            = attributeToCategoricalCoverageMap.get(attribute);
-                    if (categoricalCoverageMap == null) {
-                        categoricalCoverageMap = new TreeMap<Integer, Integer>();
-                        attributeToCategoricalCoverageMap.put(attribute, categoricalCoverageMap);
-                    }
+    /**
+     * Counts categories per attribute value for each yx slice.  Counts are
+     * kept in columns assigned as categories are first seen, a yx slice only
+     * has as many columns as had been seen by its end.  With a time axis each
+     * finished slice is spilled to a temporary file so only one timestep of
+     * counts is held in memory.
+     */
+    protected static class CategoricalCoverageVisitor extends GridCellVisitor {
 
-                    BoundingBox featureBoundingBox = feature.getBounds();
+        protected final FeatureCellMembership membership;
+        protected final CategoryIndex categoryIndex = new CategoryIndex();
+        protected final SimpleDateFormat dateFormat;
+        protected final boolean timestepped;
 
-                    Geometry featureGeometry = (Geometry) feature.getDefaultGeometry();
+        // indexed by position in the membership attribute value list, then column
+        protected long[][] perAttributeCounts;
 
-                    try {
-                        Range[] featureRanges = GridUtility.getXYRangesFromBoundingBox(
-                                featureBoundingBox, gridDataType.getCoordinateSystem(), requireFullCoverage);
+        protected File countsFile;
+        protected DataOutputStream countsOutput;
+        protected int timestepCount;
 
-                        GridDatatype featureGridDataType = gridDataType.makeSubset(null, null, null, null, featureRanges[1], featureRanges[0]);
+        protected CoordinateAxis1DTime tAxis;
+        protected String tLabel;
 
-                        PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(featureGeometry);
+        protected CategoricalCoverageVisitor(FeatureCellMembership membership, boolean timestepped) {
+            this.membership = membership;
+            this.timestepped = timestepped;
 
-                        GridCellTraverser traverser = new GridCellTraverser(featureGridDataType);
-                        traverser.traverse(new FeatureGridCellVisitor(
-                                preparedGeometry,
-                                gridToFeatureTransform,
-                                categoricalCoverageMap));
+            dateFormat = new SimpleDateFormat(FeatureCoverageGridStatistics.DATE_FORMAT);
+            dateFormat.setTimeZone(TimeZone.getTimeZone(FeatureCoverageGridStatistics.TIMEZONE));
+        }
 
-                        categorySet.addAll(categoricalCoverageMap.keySet());
-                    } catch (InvalidRangeException e) {
-                        log.warn("The feature doesn't intersect the grid", e);
-                    }
+        @Override
+        public void traverseStart(GridDatatype gridDatatype) {
+            tAxis = gridDatatype.getCoordinateSystem().getTimeAxis1D();
+            if (timestepped) {
+                try {
+                    countsFile = File.createTempFile(FeatureCategoricalGridCoverage.class.getSimpleName(), ".counts");
+                    countsOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(countsFile)));
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to create category count file", e);
                 }
             }
-        } finally {
-            featureCollection.close(featureIterator);
         }
 
-        SimpleDelimitedWriter delimitedWriter = new SimpleDelimitedWriter(delimiter, writer);
-
-        Collection headerRow = new ArrayList<Object>();
-        for (Integer i : categorySet) {
-            headerRow.add("Category");
+        @Override
+        public boolean tStart(int tIndex) {
+            tLabel = dateFormat.format(tAxis.getCalendarDate(tIndex).toDate());
+            return true;
         }
-        delimitedWriter.writeRow(null, headerRow);
-
-        headerRow.clear();
-        headerRow.addAll(categorySet);
-        headerRow.add("Sample Count");
 
-        delimitedWriter.writeRow("Attribute", headerRow);
+        @Override
+        public void yxStart() {
+            perAttributeCounts = new long[membership.getAttributeValueList().size()][categoryIndex.size()];
+        }
 
-        for (Map.Entry<Object, Map<Integer, Integer>> entry : attributeToCategoricalCoverageMap.entrySet()) {
-            Object attributeValue = entry.getKey();
-            Map<Integer, Integer> categoricalCoverageMap = entry.getValue();
+        @Override
+        public void processGridCell(int xCellIndex, int yCellIndex, double value) {
+            int yxCellIndex = membership.calculateYXIndex(xCellIndex, yCellIndex);
+            int membershipStart = membership.getMembershipStart(yxCellIndex);
+            int membershipEnd = membership.getMembershipEnd(yxCellIndex);
+            if (membershipStart < membershipEnd) {
+                int column = categoryIndex.getColumn((int) value);
+                for (int index = membershipStart; index < membershipEnd; ++index) {
+                    int attributeIndex = membership.getAttributeIndex(membership.getFeatureIndex(index));
+                    long[] counts = perAttributeCounts[attributeIndex];
+                    if (column >= counts.length) {
+                        counts = Arrays.copyOf(counts, categoryIndex.size());
+                        perAttributeCounts[attributeIndex] = counts;
+                    }
+                    ++counts[column];
+                }
+            }
+        }
 
-            List<Number> rowValues = new ArrayList<Number>();
-            int total = 0;
-            // gather total sample count for attribute
-            for (Integer count : categoricalCoverageMap.values()) {
-                if (count != null) {
-                    total += count;
+        @Override
+        public void yxEnd() {
+            if (countsOutput != null) {
+                try {
+                    countsOutput.writeUTF(tLabel);
+                    for (long[] counts : perAttributeCounts) {
+                        countsOutput.writeInt(counts.length);
+                        for (long count : counts) {
+                            countsOutput.writeLong(count);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Unable to write category counts", e);
                 }
+                perAttributeCounts = null;
+                ++timestepCount;
             }
-            // calculate and store fraction for each categorical type
-            for (Integer category : categorySet) {
-                Integer count = categoricalCoverageMap.get(category);
-                float fraction = count == null ? 0 : (float) count / (float) total;
-                rowValues.add(fraction);
+        }
+
+        protected void finishCounts() throws IOException {
+            if (countsOutput != null) {
+                countsOutput.close();
+                countsOutput = null;
             }
-            rowValues.add(total);
+        }
 
-            delimitedWriter.writeRow(attributeValue.toString(), rowValues);
+        protected DataInputStream openSpilledCounts() throws IOException {
+            return new DataInputStream(new BufferedInputStream(new FileInputStream(countsFile)));
         }
 
+        protected void deleteSpilledCounts() {
+            IOUtils.closeQuietly(countsOutput);
+            countsOutput = null;
+            FileUtils.deleteQuietly(countsFile);
+            countsFile = null;
+        }
     }
 
-    protected static class FeatureGridCellVisitor extends GridCellVisitor {
+    /**
+     * Assigns each category a column in order of appearance.  Categories in
+     * [0, DENSE_CATEGORY_COUNT), which covers common land cover codes, are
+     * looked up directly, others go through an open addressing hash of
+     * primitive ints.
+     */
+    static class CategoryIndex {
+
+        final static int DENSE_CATEGORY_COUNT = 256;
+        private final static int INITIAL_SPARSE_CAPACITY = 16;
 
-        private final GeometryFactory geometryFactory = new GeometryFactory();
-        private final PreparedGeometry preparedGeometry;
-        private final MathTransform gridToFeatureTransform;
-        private final Map<Integer, Integer> categoryMap;
+        private final int[] denseColumns = new int[DENSE_CATEGORY_COUNT];
 
-        private IndexToCoordinateBuilder coordinateBuilder;
+        // column + 1 stored so an empty slot is 0
+        private int[] sparseCategories = new int[INITIAL_SPARSE_CAPACITY];
+        private int[] sparseColumns = new int[INITIAL_SPARSE_CAPACITY];
+        private int sparseSize;
 
-        protected FeatureGridCellVisitor(
-                PreparedGeometry preparedGeometry,
-                MathTransform gridToFeatureTransform,
-                Map<Integer, Integer> categoryMap) {
-            this.preparedGeometry = preparedGeometry;
-            this.gridToFeatureTransform = gridToFeatureTransform;
-            this.categoryMap = categoryMap;
+        private int[] categories = new int[INITIAL_SPARSE_CAPACITY];
+        private int size;
+
+        CategoryIndex() {
+            Arrays.fill(denseColumns, -1);
         }
 
-        @Override
-        public void traverseStart(GridDatatype gridDatatype) {
-            coordinateBuilder = GridUtility.generateIndexToCellCenterCoordinateBuilder(gridDatatype.getCoordinateSystem());
+        int getColumn(int category) {
+            int column;
+            if (category >= 0 && category < DENSE_CATEGORY_COUNT) {
+                column = denseColumns[category];
+                if (column < 0) {
+                    column = addCategory(category);
+                    denseColumns[category] = column;
+                }
+            } else {
+                int mask = sparseColumns.length - 1;
+                int slot = hash(category) & mask;
+                while (sparseColumns[slot] != 0 && sparseCategories[slot] != category) {
+                    slot = (slot + 1) & mask;
+                }
+                if (sparseColumns[slot] != 0) {
+                    column = sparseColumns[slot] - 1;
+                } else {
+                    column = addCategory(category);
+                    sparseCategories[slot] = category;
+                    sparseColumns[slot] = column + 1;
+                    if (++sparseSize > sparseColumns.length >> 1) {
+                        rehash(sparseColumns.length << 1);
+                    }
+                }
+            }
+            return column;
         }
 
-        @Override
-        public void processGridCell(int xCellIndex, int yCellIndex, double value) {
-            Coordinate coordinate
-                    = coordinateBuilder.getCoordinate(xCellIndex, yCellIndex);
-            try {
-                JTS.transform(coordinate, coordinate, gridToFeatureTransform);
-            } catch (TransformException e) {
-                log.warn("Exception transforming grid to feature", e);
+        int getCategory(int column) {
+            return categories[column];
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return columns ordered by ascending category
+         */
+        int[] getColumnsByCategory() {
+            long[] sortable = new long[size];
+            for (int column = 0; column < size; ++column) {
+                // category in the high bits, column in the low bits
+                sortable[column] = ((long) categories[column] << 32) | column;
             }
-            if (preparedGeometry.contains(geometryFactory.createPoint(coordinate))) {
-                Integer key = (int) value;
-                Integer count = categoryMap.get(key);
-                count = count == null ? 1 : count + 1;
-                categoryMap.put(key, count);
+            Arrays.sort(sortable);
+            int[] columns = new int[size];
+            for (int index = 0; index < size; ++index) {
+                columns[index] = (int) sortable[index];
             }
+            return columns;
+        }
 
+        private int addCategory(int category) {
+            if (size == categories.length) {
+                categories = Arrays.copyOf(categories, size << 1);
+            }
+            categories[size] = category;
+            return size++;
         }
 
+        private void rehash(int capacity) {
+            int[] oldCategories = sparseCategories;
+            int[] oldColumns = sparseColumns;
+            sparseCategories = new int[capacity];
+            sparseColumns = new int[capacity];
+            int mask = capacity - 1;
+            for (int index = 0; index < oldColumns.length; ++index) {
+                if (oldColumns[index] != 0) {
+                    int slot = hash(oldCategories[index]) & mask;
+                    while (sparseColumns[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    sparseCategories[slot] = oldCategories[index];
+                    sparseColumns[slot] = oldColumns[index];
+                }
+            }
+        }
+
+        private static int hash(int category) {
+            int hash = category * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
     }
 
     protected static class SimpleDelimitedWriter {
@@ -0,0 +1,253 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridUtility.IndexToCoordinateBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.nc2.dt.GridCoordSystem;
+
+/**
+ * Features containing the centre of each grid cell, same layout as
+ * GridCellCoverageIndex.  Features are indexed in feature collection order,
+ * a cell centre may be in more than one feature.  Attribute values are
+ * sorted if they are Comparable, otherwise they keep feature collection
+ * order.
+ */
+public class FeatureCellMembership {
+
+	final int xCellCount;
+	final int yCellCount;
+
+	final int[] cellOffsets;
+	final int[] featureIndices;
+
+	final int[] attributeIndexByFeature;
+	final List<Object> attributeValueList;
+
+	FeatureCellMembership(int xCellCount, int yCellCount, int[] cellOffsets, int[] featureIndices, int[] attributeIndexByFeature, List<Object> attributeValueList) {
+		this.xCellCount = xCellCount;
+		this.yCellCount = yCellCount;
+		this.cellOffsets = cellOffsets;
+		this.featureIndices = featureIndices;
+		this.attributeIndexByFeature = attributeIndexByFeature;
+		this.attributeValueList = attributeValueList;
+	}
+
+	/**
+	 * Tests every cell centre within the bounds of each feature against the
+	 * feature geometry.  Features without the attribute are left out, as are
+	 * features whose bounds don't intersect the grid (or aren't covered by it
+	 * if full coverage is required) unless includeDisjointFeatures is set, in
+	 * which case they are kept without any cells.
+	 *
+	 * @param featureCollection features to test cell centres against
+	 * @param attributeName attribute features are grouped by
+	 * @param gridCoordSystem coordinate system of the grid to be traversed
+	 * @param requireFullCoverage whether the grid must cover a feature's bounds
+	 * @param includeDisjointFeatures whether to keep features outside the grid
+	 * @return membership of the grid cells
+	 */
+	public static FeatureCellMembership calculate(
+			FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+			String attributeName,
+			GridCoordSystem gridCoordSystem,
+			boolean requireFullCoverage,
+			boolean includeDisjointFeatures)
+			throws TransformException, FactoryException {
+
+		AttributeDescriptor attributeDescriptor
+				= featureCollection.getSchema().getDescriptor(attributeName);
+		if (attributeDescriptor == null) {
+			throw new IllegalArgumentException(
+					"Attribute " + attributeName + " not found in FeatureCollection.");
+		}
+
+		boolean attributeComparable = Comparable.class.isAssignableFrom(
+				attributeDescriptor.getType().getBinding());
+
+		MathTransform gridToFeatureTransform = CRS.findMathTransform(
+				CRSUtility.getCRSFromGridCoordSystem(gridCoordSystem),
+				featureCollection.getSchema().getCoordinateReferenceSystem(),
+				true);
+
+		int xCellCount = GridUtility.getXAxisLength(gridCoordSystem);
+		int yCellCount = GridUtility.getYAxisLength(gridCoordSystem);
+		IndexToCoordinateBuilder coordinateBuilder = GridUtility.generateIndexToCellCenterCoordinateBuilder(gridCoordSystem);
+		GeometryFactory geometryFactory = new GeometryFactory();
+
+		Builder builder = new Builder(xCellCount, yCellCount);
+		List<Object> featureAttributeList = new ArrayList<Object>();
+		Map<Object, Integer> attributeIndexMap = attributeComparable
+				? // rely on Comparable to sort
+				new TreeMap<Object, Integer>()
+				: // use order from FeatureCollection.iterator();
+				new LinkedHashMap<Object, Integer>();
+
+		FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
+		try {
+			while (featureIterator.hasNext()) {
+				SimpleFeature feature = featureIterator.next();
+				Object attribute = feature.getAttribute(attributeName);
+				if (attribute != null) {
+					Range[] featureRanges = null;
+					try {
+						featureRanges = GridUtility.getXYRangesFromBoundingBox(
+								feature.getBounds(), gridCoordSystem, requireFullCoverage);
+					} catch (InvalidRangeException e) {
+						/* this may happen if the feature doesn't intersect the grid, this is OK */
+					}
+					if (featureRanges == null && !includeDisjointFeatures) {
+						continue;
+					}
+					int featureIndex = featureAttributeList.size();
+					featureAttributeList.add(attribute);
+					attributeIndexMap.put(attribute, null);
+					if (featureRanges == null) {
+						continue;
+					}
+
+					PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare((Geometry) feature.getDefaultGeometry());
+					for (int yCellIndex = featureRanges[1].first(); yCellIndex <= featureRanges[1].last(); ++yCellIndex) {
+						for (int xCellIndex = featureRanges[0].first(); xCellIndex <= featureRanges[0].last(); ++xCellIndex) {
+							Coordinate coordinate = coordinateBuilder.getCoordinate(xCellIndex, yCellIndex);
+							try {
+								JTS.transform(coordinate, coordinate, gridToFeatureTransform);
+								if (preparedGeometry.contains(geometryFactory.createPoint(coordinate))) {
+									builder.add(xCellIndex + yCellIndex * xCellCount, featureIndex);
+								}
+							} catch (TransformException e) {
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			featureIterator.close();
+		}
+
+		List<Object> attributeValueList = new ArrayList<Object>(attributeIndexMap.keySet());
+		for (int attributeIndex = 0; attributeIndex < attributeValueList.size(); ++attributeIndex) {
+			attributeIndexMap.put(attributeValueList.get(attributeIndex), attributeIndex);
+		}
+		int[] attributeIndexByFeature = new int[featureAttributeList.size()];
+		for (int featureIndex = 0; featureIndex < attributeIndexByFeature.length; ++featureIndex) {
+			attributeIndexByFeature[featureIndex] = attributeIndexMap.get(featureAttributeList.get(featureIndex));
+		}
+		return builder.build(attributeIndexByFeature, attributeValueList);
+	}
+
+	public int getCellCountX() {
+		return xCellCount;
+	}
+
+	public int getCellCountY() {
+		return yCellCount;
+	}
+
+	public final int calculateYXIndex(int xIndex, int yIndex) {
+		return xIndex + yIndex * xCellCount;
+	}
+
+	public int getMembershipStart(int yxIndex) {
+		return cellOffsets[yxIndex];
+	}
+
+	public int getMembershipEnd(int yxIndex) {
+		return cellOffsets[yxIndex + 1];
+	}
+
+	public int getFeatureIndex(int membershipIndex) {
+		return featureIndices[membershipIndex];
+	}
+
+	public int getFeatureCount() {
+		return attributeIndexByFeature.length;
+	}
+
+	public int getAttributeIndex(int featureIndex) {
+		return attributeIndexByFeature[featureIndex];
+	}
+
+	public List<Object> getAttributeValueList() {
+		return attributeValueList;
+	}
+
+	static class Builder {
+
+		private final static int INITIAL_CAPACITY = 1024;
+
+		private final int xCellCount;
+		private final int yCellCount;
+
+		private int[] cellIndices;
+		private int[] featureIndices;
+		private int size;
+
+		Builder(int xCellCount, int yCellCount) {
+			this.xCellCount = xCellCount;
+			this.yCellCount = yCellCount;
+			cellIndices = new int[INITIAL_CAPACITY];
+			featureIndices = new int[INITIAL_CAPACITY];
+			size = 0;
+		}
+
+		void add(int yxCellIndex, int featureIndex) {
+			if (size == cellIndices.length) {
+				int capacity = size + (size >> 1);
+				cellIndices = Arrays.copyOf(cellIndices, capacity);
+				featureIndices = Arrays.copyOf(featureIndices, capacity);
+			}
+			cellIndices[size] = yxCellIndex;
+			featureIndices[size] = featureIndex;
+			++size;
+		}
+
+		FeatureCellMembership build(int[] attributeIndexByFeature, List<Object> attributeValueList) {
+			final int cellCount = xCellCount * yCellCount;
+
+			// counting sort by cell index
+			int[] cellOffsets = new int[cellCount + 1];
+			for (int index = 0; index < size; ++index) {
+				++cellOffsets[cellIndices[index] + 1];
+			}
+			for (int cellIndex = 0; cellIndex < cellCount; ++cellIndex) {
+				cellOffsets[cellIndex + 1] += cellOffsets[cellIndex];
+			}
+			int[] sortedFeatureIndices = new int[size];
+			int[] insertOffsets = Arrays.copyOf(cellOffsets, cellCount);
+			for (int index = 0; index < size; ++index) {
+				sortedFeatureIndices[insertOffsets[cellIndices[index]]++] = featureIndices[index];
+			}
+			cellIndices = null;
+			featureIndices = null;
+
+			return new FeatureCellMembership(
+					xCellCount,
+					yCellCount,
+					cellOffsets,
+					sortedFeatureIndices,
+					attributeIndexByFeature,
+					attributeValueList);
+		}
+	}
+}
@@ -1,34 +1,18 @@
 package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
 
-import com.google.common.collect.Lists;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.coreprocessing.Delimiter;
 import gov.usgs.cida.gdp.coreprocessing.analysis.statistics.Statistics1D;
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.prep.PreparedGeometry;
-import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
-import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridUtility.IndexToCoordinateBuilder;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.SchemaException;
-import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
-import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.FactoryException;
-import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
@@ -41,7 +25,7 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.TimeZone;
-import org.geotools.feature.FeatureIterator;
+import org.apache.commons.io.output.StringBuilderWriter;
 import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dataset.CoordinateAxis1DTime;
 
@@ -97,6 +81,39 @@ public class FeatureCoverageGridStatistics {
 			boolean summarizeTimeStep,
 			boolean summarizeFeatures)
 			throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+		execute(featureCollection,
+				attributeName,
+				gridDatatype,
+				additionalVisitors,
+				statisticList,
+				writer,
+				groupBy,
+				delimiter,
+				requireFullCoverage,
+				summarizeTimeStep,
+				summarizeFeatures,
+				Integer.parseInt(AppConstant.TRAVERSAL_PARALLELISM.getValue()));
+	}
+
+	/**
+	 * Cell centre membership is calculated once for all features, then the
+	 * grid is traversed once over the bounds of the feature collection so
+	 * each timestep is only read once no matter how many features there are.
+	 */
+	public static void execute(
+			FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+			String attributeName,
+			GridDatatype gridDatatype,
+			List<GridCellVisitor> additionalVisitors,
+			List<WeightedStatistic> statisticList,
+			Writer writer,
+			GroupBy groupBy,
+			Delimiter delimiter,
+			boolean requireFullCoverage,
+			boolean summarizeTimeStep,
+			boolean summarizeFeatures,
+			int parallelism)
+			throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
 
 		GridCoordSystem gcs = gridDatatype.getCoordinateSystem();
 		GridType gt = GridType.findGridType(gcs);
@@ -109,178 +126,202 @@ public class FeatureCoverageGridStatistics {
 		Range[] featureCollectionRanges = GridUtility.getXYRangesFromBoundingBox(featureCollection.getBounds(), gcs, requireFullCoverage);
 		gridDatatype = gridDatatype.makeSubset(null, null, null, null, featureCollectionRanges[1], featureCollectionRanges[0]);
 
-		CoordinateReferenceSystem gridCRS = CRSUtility.getCRSFromGridCoordSystem(gcs);
-		CoordinateReferenceSystem featureCRS
-				= featureCollection.getSchema().getCoordinateReferenceSystem();
+		FeatureCellMembership membership = FeatureCellMembership.calculate(
+				featureCollection,
+				attributeName,
+				gridDatatype.getCoordinateSystem(),
+				requireFullCoverage,
+				false);
 
-		MathTransform gridToFeatureTransform = CRS.findMathTransform(
-				gridCRS,
-				featureCRS,
-				true);
+		Statistics1DWriter writerX = new Statistics1DWriter(
+				membership.getAttributeValueList(),
+				gridDatatype.getName(),
+				gridDatatype.getVariable().getUnitsString(),
+				statisticList,
+				groupBy != GroupBy.FEATURE_ATTRIBUTE, // != in case value equals null, default to GroupBy.STATISTIC
+				delimiter.delimiter,
+				null, // default block separator used
+				summarizeTimeStep,
+				summarizeFeatures,
+				writer);
+
+		List<GridCellVisitor> visitorList = new ArrayList<GridCellVisitor>();
+		visitorList.add(new FeatureGridStatisticsVisitor(membership, writerX));
+		visitorList.addAll(additionalVisitors);
+		new GridCellTraverser(gridDatatype).traverse(visitorList, parallelism);
+	}
 
-		AttributeDescriptor attributeDescriptor
-				= featureCollection.getSchema().getDescriptor(attributeName);
-		if (attributeDescriptor == null) {
-			throw new IllegalArgumentException(
-					"Attribute " + attributeName + " not found in FeatureCollection.");
+	/**
+	 * Accumulates cell values per feature for each yx slice, per feature
+	 * statistics are then merged into their attribute in feature collection
+	 * order.
+	 *
+	 * The all-timestep summary is built from the same per feature statistics,
+	 * forks keep them and join replays them in timestep order so the summary
+	 * matches serial traversal exactly.
+	 */
+	protected static class FeatureGridStatisticsVisitor extends GridCellVisitor implements ForkableGridCellVisitor {
+
+		protected final FeatureCellMembership membership;
+		protected final Statistics1DWriter writer;
+		protected final SimpleDateFormat dateFormat;
+
+		// indexed by feature index in the membership
+		protected Statistics1D[] perTimestepPerFeatureStatistics;
+
+		// indexed by position in the membership attribute value list
+		protected Statistics1D[] perTimestepPerAttributeStatistics;
+		protected Statistics1D perTimestepAllAttributeStatistics;
+
+		protected Statistics1D[] allTimestepPerAttributeStatistics;
+		protected Statistics1D allTimestepAllAttributeStatistics;
+
+		protected CoordinateAxis1D zAxis;
+		protected String zLabel;
+
+		protected CoordinateAxis1DTime tAxis;
+		protected String tLabel;
+
+		// only set on forked visitors, holds rows rendered by the fork
+		protected StringBuilderWriter forkedRows;
+		// only set on forked visitors when summarizing all timesteps, per
+		// feature statistics of each yx slice in traversal order
+		protected List<Statistics1D[]> forkedPerFeatureStatistics;
+
+		public FeatureGridStatisticsVisitor(FeatureCellMembership membership, Statistics1DWriter writer) {
+			this.membership = membership;
+			this.writer = writer;
+
+			dateFormat = new SimpleDateFormat(DATE_FORMAT);
+			dateFormat.setTimeZone(TimeZone.getTimeZone(TIMEZONE));
 		}
 
-		boolean attributeComparable = Comparable.class.isAssignableFrom(
-				attributeDescriptor.getType().getBinding());
-
-		Map<Object, Statistics1D> perTimestepPerAttributeStatisticsMap;
-		Statistics1D perTimestepAllAttributeStatistics;
+		protected static Statistics1D[] createStatistics(int count) {
+			Statistics1D[] statistics = new Statistics1D[count];
+			for (int index = 0; index < count; ++index) {
+				statistics[index] = new Statistics1D();
+			}
+			return statistics;
+		}
 
-		Map<Object, Statistics1D> allTimestepPerAttributeStatisticsMap;
-		Statistics1D allTimestepAllAttributeStatistics;
+		@Override
+		public void traverseStart(GridDatatype gridDatatype) {
+			tAxis = gridDatatype.getCoordinateSystem().getTimeAxis1D();
+			zAxis = gridDatatype.getCoordinateSystem().getVerticalAxis();
 
-		allTimestepPerAttributeStatisticsMap = create(attributeComparable);
-		allTimestepAllAttributeStatistics = new Statistics1D();
+			allTimestepPerAttributeStatistics = createStatistics(membership.getAttributeValueList().size());
+			allTimestepAllAttributeStatistics = new Statistics1D();
 
-		Statistics1DWriter writerX = null;
+			try {
+				writer.writeHeader(Statistics1DWriter.buildRowLabel(
+						tAxis == null ? "" : Statistics1DWriter.TIMESTEPS_LABEL,
+						zAxis == null ? null : String.format("%s(%s)", zAxis.getShortName(), zAxis.getUnitsString())));
+			} catch (IOException e) {
 
-		SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
-		dateFormat.setTimeZone(TimeZone.getTimeZone(TIMEZONE));
+			}
+		}
 
-		CoordinateAxis1D zAxis = gcs.getVerticalAxis();
-		CoordinateAxis1DTime tAxis = gcs.getTimeAxis1D();
+		@Override
+		public boolean tStart(int tIndex) {
+			tLabel = dateFormat.format(tAxis.getCalendarDate(tIndex).toDate());
+			return true;
+		}
 
-		for (Range tRange : decompose(tAxis)) {
-			String tLabel = tRange == null ? null : dateFormat.format(gcs.getTimeAxis1D().getCalendarDate(tRange.first()).toDate());
-			for (Range zRange : decompose(zAxis)) {
-				String zLabel = zRange == null ? null : Double.toString(gcs.getVerticalAxis().getCoordValue(zRange.first()));
+		@Override
+		public boolean zStart(int zIndex) {
+			zLabel = Double.toString(zAxis.getCoordValue(zIndex));
+			return true;
+		}
 
-				FeatureIterator<SimpleFeature> featureIterator = null;
-				try {
+		@Override
+		public void yxStart() {
+			perTimestepPerFeatureStatistics = createStatistics(membership.getFeatureCount());
+		}
 
-					perTimestepPerAttributeStatisticsMap = create(attributeComparable);
-					perTimestepAllAttributeStatistics = new Statistics1D();
-
-					featureIterator = featureCollection.features();
-
-					while (featureIterator.hasNext()) {
-
-						SimpleFeature feature = featureIterator.next();
-						Object attribute = feature.getAttribute(attributeName);
-
-						if (attribute != null) {
-
-							BoundingBox featureBoundingBox = feature.getBounds();
-
-							Geometry featureGeometry = (Geometry) feature.getDefaultGeometry();
-
-							try {
-								Range[] featureRanges = GridUtility.getXYRangesFromBoundingBox(
-										featureBoundingBox, gridDatatype.getCoordinateSystem(), requireFullCoverage);
-
-								GridDatatype featureGridDataType = gridDatatype.makeSubset(null, null, tRange, zRange, featureRanges[1], featureRanges[0]);
-
-								PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(featureGeometry);
-
-								Statistics1D perTimestepPerFeatureStatistics = new Statistics1D();
-								GridCellTraverser traverser = new GridCellTraverser(featureGridDataType);
-								FeatureGridCellVisitor featureGridCellVisitor = new FeatureCoverageGridStatistics.FeatureGridCellVisitor(
-										preparedGeometry,
-										gridToFeatureTransform,
-										perTimestepPerFeatureStatistics);
-								List<GridCellVisitor> visitors = Lists.newArrayList(featureGridCellVisitor);
-								visitors.addAll(additionalVisitors);
-								traverser.traverse(visitors);
-
-								extract(perTimestepPerAttributeStatisticsMap, attribute).accumulate(perTimestepPerFeatureStatistics);
-								extract(allTimestepPerAttributeStatisticsMap, attribute).accumulate(perTimestepPerFeatureStatistics);
-								perTimestepAllAttributeStatistics.accumulate(perTimestepPerFeatureStatistics);
-								allTimestepAllAttributeStatistics.accumulate(perTimestepPerFeatureStatistics);
-
-							} catch (InvalidRangeException e) {
-								/* this may happen if the feature doesn't intersect the grid, this is OK */
-							}
-						}
-					}
-					if (writerX == null) {
-						writerX = new Statistics1DWriter(
-								new ArrayList<Object>(perTimestepPerAttributeStatisticsMap.keySet()),
-								gridDatatype.getName(),
-								gridDatatype.getVariable().getUnitsString(),
-								statisticList,
-								groupBy != GroupBy.FEATURE_ATTRIBUTE, // != in case value equals null, default to GroupBy.STATISTIC
-								delimiter.delimiter,
-								null, // default block separator used
-								summarizeTimeStep,
-								summarizeFeatures,
-								writer);
-						writerX.writeHeader(Statistics1DWriter.buildRowLabel(
-								tAxis == null ? "" : Statistics1DWriter.TIMESTEPS_LABEL,
-								zAxis == null ? null : String.format("%s(%s)", zAxis.getShortName(), zAxis.getUnitsString())));
-					}
-					writerX.writeRow(
-							Statistics1DWriter.buildRowLabel(tLabel, zLabel),
-							perTimestepPerAttributeStatisticsMap.values(),
-							perTimestepAllAttributeStatistics);
-				} finally {
-					featureIterator.close();
-				}
+		@Override
+		public void processGridCell(int xCellIndex, int yCellIndex, double value) {
+			int yxCellIndex = membership.calculateYXIndex(xCellIndex, yCellIndex);
+			int membershipEnd = membership.getMembershipEnd(yxCellIndex);
+			for (int index = membership.getMembershipStart(yxCellIndex); index < membershipEnd; ++index) {
+				perTimestepPerFeatureStatistics[membership.getFeatureIndex(index)].accumulate(value);
 			}
 		}
-		if (summarizeFeatures && writerX != null) {
-			writerX.writeRow(
-					Statistics1DWriter.buildRowLabel(Statistics1DWriter.ALL_TIMESTEPS_LABEL, zAxis == null ? null : ""),
-					allTimestepPerAttributeStatisticsMap.values(),
-					allTimestepAllAttributeStatistics);
-		}
-	}
 
-	protected static class FeatureGridCellVisitor extends GridCellVisitor {
-
-		private final GeometryFactory geometryFactory = new GeometryFactory();
-		private final PreparedGeometry preparedGeometry;
-		private final MathTransform gridToFeatureTransform;
-		private final Statistics1D statistics;
-		private IndexToCoordinateBuilder coordinateBuilder;
-
-		protected FeatureGridCellVisitor(
-				PreparedGeometry preparedGeometry,
-				MathTransform gridToFeatureTransform,
-				Statistics1D statistics) {
-			this.preparedGeometry = preparedGeometry;
-			this.gridToFeatureTransform = gridToFeatureTransform;
-			this.statistics = statistics;
+		@Override
+		public void yxEnd() {
+			perTimestepPerAttributeStatistics = createStatistics(membership.getAttributeValueList().size());
+			perTimestepAllAttributeStatistics = new Statistics1D();
+			for (int featureIndex = 0; featureIndex < perTimestepPerFeatureStatistics.length; ++featureIndex) {
+				Statistics1D perTimestepPerFeatureStatistic = perTimestepPerFeatureStatistics[featureIndex];
+				int attributeIndex = membership.getAttributeIndex(featureIndex);
+				perTimestepPerAttributeStatistics[attributeIndex].accumulate(perTimestepPerFeatureStatistic);
+				perTimestepAllAttributeStatistics.accumulate(perTimestepPerFeatureStatistic);
+			}
+			if (forkedPerFeatureStatistics != null) {
+				forkedPerFeatureStatistics.add(perTimestepPerFeatureStatistics);
+			} else if (allTimestepPerAttributeStatistics != null) {
+				accumulateAllTimesteps(perTimestepPerFeatureStatistics);
+			}
+			perTimestepPerFeatureStatistics = null;
+			try {
+				writer.writeRow(
+						Statistics1DWriter.buildRowLabel(tLabel, zLabel),
+						Arrays.asList(perTimestepPerAttributeStatistics),
+						perTimestepAllAttributeStatistics);
+			} catch (IOException e) {
+
+			}
 		}
 
-		@Override
-		public void traverseStart(GridDatatype gridDatatype) {
-			coordinateBuilder = GridUtility.generateIndexToCellCenterCoordinateBuilder(gridDatatype.getCoordinateSystem());
+		protected void accumulateAllTimesteps(Statistics1D[] perFeatureStatistics) {
+			for (int featureIndex = 0; featureIndex < perFeatureStatistics.length; ++featureIndex) {
+				int attributeIndex = membership.getAttributeIndex(featureIndex);
+				allTimestepPerAttributeStatistics[attributeIndex].accumulate(perFeatureStatistics[featureIndex]);
+				allTimestepAllAttributeStatistics.accumulate(perFeatureStatistics[featureIndex]);
+			}
 		}
 
 		@Override
-		public void processGridCell(int xCellIndex, int yCellIndex, double value) {
-			Coordinate coordinate
-					= coordinateBuilder.getCoordinate(xCellIndex, yCellIndex);
+		public void traverseEnd() {
 			try {
-				JTS.transform(coordinate, coordinate, gridToFeatureTransform);
-				if (preparedGeometry.contains(geometryFactory.createPoint(coordinate))) {
-					statistics.accumulate(value);
+				if (writer.isSummarizeFeatureAttribute()) {
+					writer.writeRow(
+							Statistics1DWriter.buildRowLabel(Statistics1DWriter.ALL_TIMESTEPS_LABEL, zAxis == null ? null : ""),
+							Arrays.asList(allTimestepPerAttributeStatistics),
+							allTimestepAllAttributeStatistics);
 				}
-			} catch (TransformException e) {
+			} catch (IOException e) {
+
 			}
 		}
-	}
 
-	private static Map<Object, Statistics1D> create(boolean attributeComparable) {
-		return attributeComparable
-				? // rely on Comparable to sort
-				new TreeMap<Object, Statistics1D>()
-				: // use order from FeatureCollection.iterator();
-				new LinkedHashMap<Object, Statistics1D>();
-	}
+		@Override
+		public GridCellVisitor fork() {
+			StringBuilderWriter rows = new StringBuilderWriter();
+			FeatureGridStatisticsVisitor forked = new FeatureGridStatisticsVisitor(membership, writer.fork(rows));
+			forked.forkedRows = rows;
+			forked.tAxis = tAxis;
+			forked.zAxis = zAxis;
+			if (writer.isSummarizeFeatureAttribute()) {
+				forked.forkedPerFeatureStatistics = new ArrayList<Statistics1D[]>();
+			}
+			return forked;
+		}
+
+		@Override
+		public void join(GridCellVisitor forked) {
+			FeatureGridStatisticsVisitor joined = (FeatureGridStatisticsVisitor) forked;
+			try {
+				writer.writeRendered(joined.forkedRows.getBuilder());
+			} catch (IOException e) {
 
-	private static Statistics1D extract(Map<Object, Statistics1D> map, Object attribute) {
-		Statistics1D statistics = map.get(attribute);
-		if (statistics == null) {
-			statistics = new Statistics1D();
-			map.put(attribute, statistics);
+			}
+			if (joined.forkedPerFeatureStatistics != null) {
+				for (Statistics1D[] perFeatureStatistics : joined.forkedPerFeatureStatistics) {
+					accumulateAllTimesteps(perFeatureStatistics);
+				}
+			}
 		}
-		return statistics;
 	}
 
 	public static Iterable<Range> decompose(CoordinateAxis1D axis) {
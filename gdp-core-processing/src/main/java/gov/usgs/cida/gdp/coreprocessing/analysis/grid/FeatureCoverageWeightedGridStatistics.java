@@ -2,19 +2,21 @@ package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
 
 import ucar.nc2.dataset.CoordinateAxis1D;
 import org.slf4j.Logger;
+import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.coreprocessing.Delimiter;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.Statistics1DWriter.GroupBy;
 import gov.usgs.cida.gdp.coreprocessing.analysis.statistics.WeightedStatistics1D;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellCoverageByIndex;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellCoverageIndex;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellIndexCoverage;
 
 import java.text.SimpleDateFormat;
 import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.TimeZone;
 
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.SchemaException;
 import org.opengis.feature.simple.SimpleFeature;
@@ -83,6 +85,39 @@ public class FeatureCoverageWeightedGridStatistics {
             boolean summarizeFeatures)
             throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException
     {
+        execute(new GridCellCoverageIndexCache(featureCollection, attributeName),
+                gridDatatype,
+                additionalVisitors,
+                statisticList,
+                writer,
+                groupBy,
+                delimiter,
+                requireFullCoverage,
+                summarizeTimeStep,
+                summarizeFeatures,
+                Integer.parseInt(AppConstant.TRAVERSAL_PARALLELISM.getValue()));
+    }
+
+    /**
+     * Feature collection and attribute name are taken from coverageIndexCache,
+     * share a cache between calls for variables of the same request so feature
+     * coverage is only calculated once for each distinct grid.
+     */
+    public static void execute(
+            GridCellCoverageIndexCache coverageIndexCache,
+            GridDatatype gridDatatype,
+            List<GridCellVisitor> additionalVisitors,
+            List<WeightedStatistic> statisticList,
+            Writer writer,
+            GroupBy groupBy,
+            Delimiter delimiter,
+            boolean requireFullCoverage,
+            boolean summarizeTimeStep,
+            boolean summarizeFeatures,
+            int parallelism)
+            throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException
+    {
+        FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = coverageIndexCache.getFeatureCollection();
         
         GridType gt = GridType.findGridType(gridDatatype.getCoordinateSystem());
         
@@ -96,15 +131,12 @@ public class FeatureCoverageWeightedGridStatistics {
                 requireFullCoverage);
         gridDatatype = gridDatatype.makeSubset(null, null, null, null, ranges[1], ranges[0]);
 
-        GridCellCoverageByIndex coverageByIndex =
-                GridCellCoverageFactory.generateFeatureAttributeCoverageByIndex(
-                    featureCollection,
-                    attributeName,
-                    gridDatatype.getCoordinateSystem());
+        GridCellCoverageIndex coverageIndex =
+                coverageIndexCache.getCoverageIndex(gridDatatype.getCoordinateSystem());
 
         String variableUnits = gridDatatype.getVariable().getUnitsString();
 
-        List<Object> attributeList = coverageByIndex.getAttributeValueList();
+        List<Object> attributeList = coverageIndex.getAttributeValueList();
 
         Statistics1DWriter writerX =
                 new Statistics1DWriter(
@@ -120,12 +152,14 @@ public class FeatureCoverageWeightedGridStatistics {
                     writer);
 
         List<GridCellVisitor> visitorList = new LinkedList<>();
-        WeightedGridStatisticsVisitor v = new WeightedGridStatisticsVisitor(coverageByIndex, writerX);
+        WeightedGridStatisticsVisitor v = new WeightedGridStatisticsVisitor(coverageIndex, writerX);
         visitorList.add(v);
         visitorList.addAll(additionalVisitors);
         GridCellTraverser gct = new GridCellTraverser(gridDatatype);
 
-        gct.traverse(visitorList);
+        // the all-timestep summary accumulates every cell of every timestep,
+        // merging it from forks rounds differently than serial accumulation
+        gct.traverse(visitorList, summarizeFeatures ? 1 : parallelism);
     }
 
     public static abstract class FeatureCoverageGridCellVisitor extends GridCellVisitor {
@@ -160,7 +194,43 @@ public class FeatureCoverageWeightedGridStatistics {
     }
 
 
-    protected static class WeightedGridStatisticsVisitor extends FeatureCoverageGridCellVisitor {
+    /**
+     * Same as FeatureCoverageGridCellVisitor but iterates a GridCellCoverageIndex,
+     * attributes are passed by their index in the attribute value list and no
+     * objects are allocated per grid cell.
+     */
+    public static abstract class FeatureCoverageIndexGridCellVisitor extends GridCellVisitor {
+
+        final protected GridCellCoverageIndex coverageIndex;
+
+        public FeatureCoverageIndexGridCellVisitor(GridCellCoverageIndex coverageIndex) {
+            this.coverageIndex = coverageIndex;
+        }
+
+        @Override
+        public void processGridCell(int xCellIndex, int yCellIndex, double value) {
+            double coverageTotal = 0;
+            int yxCellIndex = coverageIndex.calculateYXIndex(xCellIndex, yCellIndex);
+            int coverageEnd = coverageIndex.getCoverageEnd(yxCellIndex);
+            for (int index = coverageIndex.getCoverageStart(yxCellIndex); index < coverageEnd; ++index) {
+                double coverage = coverageIndex.getCoverage(index);
+                if (coverage > 0.0) {
+                    processPerAttributeGridCellCoverage(value, coverage, coverageIndex.getAttributeIndex(index));
+                }
+                coverageTotal += coverage;
+            }
+            if (coverageTotal > 0.0) {
+                processAllAttributeGridCellCoverage(value, coverageTotal);
+            }
+        }
+
+        public abstract void processPerAttributeGridCellCoverage(double value, double coverage, int attributeIndex);
+
+        public abstract void processAllAttributeGridCellCoverage(double value, double coverage);
+
+    }
+
+    protected static class WeightedGridStatisticsVisitor extends FeatureCoverageIndexGridCellVisitor implements ForkableGridCellVisitor {
 
         public final static String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
         public final static String TIMEZONE = "UTC";
@@ -169,10 +239,11 @@ public class FeatureCoverageWeightedGridStatistics {
         
         protected final Statistics1DWriter writer;
         
-        protected Map<Object, WeightedStatistics1D> perTimestepPerAttributeStatisticsMap;
+        // indexed by position in the coverage index attribute value list
+        protected WeightedStatistics1D[] perTimestepPerAttributeStatistics;
         protected WeightedStatistics1D perTimestepAllAttributeStatistics;
         
-        protected Map<Object, WeightedStatistics1D> allTimestepPerAttributeStatisticsMap;
+        protected WeightedStatistics1D[] allTimestepPerAttributeStatistics;
         protected WeightedStatistics1D allTimestepAllAttributeStatistics;
         
         protected CoordinateAxis1D zAxis;
@@ -181,21 +252,23 @@ public class FeatureCoverageWeightedGridStatistics {
         protected CoordinateAxis1DTime tAxis;
         protected String tLabel;
         
+        // only set on forked visitors, holds rows rendered by the fork
+        protected StringBuilderWriter forkedRows;
         
-        public WeightedGridStatisticsVisitor(GridCellCoverageByIndex coverageByIndex, Statistics1DWriter writer) {
-            super(coverageByIndex);
+        public WeightedGridStatisticsVisitor(GridCellCoverageIndex coverageIndex, Statistics1DWriter writer) {
+            super(coverageIndex);
             this.writer = writer;
             
             dateFormat = new SimpleDateFormat(DATE_FORMAT);
             dateFormat.setTimeZone(TimeZone.getTimeZone(TIMEZONE));
         }
 
-        protected Map<Object, WeightedStatistics1D> createPerAttributeStatisticsMap() {
-            Map map = new LinkedHashMap<Object, WeightedStatistics1D>();
-            for (Object attributeValue : coverageByIndex.getAttributeValueList()) {
-                map.put(attributeValue, new WeightedStatistics1D());
+        protected WeightedStatistics1D[] createPerAttributeStatistics() {
+            WeightedStatistics1D[] statistics = new WeightedStatistics1D[coverageIndex.getAttributeValueList().size()];
+            for (int attributeIndex = 0; attributeIndex < statistics.length; ++attributeIndex) {
+                statistics[attributeIndex] = new WeightedStatistics1D();
             }
-            return map;
+            return statistics;
         }
 
         @Override
@@ -204,7 +277,7 @@ public class FeatureCoverageWeightedGridStatistics {
             tAxis = gridDataType.getCoordinateSystem().getTimeAxis1D();
             zAxis = gridDataType.getCoordinateSystem().getVerticalAxis();
 
-            allTimestepPerAttributeStatisticsMap = createPerAttributeStatisticsMap();
+            allTimestepPerAttributeStatistics = createPerAttributeStatistics();
             allTimestepAllAttributeStatistics = new WeightedStatistics1D();
             
             try {
@@ -233,14 +306,14 @@ public class FeatureCoverageWeightedGridStatistics {
         @Override
         public void yxStart() {
             super.yxStart();
-            perTimestepPerAttributeStatisticsMap = createPerAttributeStatisticsMap();
+            perTimestepPerAttributeStatistics = createPerAttributeStatistics();
             perTimestepAllAttributeStatistics = new WeightedStatistics1D();
         }
 
         @Override
-        public void processPerAttributeGridCellCoverage(double value, double coverage, Object attribute) {
-            perTimestepPerAttributeStatisticsMap.get(attribute).accumulate(value, coverage);
-            allTimestepPerAttributeStatisticsMap.get(attribute).accumulate(value, coverage);
+        public void processPerAttributeGridCellCoverage(double value, double coverage, int attributeIndex) {
+            perTimestepPerAttributeStatistics[attributeIndex].accumulate(value, coverage);
+            allTimestepPerAttributeStatistics[attributeIndex].accumulate(value, coverage);
         }
 
         @Override
@@ -255,7 +328,7 @@ public class FeatureCoverageWeightedGridStatistics {
             try {
                 writer.writeRow(
                             Statistics1DWriter.buildRowLabel(tLabel, zLabel),
-                            perTimestepPerAttributeStatisticsMap.values(),
+                            Arrays.asList(perTimestepPerAttributeStatistics),
                             perTimestepAllAttributeStatistics);
             } catch (IOException e) {
                 
@@ -269,12 +342,39 @@ public class FeatureCoverageWeightedGridStatistics {
                 if (writer.isSummarizeFeatureAttribute() && tAxis != null) {
                     writer.writeRow(
                             Statistics1DWriter.buildRowLabel(Statistics1DWriter.ALL_TIMESTEPS_LABEL, zLabel == null ? null : ""),
-                            allTimestepPerAttributeStatisticsMap.values(),
+                            Arrays.asList(allTimestepPerAttributeStatistics),
                             allTimestepAllAttributeStatistics);
                 }
             } catch (IOException ex) {
                 // TODO
             }
         }
+
+        @Override
+        public GridCellVisitor fork() {
+            if (writer.isSummarizeFeatureAttribute()) {
+                throw new IllegalStateException("Unable to fork visitor that summarizes all timesteps");
+            }
+            StringBuilderWriter rows = new StringBuilderWriter();
+            WeightedGridStatisticsVisitor forked = new WeightedGridStatisticsVisitor(coverageIndex, writer.fork(rows));
+            forked.forkedRows = rows;
+            forked.tAxis = tAxis;
+            forked.zAxis = zAxis;
+            // accumulated but never written or joined, forks only run without the summary
+            forked.allTimestepPerAttributeStatistics = forked.createPerAttributeStatistics();
+            forked.allTimestepAllAttributeStatistics = new WeightedStatistics1D();
+            return forked;
+        }
+
+        @Override
+        public void join(GridCellVisitor forked) {
+            WeightedGridStatisticsVisitor joined = (WeightedGridStatisticsVisitor)forked;
+            try {
+                writer.writeRendered(joined.forkedRows.getBuilder());
+            } catch (IOException e) {
+                
+            }
+            zLabel = joined.zLabel;
+        }
     }
 }
@@ -0,0 +1,31 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+/**
+ * Implemented by GridCellVisitors that can take part in parallel traversal.
+ *
+ * The traverser calls traverseStart on the original visitor, then forks one
+ * thread-confined copy for each block of timesteps.  Forks only receive the
+ * tStart through tEnd callbacks for their block (never traverseStart or
+ * traverseEnd).  Once a block is done, its fork is joined back into the
+ * original visitor on the traversing thread, in timestep order.
+ */
+public interface ForkableGridCellVisitor {
+
+	/**
+	 * Create a copy of this visitor for use by a single worker thread.  The
+	 * copy may share immutable state (coverage, axes) with this visitor but
+	 * must not share any mutable state.
+	 *
+	 * @return visitor to receive callbacks for one block of timesteps
+	 */
+	GridCellVisitor fork();
+
+	/**
+	 * Merge the results of a fork back into this visitor.  Called on the
+	 * traversing thread in ascending timestep order.
+	 *
+	 * @param forked visitor previously returned by {@link #fork()}
+	 */
+	void join(GridCellVisitor forked);
+
+}
@@ -0,0 +1,462 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
+import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellCoverageIndex;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists feature coverage weights so repeat requests with the same features
+ * and grid skip coverage calculation.  Entries are keyed by a digest of the
+ * feature geometries and attribute values, the attribute name, the coverage
+ * settings and the grid cell geometry.  Each entry is a single binary file of
+ * typed primitives, attribute values are limited to strings, numbers and
+ * booleans so nothing is deserialized from the cache directory.  Least
+ * recently used entries are removed once the cache exceeds its maximum size.
+ * Disabled unless AppConstant.COVERAGE_CACHE_SIZE_MAX is set.
+ */
+public class GridCellCoverageDiskCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GridCellCoverageDiskCache.class);
+
+	private static final int MAGIC = 0x47445043; // "GDPC"
+
+	// Increment when the file layout or the coverage calculation changes so
+	// entries written by previous versions are no longer used.
+	private static final int VERSION = 3;
+
+	private static final String SUFFIX = ".coverage";
+
+	// magic, version, x count, y count, coverage count, attribute count
+	private static final int HEADER_SIZE = 6 * 4;
+
+	// attribute value types, written before each value
+	private static final byte TYPE_STRING = 0;
+	private static final byte TYPE_INTEGER = 1;
+	private static final byte TYPE_LONG = 2;
+	private static final byte TYPE_SHORT = 3;
+	private static final byte TYPE_BYTE = 4;
+	private static final byte TYPE_DOUBLE = 5;
+	private static final byte TYPE_FLOAT = 6;
+	private static final byte TYPE_BOOLEAN = 7;
+	private static final byte TYPE_BIG_INTEGER = 8;
+	private static final byte TYPE_BIG_DECIMAL = 9;
+
+	private static GridCellCoverageDiskCache defaultCache;
+	private static boolean defaultCacheInitialized = false;
+
+	private final File cacheDirectory;
+	private final long maxSize;
+
+	public GridCellCoverageDiskCache(File cacheDirectory, long maxSize) {
+		this.cacheDirectory = cacheDirectory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return cache under AppConstant.CACHE_LOCATION or null if caching is
+	 * disabled or the cache directory can't be created
+	 */
+	public static synchronized GridCellCoverageDiskCache getDefault() {
+		if (!defaultCacheInitialized) {
+			defaultCacheInitialized = true;
+			long maxSize = Long.parseLong(AppConstant.COVERAGE_CACHE_SIZE_MAX.getValue());
+			File cacheDirectory = new File(AppConstant.CACHE_LOCATION.getValue(), "coverage");
+			if (maxSize > 0) {
+				if (cacheDirectory.isDirectory() || cacheDirectory.mkdirs()) {
+					defaultCache = new GridCellCoverageDiskCache(cacheDirectory, maxSize);
+				} else {
+					LOGGER.warn("Unable to create coverage cache directory {}, coverage will not be cached", cacheDirectory);
+				}
+			}
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Digest the geometry and attribute value of every feature along with
+	 * the feature CRS and attribute name.  Calculated once per request and
+	 * combined with a grid key by {@link #generateKey(byte[], GridCellGeometryKey)}.
+	 * Every field is length prefixed so different features can't run together
+	 * into the same digest.
+	 *
+	 * @param featureCollection features coverage is calculated for
+	 * @param attributeName attribute coverage is grouped by
+	 * @return digest identifying features and attribute
+	 */
+	public static byte[] digestFeatures(
+			FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+			String attributeName) {
+		MessageDigest digest = createDigest();
+		updateField(digest, attributeName);
+		CoordinateReferenceSystem featureCRS = featureCollection.getSchema().getCoordinateReferenceSystem();
+		if (featureCRS != null) {
+			String crsDefinition;
+			try {
+				crsDefinition = featureCRS.toWKT();
+			} catch (UnsupportedOperationException e) {
+				crsDefinition = featureCRS.toString();
+			}
+			updateField(digest, crsDefinition);
+		} else {
+			updateField(digest, new byte[0]);
+		}
+		WKBWriter wkbWriter = new WKBWriter();
+		FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
+		try {
+			while (featureIterator.hasNext()) {
+				SimpleFeature feature = featureIterator.next();
+				Object attribute = feature.getAttribute(attributeName);
+				Geometry geometry = (Geometry) feature.getDefaultGeometry();
+				if (attribute != null && geometry != null) {
+					updateField(digest, attribute.getClass().getName());
+					updateField(digest, attribute.toString());
+					updateField(digest, wkbWriter.write(geometry));
+				}
+			}
+		} finally {
+			featureIterator.close();
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * @param featureDigest digest from {@link #digestFeatures(FeatureCollection, String)}
+	 * @param gridCellGeometryKey grid coverage was calculated for
+	 * @return key identifying coverage for the features, grid and current
+	 * coverage settings
+	 */
+	public static String generateKey(byte[] featureDigest, GridCellGeometryKey gridCellGeometryKey) {
+		MessageDigest digest = createDigest();
+		updateField(digest, featureDigest);
+		// precomputed cell edges round differently than per feature transforms
+		updateField(digest, String.valueOf(Boolean.parseBoolean(AppConstant.COVERAGE_PRECOMPUTE_TRANSFORM.getValue())));
+		gridCellGeometryKey.updateDigest(digest);
+		StringBuilder key = new StringBuilder("v").append(VERSION).append('-');
+		for (byte b : digest.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @param key cache key from {@link #generateKey(byte[], GridCellGeometryKey)}
+	 * @return cached coverage or null if there is no usable entry for key
+	 */
+	public GridCellCoverageIndex get(String key) {
+		File file = new File(cacheDirectory, key + SUFFIX);
+		if (!file.isFile()) {
+			return null;
+		}
+		long fileSize = file.length();
+		DataInputStream inputStream = null;
+		try {
+			inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 << 10));
+			if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+				throw new IOException("Unrecognized coverage cache file");
+			}
+			int xCellCount = inputStream.readInt();
+			int yCellCount = inputStream.readInt();
+			int coverageCount = inputStream.readInt();
+			int attributeCount = inputStream.readInt();
+			// check counts against the file size before allocating anything
+			long cellCount = (long) xCellCount * yCellCount;
+			if (xCellCount < 0 || yCellCount < 0 || coverageCount < 0 || attributeCount < 0 ||
+					cellCount >= Integer.MAX_VALUE ||
+					HEADER_SIZE + attributeCount + 4l * (cellCount + 1) + 12l * coverageCount > fileSize) {
+				throw new IOException("Coverage cache file is truncated or corrupt");
+			}
+
+			List<Object> attributeValueList = new ArrayList<>(attributeCount);
+			for (int index = 0; index < attributeCount; ++index) {
+				attributeValueList.add(readAttributeValue(inputStream, fileSize));
+			}
+
+			int[] cellOffsets = new int[(int) cellCount + 1];
+			for (int index = 0; index < cellOffsets.length; ++index) {
+				cellOffsets[index] = inputStream.readInt();
+				if (index == 0 ? cellOffsets[index] != 0 : cellOffsets[index] < cellOffsets[index - 1]) {
+					throw new IOException("Coverage cache file has invalid cell offsets");
+				}
+			}
+			if (cellOffsets[cellOffsets.length - 1] != coverageCount) {
+				throw new IOException("Coverage cache file has invalid cell offsets");
+			}
+
+			int[] attributeIndices = new int[coverageCount];
+			for (int index = 0; index < coverageCount; ++index) {
+				attributeIndices[index] = inputStream.readInt();
+				if (attributeIndices[index] < 0 || attributeIndices[index] >= attributeCount) {
+					throw new IOException("Coverage cache file has invalid attribute indices");
+				}
+			}
+
+			double[] coverages = new double[coverageCount];
+			for (int index = 0; index < coverageCount; ++index) {
+				coverages[index] = inputStream.readDouble();
+			}
+
+			if (!file.setLastModified(System.currentTimeMillis())) {
+				LOGGER.debug("Unable to update access time of {}", file);
+			}
+			return new GridCellCoverageIndex(
+					xCellCount,
+					yCellCount,
+					cellOffsets,
+					attributeIndices,
+					coverages,
+					Collections.unmodifiableList(attributeValueList));
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Removing unreadable coverage cache entry {}", file, e);
+			FileUtils.deleteQuietly(file);
+			return null;
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+
+	/**
+	 * Store coverage for key, then evict least recently used entries until
+	 * the cache is under its maximum size.  Coverage with attribute values
+	 * other than strings, numbers and booleans is not cached.
+	 *
+	 * @param key cache key from {@link #generateKey(byte[], GridCellGeometryKey)}
+	 * @param coverageIndex coverage to store
+	 */
+	public void put(String key, GridCellCoverageIndex coverageIndex) {
+		byte[] attributeBytes = writeAttributeValues(coverageIndex.attributeValueList);
+		if (attributeBytes == null) {
+			LOGGER.debug("Attribute values are not of a cacheable type, coverage will not be cached");
+			return;
+		}
+		long size = HEADER_SIZE + attributeBytes.length +
+				4l * coverageIndex.cellOffsets.length +
+				12l * coverageIndex.coverages.length;
+		if (size > maxSize || size > Integer.MAX_VALUE) {
+			LOGGER.debug("Coverage of {} bytes is too large to cache", size);
+			return;
+		}
+
+		File file = new File(cacheDirectory, key + SUFFIX);
+		File temp = null;
+		DataOutputStream outputStream = null;
+		try {
+			// write to temp file and rename so readers never see a partial entry
+			temp = File.createTempFile(key, ".tmp", cacheDirectory);
+			outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			outputStream.writeInt(MAGIC);
+			outputStream.writeInt(VERSION);
+			outputStream.writeInt(coverageIndex.xCellCount);
+			outputStream.writeInt(coverageIndex.yCellCount);
+			outputStream.writeInt(coverageIndex.coverages.length);
+			outputStream.writeInt(coverageIndex.attributeValueList.size());
+			outputStream.write(attributeBytes);
+			for (int cellOffset : coverageIndex.cellOffsets) {
+				outputStream.writeInt(cellOffset);
+			}
+			for (int attributeIndex : coverageIndex.attributeIndices) {
+				outputStream.writeInt(attributeIndex);
+			}
+			for (double coverage : coverageIndex.coverages) {
+				outputStream.writeDouble(coverage);
+			}
+			outputStream.close();
+			outputStream = null;
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			temp = null;
+			LOGGER.debug("Cached {} bytes of coverage as {}", size, file);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to cache coverage", e);
+		} finally {
+			IOUtils.closeQuietly(outputStream);
+			FileUtils.deleteQuietly(temp);
+		}
+		evict();
+	}
+	/**
+	 * Remove least recently used entries until the cache is within its
+	 * maximum size.
+	 */
+	public synchronized void evict() {
+		File[] files = cacheDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		List<File> entries = new ArrayList<>();
+		long totalSize = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(SUFFIX)) {
+				entries.add(file);
+				totalSize += file.length();
+			}
+		}
+		if (totalSize <= maxSize) {
+			return;
+		}
+		// snapshot access times, they may change while sorting
+		final Map<File, Long> lastModifiedMap = new HashMap<>();
+		for (File file : entries) {
+			lastModifiedMap.put(file, file.lastModified());
+		}
+		Collections.sort(entries, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(lastModifiedMap.get(o1), lastModifiedMap.get(o2));
+			}
+		});
+		for (File file : entries) {
+			if (totalSize <= maxSize) {
+				break;
+			}
+			long length = file.length();
+			if (file.delete()) {
+				totalSize -= length;
+				LOGGER.debug("Evicted coverage cache entry {}", file);
+			}
+		}
+	}
+
+	/**
+	 * @return attribute values as type tagged primitives or null if any
+	 * value is of a type that isn't cached
+	 */
+	private static byte[] writeAttributeValues(List<Object> attributeValueList) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream outputStream = new DataOutputStream(bytes);
+		try {
+			for (Object attributeValue : attributeValueList) {
+				if (attributeValue instanceof String) {
+					outputStream.writeByte(TYPE_STRING);
+					writeString(outputStream, (String) attributeValue);
+				} else if (attributeValue instanceof Integer) {
+					outputStream.writeByte(TYPE_INTEGER);
+					outputStream.writeInt((Integer) attributeValue);
+				} else if (attributeValue instanceof Long) {
+					outputStream.writeByte(TYPE_LONG);
+					outputStream.writeLong((Long) attributeValue);
+				} else if (attributeValue instanceof Short) {
+					outputStream.writeByte(TYPE_SHORT);
+					outputStream.writeShort((Short) attributeValue);
+				} else if (attributeValue instanceof Byte) {
+					outputStream.writeByte(TYPE_BYTE);
+					outputStream.writeByte((Byte) attributeValue);
+				} else if (attributeValue instanceof Double) {
+					outputStream.writeByte(TYPE_DOUBLE);
+					outputStream.writeDouble((Double) attributeValue);
+				} else if (attributeValue instanceof Float) {
+					outputStream.writeByte(TYPE_FLOAT);
+					outputStream.writeFloat((Float) attributeValue);
+				} else if (attributeValue instanceof Boolean) {
+					outputStream.writeByte(TYPE_BOOLEAN);
+					outputStream.writeBoolean((Boolean) attributeValue);
+				} else if (attributeValue instanceof BigInteger) {
+					outputStream.writeByte(TYPE_BIG_INTEGER);
+					writeString(outputStream, attributeValue.toString());
+				} else if (attributeValue instanceof BigDecimal) {
+					outputStream.writeByte(TYPE_BIG_DECIMAL);
+					writeString(outputStream, attributeValue.toString());
+				} else {
+					return null;
+				}
+			}
+			outputStream.close();
+		} catch (IOException e) {
+			LOGGER.debug("Unable to write attribute values", e);
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Object readAttributeValue(DataInputStream inputStream, long fileSize) throws IOException {
+		byte type = inputStream.readByte();
+		switch (type) {
+			case TYPE_STRING:
+				return readString(inputStream, fileSize);
+			case TYPE_INTEGER:
+				return inputStream.readInt();
+			case TYPE_LONG:
+				return inputStream.readLong();
+			case TYPE_SHORT:
+				return inputStream.readShort();
+			case TYPE_BYTE:
+				return inputStream.readByte();
+			case TYPE_DOUBLE:
+				return inputStream.readDouble();
+			case TYPE_FLOAT:
+				return inputStream.readFloat();
+			case TYPE_BOOLEAN:
+				return inputStream.readBoolean();
+			case TYPE_BIG_INTEGER:
+				return new BigInteger(readString(inputStream, fileSize));
+			case TYPE_BIG_DECIMAL:
+				return new BigDecimal(readString(inputStream, fileSize));
+			default:
+				throw new IOException("Unknown attribute value type " + type);
+		}
+	}
+
+	private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+		byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+		outputStream.writeInt(valueBytes.length);
+		outputStream.write(valueBytes);
+	}
+
+	private static String readString(DataInputStream inputStream, long fileSize) throws IOException {
+		int length = inputStream.readInt();
+		if (length < 0 || length > fileSize) {
+			throw new IOException("Coverage cache file has an invalid attribute value");
+		}
+		byte[] valueBytes = new byte[length];
+		inputStream.readFully(valueBytes);
+		return new String(valueBytes, StandardCharsets.UTF_8);
+	}
+
+	private static void updateField(MessageDigest digest, String field) {
+		updateField(digest, field.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void updateField(MessageDigest digest, byte[] field) {
+		digest.update(ByteBuffer.allocate(4).putInt(field.length).array());
+		digest.update(field);
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 digest unavailable", e);
+		}
+	}
+}
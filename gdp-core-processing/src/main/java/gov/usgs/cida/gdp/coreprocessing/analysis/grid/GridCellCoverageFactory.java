@@ -1,16 +1,27 @@
 package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.prep.PreparedGeometry;
 import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import gov.usgs.cida.gdp.constants.AppConstant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.CRS;
@@ -21,6 +32,8 @@ import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
 import ucar.nc2.dt.GridCoordSystem;
@@ -31,48 +44,50 @@ import ucar.nc2.dt.GridCoordSystem;
  */
 public abstract class GridCellCoverageFactory {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(GridCellCoverageFactory.class);
+
+	// bounds features held waiting for their coverage to be handed off
+	private static final int FEATURES_IN_FLIGHT_PER_WORKER = 16;
+
 	public static GridCellCoverageByIndex generateFeatureAttributeCoverageByIndex(
             FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
             String attributeName,
             GridCoordSystem gridCoordinateSystem)
             throws FactoryException, TransformException, InvalidRangeException
     {
+        return generateFeatureAttributeCoverageByIndex(
+                featureCollection,
+                attributeName,
+                gridCoordinateSystem,
+                getCoverageParallelism());
+    }
 
-        AttributeDescriptor attributeDescriptor =
-                featureCollection.getSchema().getDescriptor(attributeName);
-        if (attributeDescriptor == null) {
-            throw new IllegalArgumentException(
-                    "Attribute " + attributeName + " not found in FeatureCollection.");
-        }
-
-		boolean attributeComparable = Comparable.class.isAssignableFrom(
-                attributeDescriptor.getType().getBinding());
+	/**
+	 * @param parallelism number of threads used to calculate per-feature
+	 * coverage, results are identical for any value
+	 */
+	public static GridCellCoverageByIndex generateFeatureAttributeCoverageByIndex(
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+            String attributeName,
+            GridCoordSystem gridCoordinateSystem,
+            int parallelism)
+            throws FactoryException, TransformException, InvalidRangeException
+    {
 
-        Set<Object> attributeSet = attributeComparable ?
-                // rely on Comparable to sort
-                new TreeSet<Object>() :
-                // use order from FeatureCollection.iterator();
-                new LinkedHashSet<Object>();
+        final Set<Object> attributeSet = createAttributeSet(featureCollection, attributeName);
 
-		GridCellGeometry gridCellGeometry = new GridCellGeometry(gridCoordinateSystem);
+		final GridCellGeometry gridCellGeometry = new GridCellGeometry(gridCoordinateSystem);
 
-		GridCellCoverageByIndex coverageByIndex = new GridCellCoverageByIndex(
+		final GridCellCoverageByIndex coverageByIndex = new GridCellCoverageByIndex(
 				gridCellGeometry.getCellCountX(),
 				gridCellGeometry.getCellCountY());
 
-        Iterator<SimpleFeature> featureIterator = featureCollection.iterator();
-        try {
-            while (featureIterator.hasNext()) {
-
-                SimpleFeature feature = featureIterator.next();
-                Object attribute = feature.getAttribute(attributeName);
-
-                if (attribute != null) {
+        calculateFeatureCoverage(featureCollection, attributeName, gridCellGeometry, parallelism, new FeatureCoverageHandler() {
+            @Override
+            public void handle(Object attribute, List<GridCellAttributeCoverage> attributeCoverage) {
 
 					boolean exists = !attributeSet.add(attribute);
 
-					List<GridCellAttributeCoverage> attributeCoverage = calculateCoverage(gridCellGeometry, feature);
-                    
 					if (attributeCoverage.size() > 0) {
 						for(GridCellAttributeCoverage c : attributeCoverage) {
 							int yxCellIndex = gridCellGeometry.calculateYXIndex(
@@ -111,17 +126,213 @@ public abstract class GridCellCoverageFactory {
 								coverageByIndex.putCoverage(yxCellIndex, newCoverage);
 							}
 						}
-						attributeCoverage.clear();
+                    }
+            }
+        });
+		coverageByIndex.attributeValueList = Collections.unmodifiableList(new ArrayList<Object>(attributeSet));
+        return coverageByIndex;
+    }
+
+	/**
+	 * Same as generateFeatureAttributeCoverageByIndex but stores coverage in
+	 * a compact (CSR) index of primitive arrays instead of per-cell arrays of
+	 * coverage objects.
+	 */
+	public static GridCellCoverageIndex generateFeatureAttributeCoverageIndex(
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+            String attributeName,
+            GridCoordSystem gridCoordinateSystem)
+            throws FactoryException, TransformException, InvalidRangeException
+    {
+        return generateFeatureAttributeCoverageIndex(
+                featureCollection,
+                attributeName,
+                gridCoordinateSystem,
+                getCoverageParallelism());
+    }
+
+	/**
+	 * @param parallelism number of threads used to calculate per-feature
+	 * coverage, results are identical for any value
+	 */
+	public static GridCellCoverageIndex generateFeatureAttributeCoverageIndex(
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+            String attributeName,
+            GridCoordSystem gridCoordinateSystem,
+            int parallelism)
+            throws FactoryException, TransformException, InvalidRangeException
+    {
+        final Set<Object> attributeSet = createAttributeSet(featureCollection, attributeName);
+
+		// attributes are assigned an id in order of appearance, these are
+		// mapped to their position in attributeSet once all are known.
+		final Map<Object, Integer> attributeIdMap = new HashMap<Object, Integer>();
+		final List<Object> attributeById = new ArrayList<Object>();
+
+		final GridCellGeometry gridCellGeometry = new GridCellGeometry(gridCoordinateSystem);
+
+		final GridCellCoverageIndexBuilder indexBuilder = new GridCellCoverageIndexBuilder(
+				gridCellGeometry.getCellCountX(),
+				gridCellGeometry.getCellCountY());
+
+        calculateFeatureCoverage(featureCollection, attributeName, gridCellGeometry, parallelism, new FeatureCoverageHandler() {
+            @Override
+            public void handle(Object attribute, List<GridCellAttributeCoverage> attributeCoverage) {
+
+					attributeSet.add(attribute);
+					Integer attributeId = attributeIdMap.get(attribute);
+					if (attributeId == null) {
+						attributeId = attributeById.size();
+						attributeIdMap.put(attribute, attributeId);
+						attributeById.add(attribute);
+					}
+
+					for (GridCellAttributeCoverage c : attributeCoverage) {
+						indexBuilder.add(
+								gridCellGeometry.calculateYXIndex(c.xCellIndex, c.yCellIndex),
+								attributeId,
+								c.coverage);
+					}
+            }
+        });
+
+		List<Object> attributeValueList = Collections.unmodifiableList(new ArrayList<Object>(attributeSet));
+		Map<Object, Integer> attributeIndexMap = new HashMap<Object, Integer>();
+		for (int index = 0; index < attributeValueList.size(); ++index) {
+			attributeIndexMap.put(attributeValueList.get(index), index);
+		}
+		int[] attributeIndexById = new int[attributeById.size()];
+		for (int id = 0; id < attributeIndexById.length; ++id) {
+			attributeIndexById[id] = attributeIndexMap.get(attributeById.get(id));
+		}
+        return indexBuilder.build(attributeIndexById, attributeValueList);
+    }
+
+	/**
+	 * Receives the coverage of each feature with a non-null attribute value,
+	 * always on the calling thread and in FeatureCollection iterator order.
+	 */
+	private interface FeatureCoverageHandler {
+		void handle(Object attribute, List<GridCellAttributeCoverage> attributeCoverage);
+	}
+
+	private static int getCoverageParallelism() {
+		return Integer.parseInt(AppConstant.COVERAGE_PARALLELISM.getValue());
+	}
+
+	/**
+	 * Calculate the coverage of each feature and pass it to handler in
+	 * iterator order.  With parallelism greater than 1 features are still read
+	 * on the calling thread but coverage is calculated on a worker pool, a
+	 * bounded number of features are in flight and results are handed off in
+	 * submission order so the index built is the same as for serial
+	 * calculation.
+	 */
+	private static void calculateFeatureCoverage(
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+            String attributeName,
+            final GridCellGeometry gridCellGeometry,
+            int parallelism,
+            FeatureCoverageHandler handler)
+            throws FactoryException, TransformException
+    {
+        CoordinateReferenceSystem featureCRS = featureCollection.getSchema().getCoordinateReferenceSystem();
+        if (featureCRS != null && Boolean.parseBoolean(AppConstant.COVERAGE_PRECOMPUTE_TRANSFORM.getValue())) {
+            long start = System.currentTimeMillis();
+            if (gridCellGeometry.precomputeTransform(featureCRS)) {
+                LOGGER.debug("Precomputed cell edges in feature CRS in {} ms", System.currentTimeMillis() - start);
+            } else {
+                LOGGER.debug("Grid too large to precompute cell edges, transforming per feature");
+            }
+        }
+
+        Iterator<SimpleFeature> featureIterator = featureCollection.iterator();
+        ExecutorService executor = parallelism > 1 ?
+                Executors.newFixedThreadPool(parallelism) : null;
+        try {
+            Deque<Object> pendingAttributes = new ArrayDeque<Object>();
+            Deque<Future<List<GridCellAttributeCoverage>>> pendingCoverage =
+                    new ArrayDeque<Future<List<GridCellAttributeCoverage>>>();
+            while (featureIterator.hasNext()) {
+
+                final SimpleFeature feature = featureIterator.next();
+                Object attribute = feature.getAttribute(attributeName);
+
+                if (attribute != null) {
+                    if (executor == null) {
+                        handler.handle(attribute, calculateCoverage(gridCellGeometry, feature));
+                    } else {
+                        pendingAttributes.add(attribute);
+                        pendingCoverage.add(executor.submit(new Callable<List<GridCellAttributeCoverage>>() {
+                            @Override
+                            public List<GridCellAttributeCoverage> call() throws FactoryException, TransformException {
+                                return calculateCoverage(gridCellGeometry, feature);
+                            }
+                        }));
+                        if (pendingCoverage.size() > parallelism * FEATURES_IN_FLIGHT_PER_WORKER) {
+                            handler.handle(pendingAttributes.remove(), getCoverage(pendingCoverage.remove()));
+                        }
                     }
                 }
             }
-			coverageByIndex.attributeValueList = Collections.unmodifiableList(new ArrayList<Object>(attributeSet));
+            while (!pendingCoverage.isEmpty()) {
+                handler.handle(pendingAttributes.remove(), getCoverage(pendingCoverage.remove()));
+            }
         } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
             featureCollection.close(featureIterator);
         }
-        return coverageByIndex;
     }
 
+	private static List<GridCellAttributeCoverage> getCoverage(Future<List<GridCellAttributeCoverage>> future)
+            throws FactoryException, TransformException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted calculating feature coverage", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FactoryException) {
+                throw (FactoryException) cause;
+            }
+            if (cause instanceof TransformException) {
+                throw (TransformException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+	private static Set<Object> createAttributeSet(
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+            String attributeName) {
+
+        AttributeDescriptor attributeDescriptor =
+                featureCollection.getSchema().getDescriptor(attributeName);
+        if (attributeDescriptor == null) {
+            throw new IllegalArgumentException(
+                    "Attribute " + attributeName + " not found in FeatureCollection.");
+        }
+
+		boolean attributeComparable = Comparable.class.isAssignableFrom(
+                attributeDescriptor.getType().getBinding());
+
+        return attributeComparable ?
+                // rely on Comparable to sort
+                new TreeSet<Object>() :
+                // use order from FeatureCollection.iterator();
+                new LinkedHashSet<Object>();
+	}
+
 	// meant to be keyed by index
 	public static class GridCellIndexCoverage {
 		public final Object attribute;
@@ -153,31 +364,62 @@ public abstract class GridCellCoverageFactory {
 
             final int xCellCount = gridCellGeometry.getCellCountX();
 
-            final Range[] ranges = GridUtility.getXYRangesFromBoundingBox(
-                feature.getBounds(),
-                gridCellGeometry.getGridCoordSystem(),
-                false);
+            final Range[] ranges;
+            // GridCoordSystem index lookups aren't thread safe (CoordinateAxis2D)
+            synchronized (gridCellGeometry.getGridCoordSystem()) {
+                ranges = GridUtility.getXYRangesFromBoundingBox(
+                    feature.getBounds(),
+                    gridCellGeometry.getGridCoordSystem(),
+                    false);
+            }
             final int xCellMin = ranges[0].first();
             final int xCellMax = ranges[0].last() + 1; // last() returns inclusive, we want exclulsive
             final int yCellMin = ranges[1].first();
             final int yCellMax = ranges[1].last() + 1; // last() returns inclusive, we want exclulsive
 
-            MathTransform transform = CRS.findMathTransform(gridCellGeometry.getGridCRS(), geometryCRS, true);
+            // with precomputed cell edges no per-feature transform is needed and
+            // cells outside the geometry envelope are skipped without building a polygon
+            final boolean transformed = gridCellGeometry.isTransformedTo(geometryCRS);
+            MathTransform transform = transformed ?
+                    null :
+                    CRS.findMathTransform(gridCellGeometry.getGridCRS(), geometryCRS, true);
+            Envelope geometryEnvelope = geometry.getEnvelopeInternal();
             PreparedGeometry preparedGeometry = PreparedGeometryFactory.prepare(geometry);
 
+            // cells that are still axis-aligned rectangles in the feature CRS
+            // are clipped analytically, others (curvilinear grids or cells
+            // distorted by the transform) use JTS intersection
+            final RectangleClipper clipper = gridCellGeometry.isRectilinear() ?
+                    new RectangleClipper() : null;
+
             List<GridCellAttributeCoverage> coverageList = new ArrayList<GridCellAttributeCoverage>();
             for (int yIndex = yCellMin; yIndex < yCellMax; ++yIndex) {
                 int yOffset = yIndex * xCellCount;
                 for (int xIndex = xCellMin; xIndex < xCellMax; ++xIndex) {
                     int yxIndex = yOffset + xIndex;
-                    Geometry cellGeometry = JTS.transform(
-                            gridCellGeometry.getCellGeometryQuick(yxIndex),
-                            transform);
+                    Geometry cellGeometry;
+                    if (transformed) {
+                        if (!geometryEnvelope.intersects(gridCellGeometry.getTransformedCellEnvelopeQuick(xIndex, yIndex))) {
+                            continue;
+                        }
+                        cellGeometry = gridCellGeometry.getTransformedCellGeometryQuick(xIndex, yIndex);
+                    } else {
+                        cellGeometry = JTS.transform(
+                                gridCellGeometry.getCellGeometryQuick(yxIndex),
+                                transform);
+                    }
                     if (preparedGeometry.intersects(cellGeometry)) {
 
                         if (preparedGeometry.containsProperly(cellGeometry)) {
                             coverageList.add(
                                     new GridCellAttributeCoverage(xIndex, yIndex, 1d));
+                        } else if (clipper != null && cellGeometry.isRectangle()) {
+                            Envelope cellEnvelope = cellGeometry.getEnvelopeInternal();
+                            coverageList.add(
+                                    new GridCellAttributeCoverage(
+                                        xIndex,
+                                        yIndex,
+                                        clipper.intersectionArea(geometry, cellEnvelope) / cellEnvelope.getArea()));
                         } else {
                             Geometry intersectGeometry = geometry.intersection(cellGeometry);
                             coverageList.add(
@@ -231,4 +473,170 @@ public abstract class GridCellCoverageFactory {
 		}
 	}
 
+	/**
+	 * Feature attribute coverage stored in compressed sparse row form.  Entries
+	 * for grid cell yxIndex are found at [getCoverageStart(yxIndex),
+	 * getCoverageEnd(yxIndex)) in the attribute index and coverage arrays,
+	 * attribute indices refer to positions in getAttributeValueList().
+	 */
+	public static class GridCellCoverageIndex {
+
+		final int xCellCount;
+		final int yCellCount;
+
+		final int[] cellOffsets;
+		final int[] attributeIndices;
+		final double[] coverages;
+
+		final List<Object> attributeValueList;
+
+		GridCellCoverageIndex(int xCellCount, int yCellCount, int[] cellOffsets, int[] attributeIndices, double[] coverages, List<Object> attributeValueList) {
+			this.xCellCount = xCellCount;
+			this.yCellCount = yCellCount;
+			this.cellOffsets = cellOffsets;
+			this.attributeIndices = attributeIndices;
+			this.coverages = coverages;
+			this.attributeValueList = attributeValueList;
+		}
+
+		public int getCellCountX() {
+			return xCellCount;
+		}
+
+		public int getCellCountY() {
+			return yCellCount;
+		}
+
+		public final int calculateYXIndex(int xIndex, int yIndex) {
+			return xIndex + yIndex * xCellCount;
+		}
+
+		public int getCoverageStart(int yxIndex) {
+			return cellOffsets[yxIndex];
+		}
+
+		public int getCoverageEnd(int yxIndex) {
+			return cellOffsets[yxIndex + 1];
+		}
+
+		public int getAttributeIndex(int coverageIndex) {
+			return attributeIndices[coverageIndex];
+		}
+
+		public double getCoverage(int coverageIndex) {
+			return coverages[coverageIndex];
+		}
+
+		public int getCoverageCount() {
+			return coverages.length;
+		}
+
+		public List<Object> getAttributeValueList() {
+			return attributeValueList;
+		}
+	}
+
+	static class GridCellCoverageIndexBuilder {
+
+		private final static int INITIAL_CAPACITY = 1024;
+
+		private final int xCellCount;
+		private final int yCellCount;
+
+		private int[] cellIndices;
+		private int[] attributeIds;
+		private double[] coverages;
+		private int size;
+
+		GridCellCoverageIndexBuilder(int xCellCount, int yCellCount) {
+			this.xCellCount = xCellCount;
+			this.yCellCount = yCellCount;
+			cellIndices = new int[INITIAL_CAPACITY];
+			attributeIds = new int[INITIAL_CAPACITY];
+			coverages = new double[INITIAL_CAPACITY];
+			size = 0;
+		}
+
+		void add(int yxCellIndex, int attributeId, double coverage) {
+			if (size == coverages.length) {
+				int capacity = size + (size >> 1);
+				cellIndices = Arrays.copyOf(cellIndices, capacity);
+				attributeIds = Arrays.copyOf(attributeIds, capacity);
+				coverages = Arrays.copyOf(coverages, capacity);
+			}
+			cellIndices[size] = yxCellIndex;
+			attributeIds[size] = attributeId;
+			coverages[size] = coverage;
+			++size;
+		}
+
+		GridCellCoverageIndex build(int[] attributeIndexById, List<Object> attributeValueList) {
+			final int cellCount = xCellCount * yCellCount;
+
+			// counting sort by cell index, stable so entries for a cell
+			// keep the order features were encountered
+			int[] cellOffsets = new int[cellCount + 1];
+			for (int index = 0; index < size; ++index) {
+				++cellOffsets[cellIndices[index] + 1];
+			}
+			for (int cellIndex = 0; cellIndex < cellCount; ++cellIndex) {
+				cellOffsets[cellIndex + 1] += cellOffsets[cellIndex];
+			}
+			int[] sortedAttributeIds = new int[size];
+			double[] sortedCoverages = new double[size];
+			int[] insertOffsets = Arrays.copyOf(cellOffsets, cellCount);
+			for (int index = 0; index < size; ++index) {
+				int sortedIndex = insertOffsets[cellIndices[index]]++;
+				sortedAttributeIds[sortedIndex] = attributeIds[index];
+				sortedCoverages[sortedIndex] = coverages[index];
+			}
+			cellIndices = null;
+			attributeIds = null;
+			coverages = null;
+
+			// merge entries for features sharing an attribute value, compacting
+			// in place.  Coverage per cell is small so linear search is fine.
+			int merged = 0;
+			for (int cellIndex = 0; cellIndex < cellCount; ++cellIndex) {
+				int start = cellOffsets[cellIndex];
+				int end = cellOffsets[cellIndex + 1];
+				int cellStart = merged;
+				cellOffsets[cellIndex] = cellStart;
+				for (int index = start; index < end; ++index) {
+					int attributeId = sortedAttributeIds[index];
+					int found = -1;
+					for (int search = cellStart; search < merged && found < 0; ++search) {
+						if (sortedAttributeIds[search] == attributeId) {
+							found = search;
+						}
+					}
+					if (found < 0) {
+						sortedAttributeIds[merged] = attributeId;
+						sortedCoverages[merged] = sortedCoverages[index];
+						++merged;
+					} else {
+						double coverage = sortedCoverages[index] + sortedCoverages[found];
+						if (coverage > 1) {
+							coverage = 1;
+						}
+						sortedCoverages[found] = coverage;
+					}
+				}
+			}
+			cellOffsets[cellCount] = merged;
+
+			int[] attributeIndices = new int[merged];
+			for (int index = 0; index < merged; ++index) {
+				attributeIndices[index] = attributeIndexById[sortedAttributeIds[index]];
+			}
+			return new GridCellCoverageIndex(
+					xCellCount,
+					yCellCount,
+					cellOffsets,
+					attributeIndices,
+					Arrays.copyOf(sortedCoverages, merged),
+					attributeValueList);
+		}
+	}
+
 }
@@ -0,0 +1,134 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellCoverageIndex;
+import java.util.HashMap;
+import java.util.Map;
+import org.geotools.feature.FeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.operation.TransformException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.dt.GridCoordSystem;
+
+/**
+ * Holds the feature coverage computed for a feature collection and attribute
+ * so it can be reused by every variable of a request sharing the same grid
+ * cell geometry.  Coverage not held in memory is looked up in, and once
+ * generated stored to, a {@link GridCellCoverageDiskCache} when one is
+ * available.  Not thread safe, meant to live for a single request.
+ */
+public class GridCellCoverageIndexCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GridCellCoverageIndexCache.class);
+
+	private final FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection;
+	private final String attributeName;
+	private final GridCellCoverageDiskCache diskCache;
+
+	private byte[] featureDigest;
+
+	private final Map<GridCellGeometryKey, GridCellCoverageIndex> coverageIndexMap;
+	private final Map<GridCellGeometryKey, Long> generateMillisMap;
+
+	private int hitCount;
+	private long savedMillis;
+
+	public GridCellCoverageIndexCache(
+			FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+			String attributeName) {
+		this(featureCollection, attributeName, GridCellCoverageDiskCache.getDefault());
+	}
+
+	/**
+	 * @param featureCollection features to calculate coverage for
+	 * @param attributeName attribute to group coverage by
+	 * @param diskCache persistent cache, may be null to disable
+	 */
+	public GridCellCoverageIndexCache(
+			FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection,
+			String attributeName,
+			GridCellCoverageDiskCache diskCache) {
+		this.featureCollection = featureCollection;
+		this.attributeName = attributeName;
+		this.diskCache = diskCache;
+		this.coverageIndexMap = new HashMap<>();
+		this.generateMillisMap = new HashMap<>();
+		this.hitCount = 0;
+		this.savedMillis = 0;
+	}
+
+	public FeatureCollection<SimpleFeatureType, SimpleFeature> getFeatureCollection() {
+		return featureCollection;
+	}
+
+	public String getAttributeName() {
+		return attributeName;
+	}
+
+	/**
+	 * Get feature coverage for a grid, generating it only if coverage for a
+	 * grid with identical cell geometry hasn't already been generated.
+	 *
+	 * @param gridCoordSystem grid to calculate feature coverage for
+	 * @return coverage of grid cells by feature attribute
+	 * @throws FactoryException
+	 * @throws TransformException
+	 * @throws InvalidRangeException
+	 */
+	public GridCellCoverageIndex getCoverageIndex(GridCoordSystem gridCoordSystem)
+			throws FactoryException, TransformException, InvalidRangeException {
+		GridCellGeometryKey key = new GridCellGeometryKey(gridCoordSystem);
+		GridCellCoverageIndex coverageIndex = coverageIndexMap.get(key);
+		if (coverageIndex == null) {
+			long start = System.currentTimeMillis();
+			String diskKey = null;
+			if (diskCache != null) {
+				if (featureDigest == null) {
+					featureDigest = GridCellCoverageDiskCache.digestFeatures(featureCollection, attributeName);
+				}
+				diskKey = GridCellCoverageDiskCache.generateKey(featureDigest, key);
+				coverageIndex = diskCache.get(diskKey);
+			}
+			if (coverageIndex == null) {
+				coverageIndex = GridCellCoverageFactory.generateFeatureAttributeCoverageIndex(
+						featureCollection,
+						attributeName,
+						gridCoordSystem);
+				if (diskKey != null) {
+					diskCache.put(diskKey, coverageIndex);
+				}
+				long elapsed = System.currentTimeMillis() - start;
+				LOGGER.debug("Generated feature coverage for grid {} in {} ms", gridCoordSystem.getName(), elapsed);
+				generateMillisMap.put(key, elapsed);
+			} else {
+				long elapsed = System.currentTimeMillis() - start;
+				LOGGER.debug("Loaded cached feature coverage for grid {} in {} ms", gridCoordSystem.getName(), elapsed);
+				generateMillisMap.put(key, elapsed);
+			}
+			coverageIndexMap.put(key, coverageIndex);
+		} else {
+			long elapsed = generateMillisMap.get(key);
+			hitCount++;
+			savedMillis += elapsed;
+			LOGGER.info("Reused feature coverage for grid {}, saved {} ms", gridCoordSystem.getName(), elapsed);
+		}
+		return coverageIndex;
+	}
+
+	/**
+	 * @return number of times previously generated coverage was reused
+	 */
+	public int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return generation time avoided by reusing coverage, in milliseconds
+	 */
+	public long getSavedMillis() {
+		return savedMillis;
+	}
+}
@@ -1,11 +1,17 @@
 package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.PrecisionModel;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridUtility.IndexToCoordinateBuilder;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dt.GridCoordSystem;
 
 /**
@@ -14,6 +20,9 @@ import ucar.nc2.dt.GridCoordSystem;
  */
 public class GridCellGeometry {
 
+    // 4M edge coordinates, 64 MB of transformed edges
+    public final static int TRANSFORMED_EDGE_COUNT_MAX = 1 << 22;
+
     private final GridCoordSystem gridCoordSystem;
 
 	private final CoordinateReferenceSystem gridCRS;
@@ -22,9 +31,17 @@ public class GridCellGeometry {
     private final int yCellCount;
     private final int cellCount;
 
+    // both horizontal axes are CoordinateAxis1D
+    private final boolean rectilinear;
+
     private final GeometryFactory geometryFactory;
 	private final IndexToCoordinateBuilder coordinateBuilder;
 
+    // optional, cell edge coordinates transformed to transformedCRS as
+    // x, y pairs in y-major order.  see precomputeTransform(...)
+    private CoordinateReferenceSystem transformedCRS;
+    private double[] transformedEdges;
+
     public GridCellGeometry(GridCoordSystem gridCoordSystem) {
 
         this.gridCoordSystem = gridCoordSystem;
@@ -35,6 +52,9 @@ public class GridCellGeometry {
         yCellCount = GridUtility.getYAxisLength(gridCoordSystem);
         cellCount = xCellCount * yCellCount;
 
+        rectilinear = gridCoordSystem.getXHorizAxis() instanceof CoordinateAxis1D &&
+                gridCoordSystem.getYHorizAxis() instanceof CoordinateAxis1D;
+
 		geometryFactory = new GeometryFactory(
                 new PrecisionModel(PrecisionModel.FLOATING));
 
@@ -62,6 +82,14 @@ public class GridCellGeometry {
         return cellCount;
     }
 
+    /**
+     * @return true if cell edges come from 1D axes, cells of rectilinear
+     * grids are rectangles in the grid CRS
+     */
+    public boolean isRectilinear() {
+        return rectilinear;
+    }
+
     public Geometry getCellGeometry(int xIndex, int yIndex) {
         if (xIndex < 0 || xIndex >= xCellCount ||
             yIndex < 0 || yIndex >= yCellCount) {
@@ -93,6 +121,92 @@ public class GridCellGeometry {
 			null);
     }
 
+    /**
+     * Transform every cell edge coordinate to targetCRS once so cell envelopes
+     * and polygons in targetCRS can be built without a MathTransform per cell.
+     * Must be called before this instance is shared between threads.
+     *
+     * @param targetCRS CRS cells will be compared against, usually the feature CRS
+     * @return false if the grid has too many cells to precompute
+     * @throws FactoryException
+     * @throws TransformException
+     */
+    public boolean precomputeTransform(CoordinateReferenceSystem targetCRS)
+            throws FactoryException, TransformException {
+        long edgeCount = (long) (xCellCount + 1) * (yCellCount + 1);
+        if (edgeCount > TRANSFORMED_EDGE_COUNT_MAX) {
+            return false;
+        }
+        double[] edges = new double[(int) edgeCount * 2];
+        int index = 0;
+        for (int yIndex = 0; yIndex <= yCellCount; ++yIndex) {
+            for (int xIndex = 0; xIndex <= xCellCount; ++xIndex) {
+                Coordinate coordinate = coordinateBuilder.getCoordinate(xIndex, yIndex);
+                edges[index++] = coordinate.x;
+                edges[index++] = coordinate.y;
+            }
+        }
+        MathTransform transform = CRS.findMathTransform(gridCRS, targetCRS, true);
+        if (!transform.isIdentity()) {
+            transform.transform(edges, 0, edges, 0, (int) edgeCount);
+        }
+        transformedEdges = edges;
+        transformedCRS = targetCRS;
+        return true;
+    }
+
+    /**
+     * @param crs CRS to test
+     * @return true if cell edges have been precomputed for crs
+     */
+    public boolean isTransformedTo(CoordinateReferenceSystem crs) {
+        return transformedEdges != null &&
+                (transformedCRS == crs || CRS.equalsIgnoreMetadata(transformedCRS, crs));
+    }
+
+    /**
+     * @return envelope of cell in the precomputed CRS
+     * @see #precomputeTransform(CoordinateReferenceSystem)
+     */
+    Envelope getTransformedCellEnvelopeQuick(int xIndex, int yIndex) {
+        int lower = transformedEdgeOffset(xIndex, yIndex);
+        int upper = transformedEdgeOffset(xIndex, yIndex + 1);
+        double[] edges = transformedEdges;
+        Envelope envelope = new Envelope(
+                edges[lower], edges[lower + 2],
+                edges[lower + 1], edges[lower + 3]);
+        envelope.expandToInclude(edges[upper], edges[upper + 1]);
+        envelope.expandToInclude(edges[upper + 2], edges[upper + 3]);
+        return envelope;
+    }
+
+    /**
+     * @return polygon for cell in the precomputed CRS, same vertices as
+     * transforming getCellGeometry(xIndex, yIndex)
+     * @see #precomputeTransform(CoordinateReferenceSystem)
+     */
+    Geometry getTransformedCellGeometryQuick(int xIndex, int yIndex) {
+        int lower = transformedEdgeOffset(xIndex, yIndex);
+        int upper = transformedEdgeOffset(xIndex, yIndex + 1);
+        double[] edges = transformedEdges;
+        Coordinate coordinate = new Coordinate(edges[lower], edges[lower + 1]);
+        Coordinate[] coordinates = new Coordinate[] {
+            coordinate,
+            new Coordinate(edges[lower + 2], edges[lower + 3]),
+            new Coordinate(edges[upper + 2], edges[upper + 3]),
+            new Coordinate(edges[upper], edges[upper + 1]),
+            // same as first entry, required for LinearRing
+            coordinate
+        };
+        return geometryFactory.createPolygon(
+			geometryFactory.createLinearRing(coordinates),
+			null);
+    }
+
+    private int transformedEdgeOffset(int xIndex, int yIndex) {
+        return (xIndex + yIndex * (xCellCount + 1)) * 2;
+    }
+
 	public final int calculateYXIndex(int xIndex, int yIndex) {
 		return xIndex + yIndex * xCellCount;
 	}
@@ -0,0 +1,106 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridUtility.IndexToCoordinateBuilder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import ucar.nc2.dt.GridCoordSystem;
+
+/**
+ * Identifies the grid cell geometry of a GridCoordSystem by its CRS and cell
+ * edge coordinates.  Grids with equal keys have identical cell polygons, so
+ * feature coverage calculated for one applies to the other.
+ */
+public final class GridCellGeometryKey {
+
+	private final CoordinateReferenceSystem gridCRS;
+
+	private final int xCellCount;
+	private final int yCellCount;
+
+	// x, y pairs for each cell edge coordinate, in y-major order
+	private final double[] cellEdges;
+
+	private final int hashCode;
+
+	public GridCellGeometryKey(GridCoordSystem gridCoordSystem) {
+		gridCRS = CRSUtility.getCRSFromGridCoordSystem(gridCoordSystem);
+
+		xCellCount = GridUtility.getXAxisLength(gridCoordSystem);
+		yCellCount = GridUtility.getYAxisLength(gridCoordSystem);
+
+		IndexToCoordinateBuilder coordinateBuilder =
+				GridUtility.generateIndexToCellEdgeCoordinateBuilder(gridCoordSystem);
+		cellEdges = new double[(xCellCount + 1) * (yCellCount + 1) * 2];
+		int index = 0;
+		for (int yIndex = 0; yIndex <= yCellCount; ++yIndex) {
+			for (int xIndex = 0; xIndex <= xCellCount; ++xIndex) {
+				Coordinate coordinate = coordinateBuilder.getCoordinate(xIndex, yIndex);
+				cellEdges[index++] = coordinate.x;
+				cellEdges[index++] = coordinate.y;
+			}
+		}
+
+		hashCode = 31 * (31 * xCellCount + yCellCount) + Arrays.hashCode(cellEdges);
+	}
+
+	public CoordinateReferenceSystem getGridCRS() {
+		return gridCRS;
+	}
+
+	public int getCellCountX() {
+		return xCellCount;
+	}
+
+	public int getCellCountY() {
+		return yCellCount;
+	}
+
+	/**
+	 * Add this key to a digest, used to identify the grid cell geometry
+	 * outside of this JVM.
+	 *
+	 * @param digest digest to update
+	 */
+	public void updateDigest(MessageDigest digest) {
+		String crsDefinition;
+		try {
+			crsDefinition = gridCRS.toWKT();
+		} catch (UnsupportedOperationException e) {
+			crsDefinition = gridCRS.toString();
+		}
+		byte[] crsBytes = crsDefinition.getBytes(StandardCharsets.UTF_8);
+		digest.update(ByteBuffer.allocate(4).putInt(crsBytes.length).array());
+		digest.update(crsBytes);
+
+		ByteBuffer buffer = ByteBuffer.allocate(8 + cellEdges.length * 8);
+		buffer.putInt(xCellCount).putInt(yCellCount);
+		buffer.asDoubleBuffer().put(cellEdges);
+		digest.update(buffer.array());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof GridCellGeometryKey)) {
+			return false;
+		}
+		GridCellGeometryKey other = (GridCellGeometryKey) obj;
+		return hashCode == other.hashCode &&
+				xCellCount == other.xCellCount &&
+				yCellCount == other.yCellCount &&
+				Arrays.equals(cellEdges, other.cellEdges) &&
+				CRS.equalsIgnoreMetadata(gridCRS, other.gridCRS);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+}
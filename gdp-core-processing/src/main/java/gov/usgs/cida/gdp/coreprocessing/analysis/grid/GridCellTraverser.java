@@ -1,9 +1,14 @@
 package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ucar.ma2.Array;
@@ -29,6 +34,14 @@ public class GridCellTraverser {
 	// an exception to be thrown...
 	private final static int INVALID_INDEX = Integer.MAX_VALUE;
 
+	// target number of timestep blocks handed to each worker thread, more
+	// blocks balance load better at the cost of more forked visitors.
+	private final static int BLOCKS_PER_WORKER = 4;
+
+	// number of blocks per worker allowed to be read but not yet joined,
+	// bounds the number of data chunks held in memory at once.
+	private final static int PENDING_BLOCKS_PER_WORKER = 2;
+
 	private final GridDatatype gridDataType;
 	
 	private final MultiTimestepReader reader;
@@ -79,73 +92,209 @@ public class GridCellTraverser {
 			visitor.traverseStart(gridDataType);
 		}
 		
-		switch (gridType) {
-			case YX:
-				{
-					Array array = reader.readDataSlice(INVALID_INDEX, INVALID_INDEX);
-					for (GridCellVisitor visitor : visitorList) {
-						doTraverseXY(visitor, array);
-					}
-				}
-				break;
-			case ZYX:
-				{
-					for (int zCellIndex = 0; zCellIndex < zCellCount; ++zCellIndex) {
-						Array array = reader.readDataSlice(INVALID_INDEX, zCellIndex);
+		try {
+			switch (gridType) {
+				case YX:
+					{
+						Array array = reader.readDataSlice(INVALID_INDEX, INVALID_INDEX);
 						for (GridCellVisitor visitor : visitorList) {
-							if (visitor.zStart(zCellIndex) && visitor.traverseContinue()) {
-								doTraverseXY(visitor, array);
-								visitor.zEnd(zCellIndex);
-							}
+							doTraverseXY(visitor, array);
 						}
 					}
-				}
-				break;
-			case TYX:
-				{
-					for (int tCellIndex = 0; tCellIndex < tCellCount; ++tCellIndex) {
-						Array array = reader.readDataSlice(tCellIndex, INVALID_INDEX);
-						for (GridCellVisitor visitor : visitorList) {
-							if (visitor.tStart(tCellIndex) && visitor.traverseContinue()) {
-								doTraverseXY(visitor, array);
-								visitor.tEnd(tCellIndex);
+					break;
+				case ZYX:
+					{
+						for (int zCellIndex = 0; zCellIndex < zCellCount; ++zCellIndex) {
+							Array array = reader.readDataSlice(INVALID_INDEX, zCellIndex);
+							for (GridCellVisitor visitor : visitorList) {
+								if (visitor.zStart(zCellIndex) && visitor.traverseContinue()) {
+									doTraverseXY(visitor, array);
+									visitor.zEnd(zCellIndex);
+								}
 							}
 						}
 					}
-				}
-				break;
-			case TZYX:
-				{
-					for (int tCellIndex = 0; tCellIndex < tCellCount; ++tCellIndex) {
-						ArrayList<GridCellVisitor> tVisitorList = new ArrayList<>(visitorList);
-						for (GridCellVisitor visitor : visitorList) {
-							if (!visitor.tStart(tCellIndex) || !visitor.traverseContinue()) {
-								tVisitorList.remove(visitor);
+					break;
+				case TYX:
+					{
+						for (int tCellIndex = 0; tCellIndex < tCellCount; ++tCellIndex) {
+							Array array = reader.readDataSlice(tCellIndex, INVALID_INDEX);
+							for (GridCellVisitor visitor : visitorList) {
+								if (visitor.tStart(tCellIndex) && visitor.traverseContinue()) {
+									doTraverseXY(visitor, array);
+									visitor.tEnd(tCellIndex);
+								}
 							}
 						}
-						if (!tVisitorList.isEmpty()) {
-							for (int zCellIndex = 0; zCellIndex < zCellCount; ++zCellIndex) {
-								Array array = reader.readDataSlice(tCellIndex, zCellIndex);
-								for (GridCellVisitor tVisitor : tVisitorList) {
-									if (tVisitor.zStart(zCellIndex) && tVisitor.traverseContinue()) {
-										doTraverseXY(tVisitor, array);
-										tVisitor.zEnd(zCellIndex);
-									}
+					}
+					break;
+				case TZYX:
+					{
+						for (int tCellIndex = 0; tCellIndex < tCellCount; ++tCellIndex) {
+							ArrayList<GridCellVisitor> tVisitorList = new ArrayList<>(visitorList);
+							for (GridCellVisitor visitor : visitorList) {
+								if (!visitor.tStart(tCellIndex) || !visitor.traverseContinue()) {
+									tVisitorList.remove(visitor);
 								}
 							}
-							for (GridCellVisitor tVisitor : tVisitorList) {
-								tVisitor.tEnd(tCellIndex);
+							if (!tVisitorList.isEmpty()) {
+								for (int zCellIndex = 0; zCellIndex < zCellCount; ++zCellIndex) {
+									Array array = reader.readDataSlice(tCellIndex, zCellIndex);
+									for (GridCellVisitor tVisitor : tVisitorList) {
+										if (tVisitor.zStart(zCellIndex) && tVisitor.traverseContinue()) {
+											doTraverseXY(tVisitor, array);
+											tVisitor.zEnd(zCellIndex);
+										}
+									}
+								}
+								for (GridCellVisitor tVisitor : tVisitorList) {
+									tVisitor.tEnd(tCellIndex);
+								}
 							}
 						}
 					}
+					break;
+			}
+		} finally {
+			reader.close();
+		}
+		for (GridCellVisitor visitor : visitorList) {
+			visitor.traverseEnd();
+		}
+	}
+
+
+	/**
+	 * Traverse the grid splitting the time axis across a pool of worker
+	 * threads.  Data is read sequentially on the calling thread, visitors
+	 * implementing {@link ForkableGridCellVisitor} are forked per block of
+	 * timesteps and traversed by the pool, all other visitors are traversed
+	 * on the calling thread as data is read.  Forks are joined in timestep
+	 * order so output matches a serial traversal.
+	 *
+	 * Falls back to serial traversal if parallelism is less than 2, the grid
+	 * has no time axis or none of the visitors can be forked.
+	 *
+	 * @param visitorList visitors to traverse grid with
+	 * @param parallelism number of worker threads to use
+	 * @throws IOException
+	 */
+	public void traverse(List<GridCellVisitor> visitorList, int parallelism) throws IOException {
+		List<ForkableGridCellVisitor> forkableVisitorList = new ArrayList<>();
+		List<GridCellVisitor> serialVisitorList = new ArrayList<>();
+		for (GridCellVisitor visitor : visitorList) {
+			if (visitor instanceof ForkableGridCellVisitor) {
+				forkableVisitorList.add((ForkableGridCellVisitor)visitor);
+			} else {
+				serialVisitorList.add(visitor);
+			}
+		}
+
+		if (parallelism < 2 || forkableVisitorList.isEmpty() ||
+				!(gridType == GridType.TYX || gridType == GridType.TZYX)) {
+			traverse(visitorList);
+			return;
+		}
+
+		for (GridCellVisitor visitor : visitorList) {
+			visitor.traverseStart(gridDataType);
+		}
+
+		int blockSize = calculateBlockSize(parallelism);
+		int zSliceCount = gridType == GridType.TZYX ? zCellCount : 1;
+		LOGGER.debug("Traversing {} timesteps in blocks of {} with {} threads",
+				new Object[] {tCellCount, blockSize, parallelism});
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			Deque<ForkJoinTask<List<GridCellVisitor>>> pendingBlocks = new ArrayDeque<>();
+			for (int tBlockStart = 0; tBlockStart < tCellCount; tBlockStart += blockSize) {
+				int tBlockEnd = Math.min(tBlockStart + blockSize, tCellCount);
+				Array[][] blockArrays = new Array[tBlockEnd - tBlockStart][zSliceCount];
+				for (int tCellIndex = tBlockStart; tCellIndex < tBlockEnd; ++tCellIndex) {
+					Array[] zArrays = blockArrays[tCellIndex - tBlockStart];
+					for (int zSliceIndex = 0; zSliceIndex < zSliceCount; ++zSliceIndex) {
+						zArrays[zSliceIndex] = reader.readDataSlice(
+								tCellIndex,
+								gridType == GridType.TZYX ? zSliceIndex : INVALID_INDEX);
+					}
+					doTraverseT(serialVisitorList, tCellIndex, zArrays);
+				}
+				List<GridCellVisitor> forkedVisitorList = new ArrayList<>(forkableVisitorList.size());
+				for (ForkableGridCellVisitor visitor : forkableVisitorList) {
+					forkedVisitorList.add(visitor.fork());
+				}
+				pendingBlocks.addLast(pool.submit(
+						new TraverseBlockTask(forkedVisitorList, tBlockStart, blockArrays)));
+				while (pendingBlocks.size() > parallelism * PENDING_BLOCKS_PER_WORKER) {
+					joinBlock(forkableVisitorList, pendingBlocks.removeFirst());
 				}
-				break;
+			}
+			while (!pendingBlocks.isEmpty()) {
+				joinBlock(forkableVisitorList, pendingBlocks.removeFirst());
+			}
+		} finally {
+			pool.shutdownNow();
+			reader.close();
 		}
+
 		for (GridCellVisitor visitor : visitorList) {
 			visitor.traverseEnd();
 		}
 	}
 
+	private int calculateBlockSize(int parallelism) {
+		int blockSize = (tCellCount + parallelism * BLOCKS_PER_WORKER - 1) / (parallelism * BLOCKS_PER_WORKER);
+		// don't let a block span more than a single server request
+		blockSize = Math.min(blockSize, reader.getSplitSize());
+		return Math.max(blockSize, 1);
+	}
+
+	private void joinBlock(List<ForkableGridCellVisitor> visitorList, ForkJoinTask<List<GridCellVisitor>> block) {
+		List<GridCellVisitor> forkedList = block.join();
+		for (int index = 0; index < forkedList.size(); ++index) {
+			visitorList.get(index).join(forkedList.get(index));
+		}
+	}
+
+	private void doTraverseT(List<GridCellVisitor> visitorList, int tCellIndex, Array[] zArrays) {
+		for (GridCellVisitor visitor : visitorList) {
+			if (visitor.tStart(tCellIndex) && visitor.traverseContinue()) {
+				if (gridType == GridType.TZYX) {
+					for (int zCellIndex = 0; zCellIndex < zArrays.length; ++zCellIndex) {
+						if (visitor.zStart(zCellIndex) && visitor.traverseContinue()) {
+							doTraverseXY(visitor, zArrays[zCellIndex]);
+							visitor.zEnd(zCellIndex);
+						}
+					}
+				} else {
+					doTraverseXY(visitor, zArrays[0]);
+				}
+				visitor.tEnd(tCellIndex);
+			}
+		}
+	}
+
+	private class TraverseBlockTask extends RecursiveTask<List<GridCellVisitor>> {
+
+		private final List<GridCellVisitor> visitorList;
+		private final int tBlockStart;
+		private final Array[][] blockArrays;
+
+		private TraverseBlockTask(List<GridCellVisitor> visitorList, int tBlockStart, Array[][] blockArrays) {
+			this.visitorList = visitorList;
+			this.tBlockStart = tBlockStart;
+			this.blockArrays = blockArrays;
+		}
+
+		@Override
+		protected List<GridCellVisitor> compute() {
+			for (int tBlockIndex = 0; tBlockIndex < blockArrays.length; ++tBlockIndex) {
+				doTraverseT(visitorList, tBlockStart + tBlockIndex, blockArrays[tBlockIndex]);
+			}
+			return visitorList;
+		}
+	}
 
 	protected void doTraverseXY(GridCellVisitor visitor, Array array) {
 		CellValueAccessor accessor = gridDataType.hasMissingData() && !gridDataType.getVariable().getUseNaNs() ?
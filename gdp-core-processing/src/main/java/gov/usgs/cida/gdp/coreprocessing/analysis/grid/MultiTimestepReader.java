@@ -2,8 +2,15 @@ package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
 
 import gov.usgs.cida.gdp.constants.AppConstant;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ucar.ma2.Array;
@@ -19,66 +26,140 @@ import ucar.nc2.dt.GridDatatype;
  * the efficiency of high latency connections.  This improvement is important
  * for both speed of processing as well as being a good client to servers that
  * aren't expecting to be pummeled with requests.
- * 
+ *
+ * Optionally requests the chunks following the one being read on a
+ * background thread (read-ahead) so server latency overlaps with processing.
+ * At most readAheadDepth chunks are in flight in addition to the current one.
+ *
+ * Optionally adapts the number of timesteps per request to the server: each
+ * chunk read is timed and the split size moved towards the size that takes
+ * the target latency at the observed throughput, without growing past a size
+ * that lowered throughput.
+ *
+ * Failed requests are retried with a smaller split size after an increasing
+ * delay.  Without a target latency the split size doubles back towards its
+ * maximum with each chunk read successfully after that.
+ *
  * @author jiwalker
  */
 public class MultiTimestepReader {
-		
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(MultiTimestepReader.class);
-	
+
 	private final static int INVALID_INDEX = Integer.MAX_VALUE;
-	
-	private final Map<Integer, GridDatatype> splitGridDataType;
+
+	// delay before the first retry of a failed request, doubled for each
+	// further failure
+	private final static long RETRY_BACKOFF_MILLIS = 1000;
+
+	// fraction of the best throughput seen below which a larger split size
+	// is considered to have slowed the server down
+	private final static double THROUGHPUT_DROP = 0.8;
+
+	private final GridDatatype gridDataType;
 	private final GridType gridType;
-	private final int splitSize;
-	
-	private int currentArrayPosition;
+	private final int tCellCount;
+	private final int maxSplitSize;
+	private final int readAheadDepth;
+	private final long targetLatencyMillis;
+
+	// package-private so tests don't have to wait out retries
+	long retryBackoffMillis = RETRY_BACKOFF_MILLIS;
+
+	private int splitSize;
+	private double bestThroughput;
+	private int bestThroughputSplitSize;
+
+	// chunk holding the timestep last read and chunks requested after it,
+	// in time order
+	private Chunk currentChunk;
+	private final Deque<Chunk> readAheadChunks;
+	private ExecutorService readAheadExecutor;
+
+	// data for grids without a time axis
 	private Array currentRequestData;
-	
+
 	public MultiTimestepReader(GridDatatype gridDataType) {
+		this(gridDataType, Integer.parseInt(AppConstant.DATA_REQUEST_READ_AHEAD.getValue()));
+	}
+
+	/**
+	 * @param gridDataType grid to read
+	 * @param readAheadDepth number of chunks to request ahead of the one
+	 * being read, 0 to only request chunks when they are read.
+	 */
+	public MultiTimestepReader(GridDatatype gridDataType, int readAheadDepth) {
+		this(gridDataType,
+				calculateSplitSize(gridDataType),
+				readAheadDepth,
+				Long.parseLong(AppConstant.DATA_REQUEST_TARGET_LATENCY.getValue()));
+	}
+
+	/**
+	 * @param gridDataType grid to read
+	 * @param splitSize maximum number of timesteps to request at once
+	 * @param readAheadDepth number of chunks to request ahead of the one
+	 * being read, 0 to only request chunks when they are read.
+	 * @param targetLatencyMillis target time for a single request when
+	 * adapting split size, 0 to always request splitSize timesteps
+	 */
+	MultiTimestepReader(GridDatatype gridDataType, int splitSize, int readAheadDepth, long targetLatencyMillis) {
+		this.gridDataType = gridDataType;
 		this.gridType = GridType.findGridType(gridDataType);
-		this.splitSize = calculateSplitSize(gridDataType);
-		this.splitGridDataType = splitGridDatatype(gridDataType, splitSize);
-		this.currentArrayPosition = -1;
+		CoordinateAxis1DTime tAxis = gridDataType.getCoordinateSystem().getTimeAxis1D();
+		this.tCellCount = (tAxis == null) ? 0 : (int)tAxis.getShape(0);
+		this.maxSplitSize = splitSize;
+		this.splitSize = splitSize;
+		this.readAheadDepth = readAheadDepth;
+		this.targetLatencyMillis = targetLatencyMillis;
+		this.bestThroughput = 0;
+		this.bestThroughputSplitSize = splitSize;
+		this.readAheadChunks = new ArrayDeque<>();
+		this.currentChunk = null;
 		this.currentRequestData = null;
 	}
 
 	/**
 	 * Read a single slice of x-y data at a given t, z index.
-	 * 
+	 *
 	 * To be more efficient about requests it will use a cached version if it is
 	 * available locally.  The access pattern to be used in order to be
 	 * efficient should be to work through time sequentially and fully read all
 	 * z-indices before moving along.  Coming back to a timestep after it has
 	 * been processed will result in another server read which is expensive.
-	 * 
+	 *
 	 * @param t_index time index to read x-y slice for
 	 * @param z_index z index to read x-y slice for
 	 * @return Array containing data for 2d slice
-	 * @throws java.io.IOException 
+	 * @throws java.io.IOException
 	 */
 	public Array readDataSlice(int t_index, int z_index) throws java.io.IOException {
 		int failures = 0;
-		
+
 		Array slice = null;
-		
+
 		// INVALID_INDEX used when dimension shouldn't exist
-		int tPassthru = (t_index == INVALID_INDEX) ? t_index : -1;
 		int zPassthru = (z_index == INVALID_INDEX) ? z_index : -1;
 		while (slice == null) {
-			GridDatatype gridDataType = splitGridDataType.get(t_index);
 			try {
-				if (currentArrayPosition == -1 || splitGridDataType.get(t_index) != splitGridDataType.get(currentArrayPosition)) {
-					LOGGER.debug("Requesting next chunk of data from server");
-					currentArrayPosition = t_index;
-					currentRequestData = gridDataType.readDataSlice(tPassthru, zPassthru, -1, -1);
+				if (t_index == INVALID_INDEX) {
+					if (currentRequestData == null) {
+						LOGGER.debug("Requesting data from server");
+						currentRequestData = gridDataType.readDataSlice(t_index, zPassthru, -1, -1);
+					}
+				} else {
+					if (currentChunk == null || !currentChunk.contains(t_index)) {
+						currentChunk = nextChunk(t_index);
+					}
+					currentRequestData = currentChunk.getData();
+					requestReadAhead();
 				}
 				switch(gridType) {
 					case TYX:
-						slice = currentRequestData.slice(0, t_index % splitSize);
+						slice = currentRequestData.slice(0, t_index - currentChunk.tStart);
 						break;
 					case TZYX:
-						slice = currentRequestData.slice(0, t_index % splitSize);
+						slice = currentRequestData.slice(0, t_index - currentChunk.tStart);
 						slice = slice.slice(0, z_index);
 						break;
 					case ZYX:
@@ -88,9 +169,13 @@ public class MultiTimestepReader {
 						slice = currentRequestData;
 				}
 			} catch (IOException e) {
+				// don't reuse a failed request
+				currentChunk = null;
+				currentRequestData = null;
 				if (failures++ < 3) {
 					LOGGER.warn("Error reading slice [t={}, z={}] from {}: failure {}, reattempting.  Exception was {}",
 							new Object[] {t_index, z_index, gridDataType.getDescription(), failures, e});
+					backOff(failures);
 				} else {
 					LOGGER.error("Unable to read slice [t={}, z={}] from {} after {} failures. Exception was {}",
 							new Object[] {t_index, z_index, gridDataType.getDescription(), failures, e});
@@ -100,7 +185,218 @@ public class MultiTimestepReader {
 		}
 		return slice;
 	}
-	
+
+	/**
+	 * @return number of timesteps currently requested from the server at once
+	 */
+	public int getSplitSize() {
+		return splitSize;
+	}
+
+	/**
+	 * Cancel outstanding read-ahead requests and release the read-ahead
+	 * thread.  The reader remains usable, read-ahead resumes on the next read.
+	 */
+	public void close() {
+		cancelReadAhead();
+		if (readAheadExecutor != null) {
+			readAheadExecutor.shutdownNow();
+			readAheadExecutor = null;
+		}
+	}
+
+	/**
+	 * Move split size towards the number of timesteps that would take the
+	 * target latency at the throughput observed for chunk, at most doubling or
+	 * halving at a time.  Without a target latency only recovers from
+	 * backing off.
+	 */
+	private void adaptSplitSize(Chunk chunk, Array data) {
+		if (targetLatencyMillis <= 0) {
+			splitSize = (int)Math.min(splitSize * 2L, maxSplitSize);
+			return;
+		}
+		int timesteps = chunk.tEnd - chunk.tStart;
+		double elapsedMillis = Math.max(chunk.elapsedNanos / 1e6, 1d);
+		double throughput = data.getSizeBytes() / elapsedMillis;
+		if (throughput > bestThroughput) {
+			bestThroughput = throughput;
+			bestThroughputSplitSize = timesteps;
+		}
+		double targetTimesteps = timesteps * targetLatencyMillis / elapsedMillis;
+		int size = (int)Math.max(Math.min(targetTimesteps, timesteps * 2d), timesteps / 2d);
+		if (size > bestThroughputSplitSize && throughput < bestThroughput * THROUGHPUT_DROP) {
+			// larger requests slowed the server down
+			size = bestThroughputSplitSize;
+		}
+		splitSize = Math.max(1, Math.min(size, maxSplitSize));
+		LOGGER.debug("Read {} timesteps in {} ms ({} bytes/ms), next request is {} timesteps",
+				new Object[] {timesteps, (long)elapsedMillis, (long)throughput, splitSize});
+	}
+
+	/**
+	 * Halve split size and wait before retrying a failed request.
+	 */
+	private void backOff(int failures) throws InterruptedIOException {
+		splitSize = Math.max(1, splitSize / 2);
+		bestThroughputSplitSize = Math.min(bestThroughputSplitSize, splitSize);
+		long delay = retryBackoffMillis << (failures - 1);
+		LOGGER.debug("Retrying in {} ms with {} timesteps per request", delay, splitSize);
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting to retry request");
+		}
+	}
+
+	private Chunk nextChunk(int t_index) {
+		// discard read-ahead chunks we've moved past
+		while (!readAheadChunks.isEmpty() && readAheadChunks.peekFirst().tEnd <= t_index) {
+			readAheadChunks.removeFirst().cancel();
+		}
+		Chunk chunk = readAheadChunks.pollFirst();
+		if (chunk == null || !chunk.contains(t_index)) {
+			// not reading sequentially, start over from this timestep
+			if (chunk != null) {
+				chunk.cancel();
+			}
+			cancelReadAhead();
+			chunk = new Chunk(t_index, Math.min(t_index + splitSize, tCellCount));
+			if (readAheadDepth > 0) {
+				// all reads go through the read-ahead thread so the dataset
+				// is never read from two threads at once
+				chunk.request(getReadAheadExecutor());
+			}
+			LOGGER.debug("Requesting next chunk of data from server");
+		} else {
+			LOGGER.debug("Using chunk of data requested ahead");
+		}
+		return chunk;
+	}
+
+	private void requestReadAhead() {
+		if (readAheadDepth < 1) {
+			return;
+		}
+		int tStart = readAheadChunks.isEmpty() ? currentChunk.tEnd : readAheadChunks.peekLast().tEnd;
+		while (readAheadChunks.size() < readAheadDepth && tStart < tCellCount) {
+			Chunk chunk = new Chunk(tStart, Math.min(tStart + splitSize, tCellCount));
+			chunk.request(getReadAheadExecutor());
+			readAheadChunks.addLast(chunk);
+			tStart = chunk.tEnd;
+		}
+	}
+
+	private void cancelReadAhead() {
+		while (!readAheadChunks.isEmpty()) {
+			readAheadChunks.removeFirst().cancel();
+		}
+	}
+
+	private ExecutorService getReadAheadExecutor() {
+		if (readAheadExecutor == null) {
+			readAheadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "MultiTimestepReader read-ahead");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return readAheadExecutor;
+	}
+
+	/**
+	 * Read timesteps [tStart, tEnd) from the server, may be called from the
+	 * read-ahead thread.
+	 */
+	Array readChunk(int tStart, int tEnd) throws IOException {
+		GridDatatype split;
+		try {
+			split = gridDataType.makeSubset(null, null, new Range(tStart, tEnd - 1), null, null, null);
+		} catch (InvalidRangeException ex) {
+			throw new RuntimeException("Data range is invalid", ex);
+		}
+		return split.readDataSlice(-1, gridType == GridType.TZYX ? -1 : INVALID_INDEX, -1, -1);
+	}
+
+	/**
+	 * Timesteps [tStart, tEnd) requested from the server in a single read,
+	 * either synchronously when first needed or on the read-ahead thread.
+	 */
+	private class Chunk {
+
+		private final int tStart;
+		private final int tEnd;
+
+		private Future<Array> future;
+		private Array data;
+		// time taken to read data, set by the reading thread before data is
+		// handed off
+		private long elapsedNanos;
+
+		private Chunk(int tStart, int tEnd) {
+			this.tStart = tStart;
+			this.tEnd = tEnd;
+		}
+
+		private boolean contains(int t_index) {
+			return t_index >= tStart && t_index < tEnd;
+		}
+
+		private void request(ExecutorService executor) {
+			future = executor.submit(new Callable<Array>() {
+				@Override
+				public Array call() throws IOException {
+					return read();
+				}
+			});
+		}
+
+		private Array read() throws IOException {
+			long start = System.nanoTime();
+			Array array = readChunk(tStart, tEnd);
+			elapsedNanos = System.nanoTime() - start;
+			return array;
+		}
+
+		private void cancel() {
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+
+		private Array getData() throws IOException {
+			if (data == null) {
+				if (future == null) {
+					data = read();
+				} else {
+					try {
+						data = future.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted waiting for read-ahead");
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof IOException) {
+							throw (IOException) cause;
+						}
+						if (cause instanceof RuntimeException) {
+							throw (RuntimeException) cause;
+						}
+						throw new IOException(cause);
+					} finally {
+						future = null;
+					}
+				}
+				adaptSplitSize(this, data);
+			}
+			return data;
+		}
+	}
+
 	private static int calculateSplitSize(GridDatatype gridDataType) {
 		GridCoordSystem gridCoordSystem = gridDataType.getCoordinateSystem();
 		CoordinateAxis zAxis = gridCoordSystem.getVerticalAxis();
@@ -109,35 +405,11 @@ public class MultiTimestepReader {
 		long xCellCount = GridUtility.getXAxisLength(gridCoordSystem);
 		long yCellCount = GridUtility.getYAxisLength(gridCoordSystem);
 		long zCellCount = (zAxis == null) ? 1l : zAxis.getShape(0);
-		
+
 		long maxSplit = Long.valueOf(AppConstant.MAX_DATA_CHUCK_REQUEST_SIZE.getValue());
 		long singleTimestep = (long)gridDataType.getDataType().getSize() * xCellCount * yCellCount * zCellCount;
 		int numTimesteps = (int)Math.floorDiv(maxSplit, singleTimestep);
-		return numTimesteps;
-	}
-
-	private static Map<Integer, GridDatatype> splitGridDatatype(GridDatatype gridDataType, int splitSize) {
-		Map<Integer, GridDatatype> splits = new HashMap<>();
-		
-		splits.put(INVALID_INDEX, gridDataType);
-		
-		GridCoordSystem gridCoordSystem = gridDataType.getCoordinateSystem();
-		CoordinateAxis1DTime tAxis = gridCoordSystem.getTimeAxis1D();
-		long tCellCount = (tAxis == null) ? 0 : tAxis.getShape(0);
-		
-		for (int i = 0; i < tCellCount; i += splitSize) {
-			GridDatatype split;
-			try {
-				int maxRange = (i + splitSize < tCellCount) ? i + splitSize : (int)tCellCount - 1;
-				Range timeRange = new Range(i, maxRange);
-				split = gridDataType.makeSubset(null, null, timeRange, null, null, null);
-			} catch (InvalidRangeException ex) {
-				throw new RuntimeException("Data range is invalid", ex);
-			}
-			for (int j = i; j < i + splitSize && j < tCellCount; j++) {
-				splits.put(j, split);
-			}
-		}
-		return splits;
+		// always request at least one timestep
+		return Math.max(numTimesteps, 1);
 	}
 }
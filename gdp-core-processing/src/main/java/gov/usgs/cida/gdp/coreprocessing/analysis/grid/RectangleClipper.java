@@ -0,0 +1,167 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import java.util.Arrays;
+
+/**
+ * Calculates the area of intersection between a polygonal geometry and an
+ * axis-aligned rectangle by clipping each ring against the rectangle
+ * (Sutherland-Hodgman) and summing ring areas, without creating intermediate
+ * geometries.  Clipping a ring, convex or not, against a convex window
+ * yields a ring with the same area as the true intersection, degenerate
+ * edges along the window boundary contribute no area.
+ *
+ * Instances reuse their coordinate buffers and are not thread safe.
+ */
+final class RectangleClipper {
+
+	private final static int INITIAL_CAPACITY = 64;
+
+	private double[] xIn = new double[INITIAL_CAPACITY];
+	private double[] yIn = new double[INITIAL_CAPACITY];
+	private double[] xOut = new double[INITIAL_CAPACITY];
+	private double[] yOut = new double[INITIAL_CAPACITY];
+
+	/**
+	 * @param geometry polygonal geometry, non-polygonal components have no area
+	 * @param rectangle clip window
+	 * @return area of geometry inside rectangle
+	 */
+	double intersectionArea(Geometry geometry, Envelope rectangle) {
+		if (!rectangle.intersects(geometry.getEnvelopeInternal())) {
+			return 0;
+		}
+		if (geometry instanceof Polygon) {
+			return intersectionArea((Polygon) geometry, rectangle);
+		}
+		if (geometry instanceof GeometryCollection) {
+			double area = 0;
+			final int count = geometry.getNumGeometries();
+			for (int index = 0; index < count; ++index) {
+				area += intersectionArea(geometry.getGeometryN(index), rectangle);
+			}
+			return area;
+		}
+		return 0;
+	}
+
+	private double intersectionArea(Polygon polygon, Envelope rectangle) {
+		if (rectangle.covers(polygon.getEnvelopeInternal())) {
+			return polygon.getArea();
+		}
+		double area = intersectionArea(polygon.getExteriorRing(), rectangle);
+		final int holeCount = polygon.getNumInteriorRing();
+		for (int index = 0; index < holeCount; ++index) {
+			LineString hole = polygon.getInteriorRingN(index);
+			if (rectangle.intersects(hole.getEnvelopeInternal())) {
+				area -= intersectionArea(hole, rectangle);
+			}
+		}
+		return area;
+	}
+
+	private double intersectionArea(LineString ring, Envelope rectangle) {
+		CoordinateSequence sequence = ring.getCoordinateSequence();
+		// rings are closed, the last coordinate repeats the first
+		int count = sequence.size() - 1;
+		if (count < 3) {
+			return 0;
+		}
+		if (xIn.length < count) {
+			xIn = new double[count];
+			yIn = new double[count];
+		}
+		for (int index = 0; index < count; ++index) {
+			xIn[index] = sequence.getX(index);
+			yIn[index] = sequence.getY(index);
+		}
+		count = clip(count, Edge.X_MIN, rectangle.getMinX());
+		count = clip(count, Edge.X_MAX, rectangle.getMaxX());
+		count = clip(count, Edge.Y_MIN, rectangle.getMinY());
+		count = clip(count, Edge.Y_MAX, rectangle.getMaxY());
+		if (count < 3) {
+			return 0;
+		}
+		// shoelace formula
+		double sum = 0;
+		double xPrevious = xIn[count - 1];
+		double yPrevious = yIn[count - 1];
+		for (int index = 0; index < count; ++index) {
+			sum += xPrevious * yIn[index] - xIn[index] * yPrevious;
+			xPrevious = xIn[index];
+			yPrevious = yIn[index];
+		}
+		return Math.abs(sum) / 2d;
+	}
+
+	private enum Edge {
+		X_MIN, X_MAX, Y_MIN, Y_MAX;
+
+		boolean isInside(double x, double y, double bound) {
+			switch (this) {
+				case X_MIN: return x >= bound;
+				case X_MAX: return x <= bound;
+				case Y_MIN: return y >= bound;
+				default: return y <= bound;
+			}
+		}
+
+		boolean isVertical() {
+			return this == X_MIN || this == X_MAX;
+		}
+	}
+
+	// clips the count vertices in xIn/yIn against a single window edge, the
+	// clipped vertices are left in xIn/yIn and their count returned.
+	private int clip(int count, Edge edge, double bound) {
+		if (count == 0) {
+			return 0;
+		}
+		int clipped = 0;
+		double xPrevious = xIn[count - 1];
+		double yPrevious = yIn[count - 1];
+		boolean previousInside = edge.isInside(xPrevious, yPrevious, bound);
+		for (int index = 0; index < count; ++index) {
+			double x = xIn[index];
+			double y = yIn[index];
+			boolean inside = edge.isInside(x, y, bound);
+			if (inside != previousInside) {
+				if (edge.isVertical()) {
+					double t = (bound - xPrevious) / (x - xPrevious);
+					clipped = add(clipped, bound, yPrevious + t * (y - yPrevious));
+				} else {
+					double t = (bound - yPrevious) / (y - yPrevious);
+					clipped = add(clipped, xPrevious + t * (x - xPrevious), bound);
+				}
+			}
+			if (inside) {
+				clipped = add(clipped, x, y);
+			}
+			xPrevious = x;
+			yPrevious = y;
+			previousInside = inside;
+		}
+		double[] swap = xIn;
+		xIn = xOut;
+		xOut = swap;
+		swap = yIn;
+		yIn = yOut;
+		yOut = swap;
+		return clipped;
+	}
+
+	private int add(int index, double x, double y) {
+		if (index == xOut.length) {
+			xOut = Arrays.copyOf(xOut, index * 2);
+			yOut = Arrays.copyOf(yOut, index * 2);
+		}
+		xOut[index] = x;
+		yOut[index] = y;
+		return index + 1;
+	}
+}
@@ -86,6 +86,38 @@ public class Statistics1DWriter {
 
     }
     
+    /**
+     * Create a writer with identical formatting that writes to another
+     * destination.  Used to render rows on worker threads, the rendered rows
+     * are later passed to {@link #writeRendered(CharSequence)}.
+     *
+     * @param writer destination for rows written by the new instance
+     * @return new Statistics1DWriter
+     */
+    public Statistics1DWriter fork(Writer writer) {
+        return new Statistics1DWriter(
+                attributeList,
+                variableName,
+                variableUnits,
+                statisticList,
+                groupByStatistic,
+                tokenSeparator,
+                blockSeparator,
+                summarizeTimeStep,
+                summarizeFeatureAttribute,
+                writer);
+    }
+
+    /**
+     * Write rows previously rendered by a forked writer.
+     *
+     * @param rendered rows, including block separators
+     * @throws IOException
+     */
+    public void writeRendered(CharSequence rendered) throws IOException {
+        writer.append(rendered);
+    }
+
     public boolean isSummarizeTimeStep() {
         return summarizeTimeStep;
     }
@@ -59,11 +59,41 @@ public class WeightedStatistics1D implements IStatistics1D {
         weightSum = temp;
     }
 
+    // merges partial results, grid traversal doesn't use this for the
+    // all-timestep summary since the merge rounds differently than
+    // accumulating the same values one at a time
     public void accumulate(WeightedStatistics1D wsa) {
+        if (wsa == this) {
+            return;
+        }
         if (wsa != null && wsa.count > 0) {
             if (count > 0) {
-                // need to derive this...
-                throw new UnsupportedOperationException();
+
+                // pairwise update of weighted mean and sum of squared
+                // deviations as specified by:
+                //
+                // T. F. Chan, G. H. Golub and R. J. LeVeque. ``Updating
+                // Formulae and a Pairwise Algorithm for Computing Sample
+                // Variances''. Technical Report STAN-CS-79-773, Stanford
+                // University, 1979.
+                //
+                // with counts replaced by weight sums.
+                double temp = weightSum + wsa.weightSum;
+                double Q = wsa.mean - mean;
+                double R = Q * wsa.weightSum / temp;
+                S += wsa.S + weightSum * Q * R;
+                mean += R;
+                weightSum = temp;
+
+                count += wsa.count;
+
+                if (wsa.minimum < minimum) {
+                    minimum = wsa.minimum;
+                }
+
+                if (wsa.maximum > maximum) {
+                    maximum = wsa.maximum;
+                }
             } else {
                 count = wsa.count;
                 weightSum = wsa.weightSum;
@@ -3,6 +3,7 @@ package gov.usgs.cida.gdp.coreprocessing.analysis.timeseries;
 import static gov.usgs.cida.gdp.coreprocessing.analysis.timeseries.TimeseriesStatistic.*;
 
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -40,7 +41,12 @@ public class FeatureTimeseriesStatistics {
 		if (featureNames == null || featureNames.isEmpty()) {
 			throw new RuntimeException("No features specified");
 		}
-		timeseriesDataset.populateMetadata(featureNames.get(0).toString());
+		List<String> stations = new ArrayList<>(featureNames.size());
+		for (Object featureName : featureNames) {
+			stations.add(featureName.toString());
+		}
+		timeseriesDataset.fetch(stations);
+		timeseriesDataset.populateMetadata(stations.get(0));
 		String units = timeseriesDataset.getUnits();
 		Statistics1DWriter statisticWriter = new Statistics1DWriter(
 				featureNames,
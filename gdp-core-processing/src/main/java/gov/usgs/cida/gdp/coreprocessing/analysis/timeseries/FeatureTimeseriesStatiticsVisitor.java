@@ -4,9 +4,8 @@ import gov.usgs.cida.gdp.coreprocessing.analysis.grid.Statistics1DWriter;
 import gov.usgs.cida.gdp.coreprocessing.analysis.statistics.Statistics1D;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.TimeZone;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -28,9 +27,11 @@ public class FeatureTimeseriesStatiticsVisitor extends StationTimeseriesVisitor
 	private SimpleDateFormat dateFormat;
 	
 	private TimeseriesDataset dataset;
-	private DateTime currentTimestep;
+	private int currentTimeIndex = -1;
 	private String tLabel;
-	private Map<String, Statistics1D> stationValueMap;
+	// indexed like featureNames
+	private double[][] stationColumns;
+	private Statistics1D[] stationStatistics;
 	
 	public FeatureTimeseriesStatiticsVisitor(List<Object> featureNames, Statistics1DWriter writer) {
 		this.featureNames = featureNames;
@@ -44,6 +45,10 @@ public class FeatureTimeseriesStatiticsVisitor extends StationTimeseriesVisitor
 	public void traverseStart(TimeseriesDataset dataset) {
 		try {
 			this.dataset = dataset;
+			stationColumns = new double[featureNames.size()][];
+			for (int stationIndex = 0; stationIndex < stationColumns.length; ++stationIndex) {
+				stationColumns[stationIndex] = dataset.getColumn(featureNames.get(stationIndex).toString());
+			}
 			writer.writeHeader(Statistics1DWriter.buildRowLabel(Statistics1DWriter.TIMESTEPS_LABEL, null));
 		} catch (IOException ex) {
 			log.trace("Couldn't write header",ex);
@@ -53,15 +58,16 @@ public class FeatureTimeseriesStatiticsVisitor extends StationTimeseriesVisitor
 	@Override
 	public void traverseEnd() {
 		dataset = null;
-		currentTimestep = null;
+		currentTimeIndex = -1;
 		tLabel = null;
-		stationValueMap = null;
+		stationColumns = null;
+		stationStatistics = null;
 	}
 	
 	@Override
-	public void timeStart(DateTime timestep) {
-		super.timeStart(timestep);
-		currentTimestep = timestep;
+	public void timeStart(int timeIndex, DateTime timestep) {
+		super.timeStart(timeIndex, timestep);
+		currentTimeIndex = timeIndex;
 		tLabel = dateFormat.format(timestep.toDate());
 	}
 	
@@ -70,10 +76,9 @@ public class FeatureTimeseriesStatiticsVisitor extends StationTimeseriesVisitor
 	@Override
 	public void stationsStart() {
 		super.stationsStart();
-		stationValueMap = new LinkedHashMap<>();
-		for (Object station : featureNames) {
-			String stationName = station.toString();
-			stationValueMap.put(stationName, new Statistics1D());
+		stationStatistics = new Statistics1D[featureNames.size()];
+		for (int stationIndex = 0; stationIndex < stationStatistics.length; ++stationIndex) {
+			stationStatistics[stationIndex] = new Statistics1D();
 		}
 	}
 	
@@ -82,7 +87,7 @@ public class FeatureTimeseriesStatiticsVisitor extends StationTimeseriesVisitor
 		try {
 			writer.writeRow(
 					Statistics1DWriter.buildRowLabel(tLabel, null),
-					stationValueMap.values(),
+					Arrays.asList(stationStatistics),
 					null);
 		} catch (IOException ex) {
 			log.trace("Couldn't write row");
@@ -92,15 +97,12 @@ public class FeatureTimeseriesStatiticsVisitor extends StationTimeseriesVisitor
 	@Override
 	public void processStations() {
 		super.processStations();
-		if (null == currentTimestep || null == dataset) {
+		if (currentTimeIndex < 0 || null == dataset) {
 			throw new IllegalStateException("Visitor used in wrong sequence");
 		}
-		for (Object station : featureNames) {
-			String stationName = station.toString();
-			String value = dataset.getValue(stationName, currentTimestep);
-			if (value != null) {
-				stationValueMap.get(stationName).accumulate(Double.parseDouble(value));
-			}
+		for (int stationIndex = 0; stationIndex < stationColumns.length; ++stationIndex) {
+			// missing values are NaN, which Statistics1D ignores
+			stationStatistics[stationIndex].accumulate(stationColumns[stationIndex][currentTimeIndex]);
 		}
 	}
 
@@ -0,0 +1,200 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.timeseries;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed observations held as primitive columns.  Each station is parsed
+ * once into values sorted by epoch millis, then aligned to the dataset time
+ * axis the first time its column is asked for, so values are looked up by
+ * time index.  Missing values are NaN.
+ */
+public class ObservationStore {
+
+	private long[] timeAxis = null;
+	private final Map<String, StationSeries> seriesMap = new ConcurrentHashMap<>();
+	private final Map<String, double[]> columnMap = new ConcurrentHashMap<>();
+
+	/**
+	 * Reads all remaining observations for a station.
+	 *
+	 * @param station station the observations belong to
+	 * @param observations observations to read, left open
+	 * @return parsed observations
+	 */
+	public StationSeries put(String station, ObservationCollection observations) {
+		StationSeries series = StationSeries.parse(observations);
+		seriesMap.put(station, series);
+		columnMap.remove(station);
+		return series;
+	}
+
+	public boolean contains(String station) {
+		return seriesMap.containsKey(station);
+	}
+
+	public StationSeries getSeries(String station) {
+		return seriesMap.get(station);
+	}
+
+	/**
+	 * @param timeAxis sorted epoch millis columns are aligned to
+	 */
+	public synchronized void setTimeAxis(long[] timeAxis) {
+		this.timeAxis = timeAxis;
+		columnMap.clear();
+	}
+
+	public synchronized long[] getTimeAxis() {
+		if (timeAxis == null) {
+			throw new IllegalStateException("Time axis not set");
+		}
+		return timeAxis;
+	}
+
+	/**
+	 * @param station station to get values for
+	 * @return values indexed like the time axis, null if station isn't parsed
+	 */
+	public double[] getColumn(String station) {
+		double[] column = columnMap.get(station);
+		if (column == null) {
+			StationSeries series = seriesMap.get(station);
+			if (series != null) {
+				column = series.align(getTimeAxis());
+				columnMap.put(station, column);
+			}
+		}
+		return column;
+	}
+
+	public void clear() {
+		seriesMap.clear();
+		columnMap.clear();
+	}
+
+	public static class StationSeries {
+
+		private static final int INITIAL_CAPACITY = 1024;
+
+		private final long[] times;
+		private final double[] values;
+		private final String units;
+
+		private StationSeries(long[] times, double[] values, String units) {
+			this.times = times;
+			this.values = values;
+			this.units = units;
+		}
+
+		static StationSeries parse(ObservationCollection observations) {
+			long[] times = new long[INITIAL_CAPACITY];
+			double[] values = new double[INITIAL_CAPACITY];
+			int size = 0;
+			boolean sorted = true;
+			String units = null;
+			while (observations.hasNext()) {
+				Observation next = observations.next();
+				if (null == next) {
+					continue;
+				}
+				if (null == units && null != next.getMetadata()) {
+					units = next.getMetadata().defaultUnits();
+				}
+				if (size == times.length) {
+					times = Arrays.copyOf(times, size << 1);
+					values = Arrays.copyOf(values, size << 1);
+				}
+				times[size] = next.getTime().getMillis();
+				values[size] = parseValue(next.getValue());
+				if (size > 0 && times[size] <= times[size - 1]) {
+					sorted = false;
+				}
+				++size;
+			}
+			if (!sorted) {
+				return sort(times, values, size, units);
+			}
+			return new StationSeries(Arrays.copyOf(times, size), Arrays.copyOf(values, size), units);
+		}
+
+		private static double parseValue(String value) {
+			if (value == null) {
+				return Double.NaN;
+			}
+			try {
+				return Double.parseDouble(value);
+			} catch (NumberFormatException ex) {
+				return Double.NaN;
+			}
+		}
+
+		/**
+		 * Stable sort by time, the first value for a repeated time is kept.
+		 */
+		private static StationSeries sort(final long[] times, double[] values, int size, String units) {
+			Integer[] order = new Integer[size];
+			for (int index = 0; index < size; ++index) {
+				order[index] = index;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer left, Integer right) {
+					return Long.compare(times[left], times[right]);
+				}
+			});
+			long[] sortedTimes = new long[size];
+			double[] sortedValues = new double[size];
+			int sortedSize = 0;
+			for (int index = 0; index < size; ++index) {
+				long time = times[order[index]];
+				if (sortedSize == 0 || sortedTimes[sortedSize - 1] != time) {
+					sortedTimes[sortedSize] = time;
+					sortedValues[sortedSize] = values[order[index]];
+					++sortedSize;
+				}
+			}
+			return new StationSeries(
+					Arrays.copyOf(sortedTimes, sortedSize),
+					Arrays.copyOf(sortedValues, sortedSize),
+					units);
+		}
+
+		/**
+		 * Walks both sorted axes once.
+		 *
+		 * @param timeAxis sorted epoch millis
+		 * @return values at each time of the axis, NaN where there are none
+		 */
+		double[] align(long[] timeAxis) {
+			if (Arrays.equals(times, timeAxis)) {
+				return values;
+			}
+			double[] column = new double[timeAxis.length];
+			Arrays.fill(column, Double.NaN);
+			int index = 0;
+			for (int timeIndex = 0; timeIndex < timeAxis.length && index < times.length; ++timeIndex) {
+				while (index < times.length && times[index] < timeAxis[timeIndex]) {
+					++index;
+				}
+				if (index < times.length && times[index] == timeAxis[timeIndex]) {
+					column[timeIndex] = values[index];
+				}
+			}
+			return column;
+		}
+
+		/**
+		 * @return sorted epoch millis of the observations, don't modify
+		 */
+		public long[] getTimes() {
+			return times;
+		}
+
+		public String getUnits() {
+			return units;
+		}
+	}
+}
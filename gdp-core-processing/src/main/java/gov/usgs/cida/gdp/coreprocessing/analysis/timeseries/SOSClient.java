@@ -6,16 +6,22 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 
+import gov.usgs.cida.gdp.constants.AppConstant;
 import org.apache.commons.io.FileUtils;
 import org.apache.http.HttpHeaders;
-import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 import org.joda.time.ReadableInterval;
@@ -23,6 +29,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Fetches a single offering from SOS into a temp file.
+ *
+ * All clients share one pooled connection manager, concurrent requests to a
+ * host are limited by a semaphore per host (TIMESERIES_FETCH_HOST_CONNECTIONS)
+ * so any number of clients may run at once.
  *
  * @author Jordan Walker <jiwalker@usgs.gov>
  */
@@ -30,10 +41,13 @@ public class SOSClient extends Thread implements AutoCloseable {
 	
 	private static final Logger log = LoggerFactory.getLogger(SOSClient.class);
 	
-	private static final int MAX_CONNECTIONS = 4;
 	private static final int CLIENT_CONNECTION_TIMEOUT = 10000;
 	private static final int CLIENT_SOCKET_TIMEOUT = 180000;
-	private static int numConnections = 0;
+	// hosts allowed a full set of pooled connections at once
+	private static final int MAX_POOLED_HOSTS = 16;
+
+	private static final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+	private static CloseableHttpClient httpClient = null;
 	
 	private File file;
 	private URI sosEndpoint;
@@ -72,42 +86,81 @@ public class SOSClient extends Thread implements AutoCloseable {
 		return doneFile;
 	}
 
+	public String getOffering() {
+		return offering;
+	}
+
 	private synchronized void fetchData() {
 		if (fetched) {
 			return;
 		}
 		
-		HttpParams httpParams = new BasicHttpParams();
-		HttpConnectionParams.setSoTimeout(httpParams, CLIENT_SOCKET_TIMEOUT);
-		HttpConnectionParams.setConnectionTimeout(httpParams, CLIENT_CONNECTION_TIMEOUT);
-		DefaultHttpClient client = new DefaultHttpClient(httpParams);
-		
-		HttpResponse response = null;
+		Semaphore permits = getHostPermits(sosEndpoint);
+		boolean acquired = false;
 		try {
-			while (numConnections >= MAX_CONNECTIONS) {
-				try {
-					sleep(250);
-				}
-				catch (InterruptedException ex) {
-					log.debug("interrupted", ex);
-				}
-			}
-			numConnections++;
+			permits.acquire();
+			acquired = true;
 			URI getURI = buildGetObservationRequest(startTime, endTime, observedProperty, offering);
 			HttpGet httpGet = new HttpGet(getURI);
 			httpGet.setHeader(HttpHeaders.ACCEPT, "application/xml");
-			response = client.execute(httpGet);
-			try (FileOutputStream fos = new FileOutputStream(file)) {
-				response.getEntity().writeTo(fos);
+			try (CloseableHttpResponse response = getHttpClient().execute(httpGet)) {
+				if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+					EntityUtils.consume(response.getEntity());
+					throw new IOException("SOS request for " + offering + " failed: " + response.getStatusLine());
+				}
+				try (FileOutputStream fos = new FileOutputStream(file)) {
+					response.getEntity().writeTo(fos);
+				}
 			}
 		} catch (IOException ex) {
 			log.error("Unable to get data from service", ex);
+			// leave no partial response to be parsed
+			FileUtils.deleteQuietly(file);
+		} catch (InterruptedException ex) {
+			log.debug("interrupted", ex);
+			Thread.currentThread().interrupt();
 		} finally {
-			numConnections--;
+			if (acquired) {
+				permits.release();
+			}
 			fetched = true;
 		}
 	}
 
+	private static Semaphore getHostPermits(URI endpoint) {
+		String host = endpoint.getHost() + ":" + endpoint.getPort();
+		Semaphore permits = hostPermits.get(host);
+		if (permits == null) {
+			Semaphore created = new Semaphore(getHostConnections(), true);
+			permits = hostPermits.putIfAbsent(host, created);
+			if (permits == null) {
+				permits = created;
+			}
+		}
+		return permits;
+	}
+
+	private static synchronized CloseableHttpClient getHttpClient() {
+		if (httpClient == null) {
+			int hostConnections = getHostConnections();
+			PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+			connectionManager.setDefaultMaxPerRoute(hostConnections);
+			connectionManager.setMaxTotal(hostConnections * MAX_POOLED_HOSTS);
+			httpClient = HttpClients.custom()
+					.setConnectionManager(connectionManager)
+					.setDefaultRequestConfig(RequestConfig.custom()
+							.setConnectTimeout(CLIENT_CONNECTION_TIMEOUT)
+							.setSocketTimeout(CLIENT_SOCKET_TIMEOUT)
+							.build())
+					.build();
+		}
+		return httpClient;
+	}
+
+	private static int getHostConnections() {
+		return Math.max(1, Integer.parseInt(AppConstant.TIMESERIES_FETCH_HOST_CONNECTIONS.getValue()));
+	}
+
 	public URI buildGetObservationRequest(DateTime startTime, DateTime endTime, String observedProperty, String offering) {
 		URI uri = null;
 		ReadableInterval interval = new Interval(startTime, endTime);
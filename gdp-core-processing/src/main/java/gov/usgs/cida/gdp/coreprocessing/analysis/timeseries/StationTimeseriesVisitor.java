@@ -17,6 +17,13 @@ public abstract class StationTimeseriesVisitor {
 	public void traverseEnd() {}
 	
 	public void timeStart(DateTime timestep) {}
+	/**
+	 * Values for the timestep are at timeIndex of TimeseriesDataset.getColumn(station),
+	 * default passes the timestep on to timeStart(DateTime).
+	 */
+	public void timeStart(int timeIndex, DateTime timestep) {
+		timeStart(timestep);
+	}
 	public boolean timeContinue() {return true;}
 	public void timeEnd() {}
 	
@@ -5,12 +5,24 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.coreprocessing.analysis.timeseries.ObservationStore.StationSeries;
 import org.apache.commons.io.FileUtils;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,7 +46,7 @@ public class TimeseriesDataset implements AutoCloseable {
 	private DateTime endDate;
 	
 	private Map<String, File> tempFiles;
-	private Map<String, ObservationCollection> openCollections;
+	private ObservationStore store;
 	
 	private String units;
 	private List<DateTime> timesteps;
@@ -45,7 +57,7 @@ public class TimeseriesDataset implements AutoCloseable {
 		this.startDate = startDate;
 		this.endDate = endDate;
 		
-		this.openCollections = new ConcurrentHashMap<>();
+		this.store = new ObservationStore();
 		this.tempFiles = new ConcurrentHashMap<>();
 		this.units = null;
 		this.timesteps = null;
@@ -69,40 +81,113 @@ public class TimeseriesDataset implements AutoCloseable {
 
 	public String getValue(String station, DateTime timestep) {
 		String value = null;
-		ObservationCollection obs = parseData(station);
-		while (obs.hasNext() && value == null) {
-			Observation next = obs.next();
-			if (null != next && next.getTime().isEqual(timestep)) {
-				value = next.getValue();
+		int timeIndex = Arrays.binarySearch(store.getTimeAxis(), timestep.getMillis());
+		if (timeIndex >= 0) {
+			double columnValue = getColumn(station)[timeIndex];
+			if (!Double.isNaN(columnValue)) {
+				value = Double.toString(columnValue);
 			}
 		}
 		return value;
 	}
+
+	/**
+	 * Values of a station at each timestep, fetching and parsing the station
+	 * if needed.
+	 *
+	 * @param station station to get values for
+	 * @return values indexed like getTimesteps(), NaN where missing
+	 */
+	public double[] getColumn(String station) {
+		parseData(station);
+		return store.getColumn(station);
+	}
 	
 	public void populateMetadata(String station) {
-		try (ObservationCollection obCol = parseData(station)) {
-			timesteps = new ArrayList<>();
-			while (obCol.hasNext()) {
-				Observation next = obCol.next();
-				if (null == units) {
-					units = next.getMetadata().defaultUnits();
-				}
-				timesteps.add(next.getTime());
+		try {
+			StationSeries series = parseData(station);
+			if (null == units) {
+				units = series.getUnits();
+			}
+			long[] timeAxis = series.getTimes();
+			List<DateTime> axisTimesteps = new ArrayList<>(timeAxis.length);
+			for (long time : timeAxis) {
+				axisTimesteps.add(new DateTime(time, DateTimeZone.UTC));
 			}
+			store.setTimeAxis(timeAxis);
+			timesteps = axisTimesteps;
 		} catch (Exception ex) {
 			log.error("Error populating metadata", ex);
 			throw new RuntimeException(ex);
-		} finally {
-			openCollections.remove(station);
 		}
 	}
 	
-	private synchronized ObservationCollection parseData(String station) {
-		ObservationCollection obs = null;
-		File fetched = null;
-		if (openCollections.containsKey(station)) {
-			obs = openCollections.get(station);
+	/**
+	 * Fetches stations ahead of traversal using TIMESERIES_FETCH_PARALLELISM
+	 * workers, each station is parsed as soon as it arrives.
+	 * Stations already fetched are skipped, any left out or that fail are
+	 * still fetched one at a time when first used.
+	 *
+	 * @param stations offerings to fetch
+	 */
+	public void fetch(Collection<String> stations) {
+		Set<String> pending = new LinkedHashSet<>(stations);
+		pending.removeAll(tempFiles.keySet());
+		int parallelism = Math.min(
+				Integer.parseInt(AppConstant.TIMESERIES_FETCH_PARALLELISM.getValue()),
+				pending.size());
+		if (parallelism < 2) {
+			for (String station : pending) {
+				try {
+					parseData(station);
+				} catch (RuntimeException ex) {
+					log.warn("Could not fetch timeseries for {} ahead of traversal", station, ex);
+				}
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			CompletionService<SOSClient> completionService = new ExecutorCompletionService<>(executor);
+			for (String station : pending) {
+				SOSClient sosClient = new SOSClient(endpoint, startDate, endDate, observedProperty, station);
+				completionService.submit(sosClient, sosClient);
+			}
+			for (int fetched = 0; fetched < pending.size(); ++fetched) {
+				SOSClient sosClient;
+				try {
+					sosClient = completionService.take().get();
+				} catch (ExecutionException ex) {
+					log.warn("Could not fetch timeseries ahead of traversal", ex.getCause());
+					continue;
+				}
+				try {
+					stationFetched(sosClient.getOffering(), sosClient.getFile());
+				} catch (RuntimeException ex) {
+					log.warn("Could not fetch timeseries for {} ahead of traversal", sosClient.getOffering(), ex);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted fetching timeseries", ex);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private synchronized void stationFetched(String station, File fetched) {
+		if (store.contains(station)) {
+			FileUtils.deleteQuietly(fetched);
 		} else {
+			parseFetched(station, fetched);
+		}
+	}
+
+	private synchronized StationSeries parseData(String station) {
+		StationSeries series = store.getSeries(station);
+		if (series == null) {
+			File fetched = null;
 			if (tempFiles.containsKey(station)) {
 				fetched = tempFiles.get(station);
 			} else {
@@ -110,27 +195,52 @@ public class TimeseriesDataset implements AutoCloseable {
 					// this is goofy, but I'm taking an asynchronous process and making it synchronous
 					sosClient.run();
 					fetched = sosClient.getFile();
-					tempFiles.put(station, fetched);
 				}
 			}
-			
+			series = parseFetched(station, fetched);
+		}
+		return series;
+	}
+
+	/**
+	 * Keeps the file of a station that parsed until close(), otherwise
+	 * deletes it so the station is fetched again the next time it's used.
+	 */
+	private StationSeries parseFetched(String station, File fetched) {
+		try {
+			StationSeries series = parseFile(station, fetched);
+			tempFiles.put(station, fetched);
+			return series;
+		} catch (RuntimeException ex) {
+			tempFiles.remove(station);
+			FileUtils.deleteQuietly(fetched);
+			throw ex;
+		}
+	}
+
+	private StationSeries parseFile(String station, File fetched) {
+		ObservationCollection obs;
+		try {
+			obs = new ObservationCollection(new FileInputStream(fetched), new SweCommonsParser());
+		} catch (FileNotFoundException ex) {
+			String message = "Could not read timeseries file";
+			log.error(message);
+			throw new RuntimeException(message, ex);
+		}
+		try {
+			return store.put(station, obs);
+		} finally {
 			try {
-				obs = new ObservationCollection(new FileInputStream(fetched), new SweCommonsParser());
-				openCollections.put(station, obs);
-			} catch (FileNotFoundException ex) {
-				String message = "Could not read timeseries file";
-				log.error(message);
-				throw new RuntimeException(message, ex);
+				obs.close();
+			} catch (Exception ex) {
+				log.debug("Could not close timeseries file", ex);
 			}
 		}
-		return obs;
 	}
 
 	@Override
 	public void close() throws Exception {
-		for (ObservationCollection obs : openCollections.values()) {
-			obs.close();
-		}
+		store.clear();
 		for (File tempFile : tempFiles.values()) {
 			boolean deleted = FileUtils.deleteQuietly(tempFile);
 			if (!deleted) {
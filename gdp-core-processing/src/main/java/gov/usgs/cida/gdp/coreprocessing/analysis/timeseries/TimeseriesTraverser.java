@@ -25,10 +25,11 @@ public class TimeseriesTraverser {
 		for (StationTimeseriesVisitor visitor : visitors) {
 			visitor.traverseStart(dataset);
 		}
-		for (DateTime timestep : timesteps) {
+		for (int timeIndex = 0; timeIndex < timesteps.size(); ++timeIndex) {
+			DateTime timestep = timesteps.get(timeIndex);
 			for (StationTimeseriesVisitor visitor : visitors) {
 				if (visitor.timeContinue()) {
-					visitor.timeStart(timestep);
+					visitor.timeStart(timeIndex, timestep);
 				}
 			}
 			for (StationTimeseriesVisitor visitor : visitors) {
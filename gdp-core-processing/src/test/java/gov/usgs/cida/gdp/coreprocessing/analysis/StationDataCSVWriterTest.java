@@ -0,0 +1,43 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.SchemaException;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+public class StationDataCSVWriterTest {
+
+    @Test
+    public void testStationsJoinedToContainingFeatures() throws SchemaException, ParseException {
+        SimpleFeatureType featureType = DataUtilities.createType("test", "the_geom:Polygon,name:String");
+        WKTReader wktReader = new WKTReader();
+        SimpleFeature square = SimpleFeatureBuilder.build(featureType, new Object[] {
+            wktReader.read("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))"), "square" }, "1");
+        SimpleFeature triangle = SimpleFeatureBuilder.build(featureType, new Object[] {
+            wktReader.read("POLYGON ((20 0, 30 0, 20 10, 20 0))"), "triangle" }, "2");
+        SimpleFeature empty = SimpleFeatureBuilder.build(featureType, new Object[] { null, "empty" }, "3");
+
+        STRtree featureIndex = StationDataCSVWriter.buildFeatureIndex(
+                DataUtilities.collection(new SimpleFeature[] { square, triangle, empty }));
+
+        assertThat(StationDataCSVWriter.isContained(featureIndex, point(5, 5)), is(true));
+        assertThat(StationDataCSVWriter.isContained(featureIndex, point(21, 1)), is(true));
+        // inside the triangle's envelope but not the triangle
+        assertThat(StationDataCSVWriter.isContained(featureIndex, point(29, 9)), is(false));
+        assertThat(StationDataCSVWriter.isContained(featureIndex, point(15, 5)), is(false));
+    }
+
+    private static Geometry point(double x, double y) {
+        return StationDataCSVWriter.GEOMETRY_FACTORY.createPoint(new Coordinate(x, y));
+    }
+}
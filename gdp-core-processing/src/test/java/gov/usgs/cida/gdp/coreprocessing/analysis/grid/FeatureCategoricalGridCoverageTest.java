@@ -0,0 +1,96 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import gov.usgs.cida.gdp.coreprocessing.Delimiter;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.FeatureCategoricalGridCoverage.CategoryIndex;
+import java.net.URL;
+import java.util.Formatter;
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.geotools.data.FileDataStore;
+import org.geotools.data.FileDataStoreFinder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+import ucar.nc2.ft.FeatureDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+
+public class FeatureCategoricalGridCoverageTest {
+
+    @Test
+    public void testColumnsAssignedInOrderOfAppearance() {
+        CategoryIndex categoryIndex = new CategoryIndex();
+        assertThat(categoryIndex.getColumn(42), is(equalTo(0)));
+        assertThat(categoryIndex.getColumn(11), is(equalTo(1)));
+        assertThat(categoryIndex.getColumn(42), is(equalTo(0)));
+        assertThat(categoryIndex.size(), is(equalTo(2)));
+        assertThat(categoryIndex.getCategory(1), is(equalTo(11)));
+    }
+
+    @Test
+    public void testSparseCategories() {
+        CategoryIndex categoryIndex = new CategoryIndex();
+        // enough categories outside the dense range to force rehashing
+        for (int category = 0; category < 100; ++category) {
+            assertThat(categoryIndex.getColumn(-1 - category * 1000), is(equalTo(category)));
+        }
+        assertThat(categoryIndex.getColumn(CategoryIndex.DENSE_CATEGORY_COUNT), is(equalTo(100)));
+        assertThat(categoryIndex.getColumn(0), is(equalTo(101)));
+        for (int category = 0; category < 100; ++category) {
+            assertThat(categoryIndex.getColumn(-1 - category * 1000), is(equalTo(category)));
+        }
+        assertThat(categoryIndex.size(), is(equalTo(102)));
+    }
+
+    @Test
+    public void testColumnsByCategory() {
+        CategoryIndex categoryIndex = new CategoryIndex();
+        categoryIndex.getColumn(90);
+        categoryIndex.getColumn(-5);
+        categoryIndex.getColumn(100000);
+        categoryIndex.getColumn(21);
+        assertThat(categoryIndex.getColumnsByCategory(), is(equalTo(new int[] { 1, 3, 0, 2 })));
+    }
+
+    @Test
+    public void testTYXRowsWrittenPerTimestep() throws Exception {
+        FeatureDataset featureDataset = FeatureDatasetFactoryManager.open(
+                FeatureType.GRID,
+                getResourceURL("Sample_files/Trout_Lake_HRUs_coverage.ncml").toString(),
+                null,
+                new Formatter(System.err));
+        FileDataStore featureDataStore = FileDataStoreFinder.getDataStore(
+                getResourceURL("Sample_files/Trout_Lake_HRUs_rotated_geo_WGS84.shp"));
+        try {
+            GridDatatype gridDatatype = ((GridDataset) featureDataset).findGridDatatype("tyx");
+            StringBuilderWriter writer = new StringBuilderWriter();
+            FeatureCategoricalGridCoverage.execute(
+                    featureDataStore.getFeatureSource().getFeatures(),
+                    "GRIDCODE",
+                    gridDatatype,
+                    writer,
+                    Delimiter.COMMA,
+                    true);
+
+            String[] lines = writer.toString().split("\n");
+            int timestepCount = (int) gridDatatype.getCoordinateSystem().getTimeAxis1D().getSize();
+            int dataRowCount = lines.length - 2;
+            assertThat(dataRowCount > 0, is(true));
+            assertThat(dataRowCount % timestepCount, is(equalTo(0)));
+            // rows of every timestep have a column for every category seen
+            int columnCount = lines[1].split(",", -1).length;
+            for (int line = 2; line < lines.length; ++line) {
+                assertThat(lines[line].split(",", -1).length, is(equalTo(columnCount)));
+            }
+        } finally {
+            featureDataStore.dispose();
+            featureDataset.close();
+        }
+    }
+
+    private static URL getResourceURL(String fileName) {
+        return FeatureCategoricalGridCoverageTest.class.getClassLoader().getResource(fileName);
+    }
+}
@@ -119,6 +119,30 @@ public class FeatureCoverageGridStatisticsTest {
 		executeAndCharacterize("tzyx");
 	}
 
+	@Test
+	public void testTYXParallelMatchesSerial() throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+		assertThat(executeWithParallelism("tyx", 4), is(equalTo(executeWithParallelism("tyx", 1))));
+	}
+
+	@Test
+	public void testTZYXParallelMatchesSerial() throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+		assertThat(executeWithParallelism("tzyx", 4), is(equalTo(executeWithParallelism("tzyx", 1))));
+	}
+
+	@Test
+	public void testTYXSummaryParallelMatchesSerial() throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+		String serial = executeWithParallelism("tyx", 1, true);
+		assertThat(serial, containsString(Statistics1DWriter.ALL_TIMESTEPS_LABEL));
+		assertThat(executeWithParallelism("tyx", 4, true), is(equalTo(serial)));
+	}
+
+	@Test
+	public void testTZYXSummaryParallelMatchesSerial() throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+		String serial = executeWithParallelism("tzyx", 1, true);
+		assertThat(serial, containsString(Statistics1DWriter.ALL_TIMESTEPS_LABEL));
+		assertThat(executeWithParallelism("tzyx", 4, true), is(equalTo(serial)));
+	}
+
 	private GridDatatype getGrid(String gridName) {
 		GridDatatype gdt = GRID_DATASET.findGridDatatype(gridName);
 		assertThat(gdt, is(notNullValue()));
@@ -150,6 +174,28 @@ public class FeatureCoverageGridStatisticsTest {
 		return writer.toString();
 	}
 
+	private String executeWithParallelism(String gridName, int parallelism) throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+		return executeWithParallelism(gridName, parallelism, false);
+	}
+
+	private String executeWithParallelism(String gridName, int parallelism, boolean summarizeFeatures) throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+		StringBuilderWriter parallelismWriter = new StringBuilderWriter();
+		FeatureCoverageGridStatistics.execute(
+				featureCollection,
+				"GRIDCODE",
+				getGrid(gridName),
+				Arrays.asList(),
+				Arrays.asList(WeightedStatistic.values()),
+				parallelismWriter,
+				GroupBy.STATISTIC,
+				Delimiter.COMMA,
+				true,
+				true,
+				summarizeFeatures,
+				parallelism);
+		return parallelismWriter.toString();
+	}
+
 	private static URL getResourceURL(String fileName) {
 		return FeatureCoverageGridStatisticsTest.class.getClassLoader().getResource(fileName);
 	}
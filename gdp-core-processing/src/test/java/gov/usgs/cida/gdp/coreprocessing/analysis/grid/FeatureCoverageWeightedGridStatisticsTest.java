@@ -9,6 +9,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.StringBuilderWriter;
 import org.geotools.data.FileDataStore;
@@ -113,6 +114,45 @@ public class FeatureCoverageWeightedGridStatisticsTest {
         executeAndCharacterize("tzyx");
     }
     
+    @Test
+    public void testTYXParallelMatchesSerial() throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+        assertThat(executeWithParallelism("tyx", 4), is(equalTo(executeWithParallelism("tyx", 1))));
+    }
+    
+    @Test
+    public void testTZYXParallelMatchesSerial() throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+        assertThat(executeWithParallelism("tzyx", 4), is(equalTo(executeWithParallelism("tzyx", 1))));
+    }
+    
+    @Test
+    public void testSummaryNeverForks() throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+        for (String gridName : Arrays.asList("tyx", "tzyx")) {
+            assertThat(countForks(gridName, true), is(equalTo(0)));
+            // the counting visitor is forked when the summary isn't requested
+            assertThat(countForks(gridName, false), is(greaterThan(0)));
+        }
+    }
+    
+    @Test
+    public void testCoverageReusedAcrossVariables() throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+        GridCellCoverageIndexCache coverageIndexCache = new GridCellCoverageIndexCache(featureCollection, "GRIDCODE");
+        for (String gridName : Arrays.asList("yx", "tyx")) {
+            FeatureCoverageWeightedGridStatistics.execute(
+                    coverageIndexCache,
+                    getGrid(gridName),
+                    Arrays.asList(),
+                    Arrays.asList(WeightedStatistic.values()),
+                    writer,
+                    GroupBy.STATISTIC,
+                    Delimiter.COMMA,
+                    true,
+                    true,
+                    true,
+                    1);
+        }
+        assertThat(coverageIndexCache.getHitCount(), is(equalTo(1)));
+    }
+    
     private GridDatatype getGrid(String gridName) {
         GridDatatype gdt = GRID_DATASET.findGridDatatype(gridName);
         assertThat(gdt, is(notNullValue()));
@@ -144,6 +184,63 @@ public class FeatureCoverageWeightedGridStatisticsTest {
         return writer.toString();
     }
     
+    private String executeWithParallelism(String gridName, int parallelism) throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+        StringBuilderWriter parallelismWriter = new StringBuilderWriter();
+        FeatureCoverageWeightedGridStatistics.execute(
+                new GridCellCoverageIndexCache(featureCollection, "GRIDCODE"),
+                getGrid(gridName),
+                Arrays.asList(),
+                Arrays.asList(WeightedStatistic.values()),
+                parallelismWriter,
+                GroupBy.STATISTIC,
+                Delimiter.COMMA,
+                true,
+                true,
+                false,
+                parallelism);
+        return parallelismWriter.toString();
+    }
+    
+    private int countForks(String gridName, boolean summarizeFeatures) throws IOException, InvalidRangeException, FactoryException, TransformException, SchemaException {
+        ForkCountingVisitor visitor = new ForkCountingVisitor(new AtomicInteger());
+        FeatureCoverageWeightedGridStatistics.execute(
+                new GridCellCoverageIndexCache(featureCollection, "GRIDCODE"),
+                getGrid(gridName),
+                Arrays.<GridCellVisitor>asList(visitor),
+                Arrays.asList(WeightedStatistic.values()),
+                new StringBuilderWriter(),
+                GroupBy.STATISTIC,
+                Delimiter.COMMA,
+                true,
+                true,
+                summarizeFeatures,
+                4);
+        return visitor.forks.get();
+    }
+    
+    private static class ForkCountingVisitor extends GridCellVisitor implements ForkableGridCellVisitor {
+        
+        private final AtomicInteger forks;
+        
+        ForkCountingVisitor(AtomicInteger forks) {
+            this.forks = forks;
+        }
+        
+        @Override
+        public void processGridCell(int xCellIndex, int yCellIndex, double value) {
+        }
+        
+        @Override
+        public GridCellVisitor fork() {
+            forks.incrementAndGet();
+            return new ForkCountingVisitor(forks);
+        }
+        
+        @Override
+        public void join(GridCellVisitor forked) {
+        }
+    }
+    
     private static URL getResourceURL(String fileName) {
         return FeatureCoverageWeightedGridStatisticsTest.class.getClassLoader().getResource(fileName);
     }
@@ -5,11 +5,15 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 
 import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Formatter;
+import java.util.List;
 
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FileDataStore;
@@ -27,11 +31,21 @@ import org.opengis.referencing.operation.TransformException;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
 import ucar.nc2.constants.FeatureType;
+import ucar.nc2.dt.GridCoordSystem;
 import ucar.nc2.dt.grid.GridDataset;
 import ucar.nc2.ft.FeatureDataset;
 import ucar.nc2.ft.FeatureDatasetFactoryManager;
 
 import static gov.usgs.cida.gdp.coreprocessing.GridCellHelper.*;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellCoverageByIndex;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellCoverageIndex;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageFactory.GridCellIndexCoverage;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 public class GridCellCoverageTest {
@@ -197,6 +211,122 @@ public class GridCellCoverageTest {
                 Delimiter.COMMA);
     }
 
+    @Test
+    public void testCoverageIndexMatchesCoverageByIndex() throws IOException, InvalidRangeException, FactoryException, TransformException {
+        FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = getFeatureCollection(ncLocation);
+        GridCoordSystem gcs = ((GridDataset) dataset).findGridDatatype(variableName).getCoordinateSystem();
+
+        GridCellCoverageByIndex coverageByIndex =
+                GridCellCoverageFactory.generateFeatureAttributeCoverageByIndex(featureCollection, attributeName, gcs);
+        GridCellCoverageIndex coverageIndex =
+                GridCellCoverageFactory.generateFeatureAttributeCoverageIndex(featureCollection, attributeName, gcs);
+
+        List<Object> attributeValueList = coverageIndex.getAttributeValueList();
+        assertEquals(coverageByIndex.getAttributeValueList(), attributeValueList);
+
+        int coverageCount = 0;
+        int cellCount = coverageIndex.getCellCountX() * coverageIndex.getCellCountY();
+        for (int yxIndex = 0; yxIndex < cellCount; ++yxIndex) {
+            List<GridCellIndexCoverage> expected = coverageByIndex.getCoverageList(yxIndex);
+            int start = coverageIndex.getCoverageStart(yxIndex);
+            int end = coverageIndex.getCoverageEnd(yxIndex);
+            assertEquals(expected == null ? 0 : expected.size(), end - start);
+            for (int index = start; index < end; ++index) {
+                GridCellIndexCoverage c = expected.get(index - start);
+                assertEquals(c.attribute, attributeValueList.get(coverageIndex.getAttributeIndex(index)));
+                assertEquals(c.coverage, coverageIndex.getCoverage(index), 0d);
+            }
+            coverageCount += end - start;
+        }
+        assertEquals(coverageCount, coverageIndex.getCoverageCount());
+        assertTrue(coverageCount > 0);
+    }
+
+    @Test
+    public void testParallelCoverageMatchesSerial() throws IOException, InvalidRangeException, FactoryException, TransformException {
+        FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = getFeatureCollection(ncLocation);
+        GridCoordSystem gcs = ((GridDataset) dataset).findGridDatatype(variableName).getCoordinateSystem();
+
+        GridCellCoverageIndex serial =
+                GridCellCoverageFactory.generateFeatureAttributeCoverageIndex(featureCollection, attributeName, gcs, 1);
+        GridCellCoverageIndex parallel =
+                GridCellCoverageFactory.generateFeatureAttributeCoverageIndex(featureCollection, attributeName, gcs, 4);
+
+        assertEquals(serial.getAttributeValueList(), parallel.getAttributeValueList());
+        assertArrayEquals(serial.cellOffsets, parallel.cellOffsets);
+        assertArrayEquals(serial.attributeIndices, parallel.attributeIndices);
+        assertArrayEquals(serial.coverages, parallel.coverages, 0d);
+
+        GridCellCoverageByIndex serialByIndex =
+                GridCellCoverageFactory.generateFeatureAttributeCoverageByIndex(featureCollection, attributeName, gcs, 1);
+        GridCellCoverageByIndex parallelByIndex =
+                GridCellCoverageFactory.generateFeatureAttributeCoverageByIndex(featureCollection, attributeName, gcs, 4);
+        assertEquals(serialByIndex.getAttributeValueList(), parallelByIndex.getAttributeValueList());
+        int cellCount = serial.getCellCountX() * serial.getCellCountY();
+        for (int yxIndex = 0; yxIndex < cellCount; ++yxIndex) {
+            List<GridCellIndexCoverage> expected = serialByIndex.getCoverageList(yxIndex);
+            List<GridCellIndexCoverage> actual = parallelByIndex.getCoverageList(yxIndex);
+            assertEquals(expected == null, actual == null);
+            if (expected != null) {
+                assertEquals(expected.size(), actual.size());
+                for (int index = 0; index < expected.size(); ++index) {
+                    assertEquals(expected.get(index).attribute, actual.get(index).attribute);
+                    assertEquals(expected.get(index).coverage, actual.get(index).coverage, 0d);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCoverageIndexDiskCacheRoundTrip() throws IOException, InvalidRangeException, FactoryException, TransformException {
+        FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = getFeatureCollection(ncLocation);
+        GridCoordSystem gcs = ((GridDataset) dataset).findGridDatatype(variableName).getCoordinateSystem();
+
+        File cacheDirectory = Files.createTempDirectory("coverage").toFile();
+        try {
+            GridCellCoverageDiskCache diskCache = new GridCellCoverageDiskCache(cacheDirectory, Long.MAX_VALUE);
+            String key = GridCellCoverageDiskCache.generateKey(
+                    GridCellCoverageDiskCache.digestFeatures(featureCollection, attributeName),
+                    new GridCellGeometryKey(gcs));
+            assertNull(diskCache.get(key));
+
+            GridCellCoverageIndex expected =
+                    new GridCellCoverageIndexCache(featureCollection, attributeName, diskCache).getCoverageIndex(gcs);
+            GridCellCoverageIndex actual = diskCache.get(key);
+            assertNotNull(actual);
+            assertEquals(expected.getAttributeValueList(), actual.getAttributeValueList());
+            assertEquals(expected.getCellCountX(), actual.getCellCountX());
+            assertEquals(expected.getCellCountY(), actual.getCellCountY());
+            assertArrayEquals(expected.cellOffsets, actual.cellOffsets);
+            assertArrayEquals(expected.attributeIndices, actual.attributeIndices);
+            assertArrayEquals(expected.coverages, actual.coverages, 0d);
+
+            // entries claiming more data than the file holds are removed, not allocated
+            File entry = new File(cacheDirectory, key + ".coverage");
+            byte[] magicAndVersion = Arrays.copyOf(Files.readAllBytes(entry.toPath()), 8);
+            DataOutputStream corrupt = new DataOutputStream(new FileOutputStream(entry));
+            try {
+                corrupt.write(magicAndVersion);
+                corrupt.writeInt(Integer.MAX_VALUE);
+                corrupt.writeInt(Integer.MAX_VALUE);
+                corrupt.writeInt(Integer.MAX_VALUE);
+                corrupt.writeInt(0);
+            } finally {
+                corrupt.close();
+            }
+            assertNull(diskCache.get(key));
+            assertTrue(!entry.exists());
+            diskCache.put(key, expected);
+            assertNotNull(diskCache.get(key));
+
+            // a cache too small for any entry is emptied on eviction
+            new GridCellCoverageDiskCache(cacheDirectory, 1).evict();
+            assertNull(diskCache.get(key));
+        } finally {
+            FileUtils.deleteQuietly(cacheDirectory);
+        }
+    }
+
     private FeatureCollection<SimpleFeatureType, SimpleFeature> getFeatureCollection(String ncLocation) throws IOException {
         dataset = FeatureDatasetFactoryManager.open(FeatureType.GRID, ncLocation, null, new Formatter());
         dataStore = FileDataStoreFinder.getDataStore(new File(sfLocation));
@@ -1,12 +1,19 @@
 package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import java.io.File;
 
 import java.io.IOException;
 import java.util.Formatter;
 
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Before;
 import org.junit.Test;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
 
 import ucar.nc2.constants.FeatureType;
 import ucar.nc2.dt.GridCoordSystem;
@@ -18,6 +25,7 @@ import ucar.nc2.ft.FeatureDatasetFactoryManager;
 import static gov.usgs.cida.gdp.coreprocessing.GridCellHelper.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class GridCellGeometryTest {
@@ -92,6 +100,29 @@ public class GridCellGeometryTest {
 		assertNotNull("Geometry should not be null", gcg.getCellGeometry(0, 0));
 	}
 	
+	@Test
+	public void testPrecomputedTransformMatchesTransformedGeometry() throws IOException, FactoryException, TransformException {
+		String datasetUrl = getResourceDir() + File.separator + "testProjectedTYXGrid.ncml";
+		assignGridCellGeometryAndGridCoordSystem(datasetUrl);
+		MathTransform transform = CRS.findMathTransform(gcg.getGridCRS(), DefaultGeographicCRS.WGS84, true);
+		assertTrue(gcg.precomputeTransform(DefaultGeographicCRS.WGS84));
+		assertTrue(gcg.isTransformedTo(DefaultGeographicCRS.WGS84));
+		for (int yIndex = 0; yIndex < gcg.getCellCountY(); ++yIndex) {
+			for (int xIndex = 0; xIndex < gcg.getCellCountX(); ++xIndex) {
+				Coordinate[] expected = JTS.transform(gcg.getCellGeometry(xIndex, yIndex), transform).getCoordinates();
+				Coordinate[] actual = gcg.getTransformedCellGeometryQuick(xIndex, yIndex).getCoordinates();
+				assertEquals(expected.length, actual.length);
+				for (int index = 0; index < expected.length; ++index) {
+					assertEquals(expected[index].x, actual[index].x, 1e-9);
+					assertEquals(expected[index].y, actual[index].y, 1e-9);
+				}
+				assertEquals(
+						gcg.getTransformedCellGeometryQuick(xIndex, yIndex).getEnvelopeInternal(),
+						gcg.getTransformedCellEnvelopeQuick(xIndex, yIndex));
+			}
+		}
+	}
+
 	private void assignGridCellGeometryAndGridCoordSystem(String datasetUrl) throws IOException {
 		FeatureDataset fd = FeatureDatasetFactoryManager.open(FeatureType.GRID, datasetUrl, null, new Formatter(System.err));
 		if (fd == null) fail("Feature dataset didn't return anything");
@@ -0,0 +1,112 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import static gov.usgs.cida.gdp.coreprocessing.GridCellHelper.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.nc2.dt.GridDatatype;
+import ucar.nc2.dt.grid.GridDataset;
+import ucar.nc2.ft.FeatureDatasetFactoryManager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultiTimestepReaderTest {
+
+	private GridDataset dataset;
+
+	@Before
+	public void setUp() throws IOException {
+		String datasetUrl = getResourceDir() + File.separator + "testSimpleTZYXGrid.ncml";
+		dataset = (GridDataset) FeatureDatasetFactoryManager.open(null, datasetUrl, null, new Formatter(System.err));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (dataset != null) {
+			dataset.close();
+		}
+	}
+
+	@Test
+	public void testReadAheadMatchesDirectRead() throws IOException {
+		GridDatatype gdt = dataset.findGridDatatype(GridTypeTest.DATATYPE_RH);
+		for (int splitSize = 1; splitSize <= T_SIZE; ++splitSize) {
+			for (int readAheadDepth = 0; readAheadDepth <= 2; ++readAheadDepth) {
+				assertReaderMatchesDirectRead(gdt, new MultiTimestepReader(gdt, splitSize, readAheadDepth, 0));
+			}
+		}
+	}
+
+	@Test
+	public void testAdaptiveSplitSizeMatchesDirectRead() throws IOException {
+		GridDatatype gdt = dataset.findGridDatatype(GridTypeTest.DATATYPE_RH);
+		// any split size chosen must return the same data
+		for (int readAheadDepth = 0; readAheadDepth <= 1; ++readAheadDepth) {
+			MultiTimestepReader reader = new MultiTimestepReader(gdt, T_SIZE, readAheadDepth, 1);
+			assertReaderMatchesDirectRead(gdt, reader);
+			assertTrue(reader.getSplitSize() >= 1 && reader.getSplitSize() <= T_SIZE);
+		}
+	}
+
+	@Test
+	public void testFailedReadsShrinkSplitSizeThenRecover() throws IOException {
+		GridDatatype gdt = dataset.findGridDatatype(GridTypeTest.DATATYPE_RH);
+		for (int readAheadDepth = 0; readAheadDepth <= 1; ++readAheadDepth) {
+			final AtomicInteger failures = new AtomicInteger(2);
+			final List<Integer> requested = Collections.synchronizedList(new ArrayList<Integer>());
+			// no target latency, split size only changes on failure
+			MultiTimestepReader reader = new MultiTimestepReader(gdt, T_SIZE, readAheadDepth, 0) {
+				@Override
+				Array readChunk(int tStart, int tEnd) throws IOException {
+					requested.add(tEnd - tStart);
+					if (failures.getAndDecrement() > 0) {
+						throw new IOException("server unavailable");
+					}
+					return super.readChunk(tStart, tEnd);
+				}
+			};
+			reader.retryBackoffMillis = 0;
+			assertReaderMatchesDirectRead(gdt, reader);
+			// halved on each failure, back to full size after reads succeed
+			assertEquals(Arrays.asList(T_SIZE, 1, 1, 1, T_SIZE), requested);
+			assertEquals(T_SIZE, reader.getSplitSize());
+		}
+	}
+
+	private void assertReaderMatchesDirectRead(GridDatatype gdt, MultiTimestepReader reader) throws IOException {
+		try {
+			for (int tIndex = 0; tIndex < T_SIZE; ++tIndex) {
+				for (int zIndex = 0; zIndex < Z_SIZE; ++zIndex) {
+					assertSliceEquals(
+							gdt.readDataSlice(tIndex, zIndex, -1, -1),
+							reader.readDataSlice(tIndex, zIndex));
+				}
+			}
+			// out of order access falls back to a new request
+			assertSliceEquals(
+					gdt.readDataSlice(0, 0, -1, -1),
+					reader.readDataSlice(0, 0));
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void assertSliceEquals(Array expected, Array actual) {
+		assertArrayEquals(expected.getShape(), actual.getShape());
+		assertArrayEquals(
+				(float[]) expected.get1DJavaArray(float.class),
+				(float[]) actual.get1DJavaArray(float.class),
+				0f);
+	}
+}
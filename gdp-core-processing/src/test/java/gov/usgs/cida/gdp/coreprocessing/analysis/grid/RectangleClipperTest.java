@@ -0,0 +1,48 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.grid;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RectangleClipperTest {
+
+	private final static double TOLERANCE = 1e-12;
+
+	private final static String[] GEOMETRIES = new String[] {
+		"POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))",
+		// concave
+		"POLYGON ((0 0, 10 0, 10 10, 5 2, 0 10, 0 0))",
+		// hole
+		"POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 2 8, 8 8, 8 2, 2 2))",
+		"MULTIPOLYGON (((0 0, 4 0, 4 4, 0 4, 0 0)), ((6 6, 10 6, 10 10, 6 10, 6 6)))",
+		"POLYGON ((-3 1.5, 7.25 -2, 12 4.75, 3.5 12, 1 6, -3 1.5))",
+	};
+
+	private final static Envelope[] RECTANGLES = new Envelope[] {
+		new Envelope(-1, 11, -1, 11),
+		new Envelope(1, 3, 1, 3),
+		new Envelope(3, 7, 4, 6),
+		new Envelope(4.5, 5.5, -0.5, 12),
+		new Envelope(9, 14, 9, 14),
+		new Envelope(20, 21, 20, 21),
+	};
+
+	@Test
+	public void testIntersectionAreaMatchesJTS() throws ParseException {
+		GeometryFactory geometryFactory = new GeometryFactory();
+		WKTReader reader = new WKTReader(geometryFactory);
+		RectangleClipper clipper = new RectangleClipper();
+		for (String wkt : GEOMETRIES) {
+			Geometry geometry = reader.read(wkt);
+			for (Envelope rectangle : RECTANGLES) {
+				double expected = geometry.intersection(geometryFactory.toGeometry(rectangle)).getArea();
+				assertEquals(wkt + " clipped to " + rectangle, expected, clipper.intersectionArea(geometry, rectangle), TOLERANCE);
+			}
+		}
+	}
+}
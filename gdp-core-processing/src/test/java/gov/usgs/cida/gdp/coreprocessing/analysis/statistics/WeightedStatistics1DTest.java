@@ -1,5 +1,8 @@
 package gov.usgs.cida.gdp.coreprocessing.analysis.statistics;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -76,6 +79,64 @@ public class WeightedStatistics1DTest {
         validateMultipleSampleCountOfSameValue(Double.MIN_VALUE, 4);
     }
     
+    @Test
+    public void testMergeMatchesSerialAccumulation() {
+        // property: splitting samples into any number of partitions and
+        // merging the partitions in any order matches serial accumulation
+        Random random = new Random(0x5eed);
+        for (int trial = 0; trial < 500; ++trial) {
+            int sampleCount = random.nextInt(200);
+            double offset = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(7));
+            double scale = Math.pow(10, random.nextInt(7) - 3);
+            double[] values = new double[sampleCount];
+            double[] weights = new double[sampleCount];
+            for (int index = 0; index < sampleCount; ++index) {
+                values[index] = random.nextInt(20) == 0 ? Double.NaN : offset + random.nextGaussian() * scale;
+                weights[index] = random.nextInt(20) == 0 ? 0 : random.nextDouble();
+            }
+
+            WeightedStatistics1D serial = new WeightedStatistics1D();
+            for (int index = 0; index < sampleCount; ++index) {
+                serial.accumulate(values[index], weights[index]);
+            }
+
+            List<WeightedStatistics1D> partitions = new ArrayList<WeightedStatistics1D>();
+            int partitionCount = 1 + random.nextInt(8);
+            int start = 0;
+            for (int partition = 0; partition < partitionCount; ++partition) {
+                int end = partition == partitionCount - 1 ? sampleCount : start + random.nextInt(sampleCount - start + 1);
+                WeightedStatistics1D statistics = new WeightedStatistics1D();
+                for (int index = start; index < end; ++index) {
+                    statistics.accumulate(values[index], weights[index]);
+                }
+                partitions.add(statistics);
+                start = end;
+            }
+            while (partitions.size() > 1) {
+                WeightedStatistics1D merged = partitions.remove(random.nextInt(partitions.size()));
+                partitions.get(random.nextInt(partitions.size())).accumulate(merged);
+            }
+            WeightedStatistics1D merged = partitions.get(0);
+
+            double tolerance = 1e-9 * (Math.abs(offset) + scale);
+            assertEquals(serial.getCount(), merged.getCount());
+            assertEquals(serial.getSum(), merged.getSum(), 1e-9 * sampleCount);
+            assertEqualsOrNaN(serial.getMean(), merged.getMean(), tolerance);
+            assertEqualsOrNaN(serial.getMinimum(), merged.getMinimum(), 0d);
+            assertEqualsOrNaN(serial.getMaximum(), merged.getMaximum(), 0d);
+            assertEqualsOrNaN(serial.getPopulationVariance(), merged.getPopulationVariance(), 1e-6 * scale * scale);
+            assertEqualsOrNaN(serial.getSampleVariance(), merged.getSampleVariance(), 1e-6 * scale * scale);
+        }
+    }
+
+    private void assertEqualsOrNaN(double expected, double actual, double delta) {
+        if (Double.isNaN(expected)) {
+            assertTrue(Double.isNaN(actual));
+        } else {
+            assertEquals(expected, actual, delta);
+        }
+    }
+
     private void validateSampleCountOfOne(double sample) {
         WeightedStatistics1D statistics = new WeightedStatistics1D();
         statistics.accumulate(sample, 1);
@@ -0,0 +1,63 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.timeseries;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+public class ObservationStoreTest {
+
+	private static final DateTime START = new DateTime(2004, 1, 1, 0, 0, DateTimeZone.UTC);
+
+	@Test
+	public void testColumnAlignedToTimeAxis() {
+		ObservationStore store = new ObservationStore();
+		store.put("a", collection(observation(0, "1.5"), observation(1, "2.5"), observation(2, "3.5")));
+		store.put("b", collection(observation(1, "20"), observation(3, "40")));
+
+		store.setTimeAxis(store.getSeries("a").getTimes());
+		assertThat(store.getSeries("a").getUnits(), is(equalTo("mm")));
+		assertThat(store.getColumn("a"), is(equalTo(new double[] { 1.5, 2.5, 3.5 })));
+		assertThat(store.getColumn("b"), is(equalTo(new double[] { Double.NaN, 20, Double.NaN })));
+		assertThat(store.getColumn("c"), is(nullValue()));
+	}
+
+	@Test
+	public void testUnsortedObservationsKeepFirstValue() {
+		ObservationStore store = new ObservationStore();
+		store.put("a", collection(observation(2, "3"), observation(0, "1"), observation(2, "4"), observation(1, "bad")));
+
+		long[] times = store.getSeries("a").getTimes();
+		assertThat(times.length, is(equalTo(3)));
+		assertThat(times[0], is(equalTo(START.getMillis())));
+		store.setTimeAxis(times);
+		assertThat(store.getColumn("a"), is(equalTo(new double[] { 1, Double.NaN, 3 })));
+	}
+
+	private static Observation observation(int day, String value) {
+		return new Observation()
+				.metadata(new ObservationMetadata().defaultUnits("mm"))
+				.time(START.plusDays(day))
+				.value(value);
+	}
+
+	private static ObservationCollection collection(Observation... observations) {
+		final Iterator<Observation> iterator = Arrays.asList(observations).iterator();
+		return new ObservationCollection(null, new TimeseriesParser() {
+			@Override
+			public void setInputStream(InputStream stream) {
+			}
+
+			@Override
+			public Observation parseNextObservation() {
+				return iterator.hasNext() ? iterator.next() : null;
+			}
+		});
+	}
+}
@@ -0,0 +1,173 @@
+package gov.usgs.cida.gdp.coreprocessing.analysis.timeseries;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import gov.usgs.cida.gdp.constants.AppConstant;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Fetches from a stub SOS on localhost, each server is a new host so gets its
+ * own connection limit.
+ */
+public class TimeseriesDatasetTest {
+
+	private static final String FAILING_STATION = "failing";
+	private static final long RESPONSE_DELAY_MILLIS = 200;
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		serverExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(serverExecutor);
+		server.createContext("/sos", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				int concurrent = active.incrementAndGet();
+				try {
+					int max = maxActive.get();
+					while (concurrent > max && !maxActive.compareAndSet(max, concurrent)) {
+						max = maxActive.get();
+					}
+					Thread.sleep(RESPONSE_DELAY_MILLIS);
+					String offering = getOffering(exchange.getRequestURI().getRawQuery());
+					requests.putIfAbsent(offering, new AtomicInteger());
+					requests.get(offering).incrementAndGet();
+					if (FAILING_STATION.equals(offering)) {
+						exchange.sendResponseHeaders(500, -1);
+					} else {
+						byte[] body = observations(offering).getBytes(StandardCharsets.UTF_8);
+						exchange.sendResponseHeaders(200, body.length);
+						try (OutputStream out = exchange.getResponseBody()) {
+							out.write(body);
+						}
+					}
+				} catch (InterruptedException ex) {
+					exchange.sendResponseHeaders(503, -1);
+				} finally {
+					active.decrementAndGet();
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testFetchRespectsHostConnections() throws Exception {
+		int hostConnections = Integer.parseInt(AppConstant.TIMESERIES_FETCH_HOST_CONNECTIONS.getValue());
+		List<String> stations = new ArrayList<>();
+		for (int i = 0; i < hostConnections * 3; ++i) {
+			stations.add(Integer.toString(i));
+		}
+
+		try (TimeseriesDataset dataset = dataset()) {
+			dataset.fetch(stations);
+			dataset.populateMetadata(stations.get(0));
+			for (String station : stations) {
+				assertThat(dataset.getColumn(station), is(equalTo(column(station))));
+			}
+		}
+		assertThat(maxActive.get(), is(lessThanOrEqualTo(hostConnections)));
+		assertThat(maxActive.get(), is(greaterThan(1)));
+		for (String station : stations) {
+			assertThat(requests.get(station).get(), is(equalTo(1)));
+		}
+	}
+
+	@Test
+	public void testFailedStationDoesNotAbortFetch() throws Exception {
+		List<String> stations = new ArrayList<>();
+		stations.add("1");
+		stations.add(FAILING_STATION);
+		stations.add("2");
+		stations.add("3");
+
+		try (TimeseriesDataset dataset = dataset()) {
+			dataset.fetch(stations);
+			dataset.populateMetadata("1");
+			for (String station : new String[] { "1", "2", "3" }) {
+				assertThat(dataset.getColumn(station), is(equalTo(column(station))));
+				assertThat(requests.get(station).get(), is(equalTo(1)));
+			}
+			assertThat(requests.get(FAILING_STATION).get(), is(equalTo(1)));
+			try {
+				dataset.getColumn(FAILING_STATION);
+				fail("Expected failed station to fail when used");
+			} catch (RuntimeException expected) {
+				// fetched again when used
+				assertThat(requests.get(FAILING_STATION).get(), is(equalTo(2)));
+			}
+		}
+	}
+
+	private TimeseriesDataset dataset() {
+		URI endpoint = URI.create("http://localhost:" + server.getAddress().getPort() + "/sos");
+		return new TimeseriesDataset(endpoint, "prcp",
+				new DateTime(2004, 1, 1, 0, 0, DateTimeZone.UTC),
+				new DateTime(2004, 1, 4, 0, 0, DateTimeZone.UTC));
+	}
+
+	private static String getOffering(String query) throws IOException {
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith("offering=")) {
+				return URLDecoder.decode(parameter.substring("offering=".length()), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static double[] column(String station) {
+		double value = Double.parseDouble(station);
+		return new double[] { value, value + 0.5, value + 1 };
+	}
+
+	private static String observations(String station) {
+		double[] column = column(station);
+		return "<om:ObservationCollection xmlns:om=\"http://www.opengis.net/om/1.0\" xmlns:swe=\"http://www.opengis.net/swe/1.0.1\">"
+				+ "<om:member><om:Observation><om:result><swe:DataArray>"
+				+ "<swe:elementType><swe:DataRecord>"
+				+ "<swe:field name=\"time\"/>"
+				+ "<swe:field name=\"prcp\"><swe:Quantity><swe:uom code=\"mm\"/></swe:Quantity></swe:field>"
+				+ "</swe:DataRecord></swe:elementType>"
+				+ "<swe:encoding><swe:TextBlock blockSeparator=\";\" tokenSeparator=\",\" decimalSeparator=\".\"/></swe:encoding>"
+				+ "<swe:values>"
+				+ "2004-01-01T00:00:00.000Z," + column[0] + ";"
+				+ "2004-01-02T00:00:00.000Z," + column[1] + ";"
+				+ "2004-01-03T00:00:00.000Z," + column[2]
+				+ "</swe:values>"
+				+ "</swe:DataArray></om:result></om:Observation></om:member></om:ObservationCollection>";
+	}
+}
@@ -0,0 +1,8 @@
+--liquibase formatted sql
+
+--changeset gdp:11indexResponseRequestId
+-- status polls look up the response and its outputs by request id on every poll
+CREATE INDEX response_request_id_idx ON response (REQUEST_ID);
+CREATE INDEX output_output_id_idx ON output (OUTPUT_ID);
+CREATE INDEX output_response_id_idx ON output (RESPONSE_ID);
+--rollback drop index output_response_id_idx; drop index output_output_id_idx; drop index response_request_id_idx;
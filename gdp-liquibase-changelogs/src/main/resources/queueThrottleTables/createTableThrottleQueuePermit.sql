@@ -0,0 +1,24 @@
+--liquibase formatted sql
+
+--changeset gdp:9createThrottleQueuePermit
+-- DATA_SOURCE is a DATASET_URI, a host name, or '*' for any other dataset
+-- PERMITS is how many requests (of weight one) may use the data source at once
+-- PERMIT_SIZE is the estimated bytes read that count as one permit, null counts every request as one
+CREATE TABLE throttle_queue_permit (
+	ID serial NOT NULL PRIMARY KEY,
+	DATA_SOURCE VARCHAR(500),
+	PERMITS INTEGER,
+	PERMIT_SIZE BIGINT)
+--rollback drop table throttle_queue_permit;
+
+--changeset gdp:2insertPermitData
+INSERT INTO throttle_queue_permit (data_source, permits, permit_size) VALUES ('*', 1, NULL);
+
+--changeset gdp:10addThrottleQueueEstimatedSize
+ALTER TABLE throttle_queue ADD COLUMN ESTIMATED_SIZE BIGINT;
+--rollback alter table throttle_queue drop column estimated_size;
+
+--changeset gdp:11addThrottleQueueOwnerNode
+-- OWNER_NODE is the gdp.queue.node.name of the node that dispatched the request
+ALTER TABLE throttle_queue ADD COLUMN OWNER_NODE VARCHAR(255);
+--rollback alter table throttle_queue drop column owner_node;
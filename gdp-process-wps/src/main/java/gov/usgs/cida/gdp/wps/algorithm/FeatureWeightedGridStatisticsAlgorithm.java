@@ -32,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.coreprocessing.Delimiter;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.FeatureCoverageWeightedGridStatistics;
+import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellCoverageIndexCache;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.GridCellVisitor;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.Statistics1DWriter.GroupBy;
 import gov.usgs.cida.gdp.coreprocessing.analysis.grid.WeightedStatistic;
@@ -229,6 +230,11 @@ public class FeatureWeightedGridStatisticsAlgorithm extends AbstractAnnotatedAlg
 
 			List<GridCellVisitor> heuristics = setupHeuristics(cos);
 			
+			// variables on the same grid share feature coverage
+			GridCellCoverageIndexCache coverageIndexCache =
+					new GridCellCoverageIndexCache(featureCollection, featureAttributeName);
+			int parallelism = Integer.parseInt(AppConstant.TRAVERSAL_PARALLELISM.getValue());
+			
 			for (String currentDatasetId : datasetId) {
 				GridDatatype gridDatatype = GDPAlgorithmUtil.generateGridDataType(
 						datasetURI,
@@ -244,8 +250,7 @@ public class FeatureWeightedGridStatisticsAlgorithm extends AbstractAnnotatedAlg
 				writer.write("# " + currentDatasetId);
 				writer.write("\n");
 				FeatureCoverageWeightedGridStatistics.execute(
-						featureCollection,
-						featureAttributeName,
+						coverageIndexCache,
 						gridDatatype.makeSubset(null, null, timeRange, null, null, null),
 						heuristics,
 						statistics == null || statistics.isEmpty() ? Arrays.asList(WeightedStatistic.values()) : statistics,
@@ -254,7 +259,12 @@ public class FeatureWeightedGridStatisticsAlgorithm extends AbstractAnnotatedAlg
 						delimiter == null ? Delimiter.getDefault() : delimiter,
 						requireFullCoverage,
 						summarizeTimeStep,
-						summarizeFeatureAttribute);
+						summarizeFeatureAttribute,
+						parallelism);
+			}
+			if (coverageIndexCache.getHitCount() > 0) {
+				log.info("Reused feature coverage for {} of {} variables, saved {} ms",
+						new Object[] {coverageIndexCache.getHitCount(), datasetId.size(), coverageIndexCache.getSavedMillis()});
 			}
 		} catch (InvalidRangeException e) {
 			addError("Error subsetting gridded data: " + e.getMessage());
@@ -149,6 +149,17 @@ public abstract class GDPAlgorithmUtil {
             FeatureCollection featureCollection,
             Date dateTimeStart, Date dateTimeEnd,
             boolean requireFullCoverage) {
+        return calculateDataCube(gridDatatype, featureCollection.getBounds(), dateTimeStart, dateTimeEnd, requireFullCoverage);
+    }
+
+    /**
+     * @param featureBounds bounds to subset x and y by, null for the full
+     * extent of the grid (as when the features are not yet known)
+     */
+    public static DataCube calculateDataCube(GridDatatype gridDatatype,
+            ReferencedEnvelope featureBounds,
+            Date dateTimeStart, Date dateTimeEnd,
+            boolean requireFullCoverage) {
 
         GridDatatype subset = null;
         Range timeRange = null;
@@ -157,10 +168,15 @@ public abstract class GDPAlgorithmUtil {
 
         try {
             timeRange = GDPAlgorithmUtil.generateTimeRange(gridDatatype, dateTimeStart, dateTimeEnd);
-            GridCoordSystem gridCoordSystem = gridDatatype.getCoordinateSystem();
-            Range[] xyRanges = GridUtility.getXYRangesFromBoundingBox(featureCollection.getBounds(), gridCoordSystem, requireFullCoverage);
-            yRange = new Range(xyRanges[1].first(), xyRanges[1].last());
-            xRange = new Range(xyRanges[0].first(), xyRanges[0].last());
+            if (featureBounds == null) {
+                yRange = new Range(0, gridDatatype.getYDimension().getLength() - 1);
+                xRange = new Range(0, gridDatatype.getXDimension().getLength() - 1);
+            } else {
+                GridCoordSystem gridCoordSystem = gridDatatype.getCoordinateSystem();
+                Range[] xyRanges = GridUtility.getXYRangesFromBoundingBox(featureBounds, gridCoordSystem, requireFullCoverage);
+                yRange = new Range(xyRanges[1].first(), xyRanges[1].last());
+                xRange = new Range(xyRanges[0].first(), xyRanges[0].last());
+            }
             subset = gridDatatype.makeSubset(null, null, timeRange, null, yRange, xRange);
         } catch (TransformException | FactoryException | InvalidRangeException e) {
             log.debug("User specified invalid request", e);
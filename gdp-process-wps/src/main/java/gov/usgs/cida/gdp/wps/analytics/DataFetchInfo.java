@@ -14,10 +14,13 @@ import org.slf4j.LoggerFactory;
  * 
  * @author jiwalker
  */
-public class DataFetchInfo implements IMetadataLogger {
+public class DataFetchInfo implements IBatchMetadataLogger {
 	
 	private static final Logger log = LoggerFactory.getLogger(DataFetchInfo.class);
 	private static final ConnectionHandler connectionHandler = DatabaseUtil.getJNDIConnectionHandler();
+	private static final String STATEMENT = "INSERT INTO request_metadata (ID, REQUEST_ID, TIMESTEPS, GRIDCELLS, VARCOUNT, CELLSIZE_BYTES, BOUNDING_RECT, DATA_RETRIEVED)"
+			+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (REQUEST_ID) DO UPDATE SET TIMESTEPS = ?, GRIDCELLS = ?, VARCOUNT = ?, "
+			+ " CELLSIZE_BYTES = ?, BOUNDING_RECT = ?, DATA_RETRIEVED = ?";
 	
 	private long fetchSize;
 	private long gridCells;
@@ -38,31 +41,37 @@ public class DataFetchInfo implements IMetadataLogger {
 	@Override
 	public void log(String requestId) {
 		log.debug("Inserting data info for: {}", requestId);
-		try (Connection connection = connectionHandler.getConnection()) {
-			UUID pkey = UUID.randomUUID();
-			PreparedStatement prepared = connection.prepareStatement(
-					"INSERT INTO request_metadata (ID, REQUEST_ID, TIMESTEPS, GRIDCELLS, VARCOUNT, CELLSIZE_BYTES, BOUNDING_RECT, DATA_RETRIEVED)"
-							+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (REQUEST_ID) DO UPDATE SET TIMESTEPS = ?, GRIDCELLS = ?, VARCOUNT = ?, "
-							+ " CELLSIZE_BYTES = ?, BOUNDING_RECT = ?, DATA_RETRIEVED = ?");
-			prepared.setString(1, pkey.toString());
-			prepared.setString(2, requestId);
-			prepared.setInt(3, timesteps);
-			prepared.setLong(4, gridCells);
-			prepared.setInt(5, numVars);
-			prepared.setInt(6, cellSize);
-			prepared.setString(7, boundingRect);
-			prepared.setLong(8, fetchSize);
-			prepared.setInt(9, timesteps);
-			prepared.setLong(10, gridCells);
-			prepared.setInt(11, numVars);
-			prepared.setInt(12, cellSize);
-			prepared.setString(13, boundingRect);
-			prepared.setLong(14, fetchSize);
-			
+		try (Connection connection = connectionHandler.getConnection();
+				PreparedStatement prepared = connection.prepareStatement(STATEMENT)) {
+			setParameters(prepared, requestId);
 			prepared.execute();
 		} catch (SQLException ex) {
 			log.debug("Problem logging fetch info", ex);
 		}
 	}
 	
+	@Override
+	public String getStatement() {
+		return STATEMENT;
+	}
+	
+	@Override
+	public void setParameters(PreparedStatement prepared, String requestId) throws SQLException {
+		UUID pkey = UUID.randomUUID();
+		prepared.setString(1, pkey.toString());
+		prepared.setString(2, requestId);
+		prepared.setInt(3, timesteps);
+		prepared.setLong(4, gridCells);
+		prepared.setInt(5, numVars);
+		prepared.setInt(6, cellSize);
+		prepared.setString(7, boundingRect);
+		prepared.setLong(8, fetchSize);
+		prepared.setInt(9, timesteps);
+		prepared.setLong(10, gridCells);
+		prepared.setInt(11, numVars);
+		prepared.setInt(12, cellSize);
+		prepared.setString(13, boundingRect);
+		prepared.setLong(14, fetchSize);
+	}
+	
 }
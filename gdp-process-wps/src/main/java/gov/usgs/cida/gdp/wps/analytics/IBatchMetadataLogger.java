@@ -0,0 +1,23 @@
+package gov.usgs.cida.gdp.wps.analytics;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Metadata logger that can be written in a JDBC batch along with the other
+ * loggers of its type.
+ */
+public interface IBatchMetadataLogger extends IMetadataLogger {
+	
+	/**
+	 * @return statement shared by every logger of this type
+	 */
+	public String getStatement();
+	
+	/**
+	 * @param statement prepared from {@link #getStatement()}
+	 * @param requestId request the metadata belongs to
+	 * @throws SQLException 
+	 */
+	public void setParameters(PreparedStatement statement, String requestId) throws SQLException;
+}
@@ -0,0 +1,315 @@
+package gov.usgs.cida.gdp.wps.analytics;
+
+import gov.usgs.cida.gdp.constants.AppConstant;
+import gov.usgs.cida.gdp.wps.util.DatabaseUtil;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.n52.wps.server.database.connection.ConnectionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded buffer of pending metadata updates, written by a single thread.
+ *
+ * Updates of the same type for the same request are coalesced, only the
+ * latest one is written. Pending updates are written once BATCH_SIZE of them
+ * are waiting or every flush interval, batchable ones as one JDBC batch per
+ * statement on a single connection. When the buffer is full a new update
+ * waits briefly for room and is then dropped, the metadata isn't worth
+ * holding up processing for.
+ */
+public class MetadataLogSink implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(MetadataLogSink.class);
+
+	static final int BATCH_SIZE = 100;
+	static final long OFFER_WAIT_MILLIS = 50;
+	private static final long DROP_WARNING_INTERVAL = 1000;
+
+	private static MetadataLogSink instance = null;
+
+	private final int capacity;
+	private final int batchSize;
+	private final long flushNanos;
+	private final long offerWaitNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition flushWanted = lock.newCondition();
+	private final Map<String, PendingLog> pending = new LinkedHashMap<>();
+	private boolean running = true;
+	private Thread writer = null;
+	private ConnectionHandler connectionHandler = null;
+
+	private final AtomicLong offered = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	MetadataLogSink(int capacity, int batchSize, long flushMillis, long offerWaitMillis) {
+		this.capacity = Math.max(1, capacity);
+		this.batchSize = Math.max(1, Math.min(batchSize, this.capacity));
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+		this.offerWaitNanos = TimeUnit.MILLISECONDS.toNanos(offerWaitMillis);
+	}
+
+	public static synchronized MetadataLogSink getInstance() {
+		if (instance == null) {
+			instance = new MetadataLogSink(
+					Integer.parseInt(AppConstant.ANALYTICS_BUFFER_SIZE.getValue()), BATCH_SIZE,
+					Long.parseLong(AppConstant.ANALYTICS_FLUSH_MILLIS.getValue()), OFFER_WAIT_MILLIS);
+			instance.start();
+		}
+		return instance;
+	}
+
+	/**
+	 * Stops the sink if it was ever started.
+	 *
+	 * @param timeoutMillis how long to wait for pending updates to be written
+	 * @return number of updates that could not be written in time
+	 */
+	public static synchronized int shutdownInstance(long timeoutMillis) {
+		int notWritten = 0;
+		if (instance != null) {
+			notWritten = instance.shutdown(timeoutMillis);
+		}
+		return notWritten;
+	}
+
+	synchronized void start() {
+		if (writer == null) {
+			writer = new Thread(this, MetadataLogSink.class.getSimpleName());
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Queues a metadata update to be written.
+	 *
+	 * @param requestId request the metadata belongs to
+	 * @param logger update to write
+	 * @return false if the update was dropped
+	 */
+	public boolean offer(String requestId, IMetadataLogger logger) {
+		String key = requestId + " " + logger.getClass().getName();
+		offered.incrementAndGet();
+		lock.lock();
+		try {
+			if (running && pending.containsKey(key)) {
+				// keeps its place in line, only the latest value is written
+				pending.put(key, new PendingLog(requestId, logger));
+				coalesced.incrementAndGet();
+				return true;
+			}
+			long remaining = offerWaitNanos;
+			while (running && pending.size() >= capacity && remaining > 0) {
+				remaining = notFull.awaitNanos(remaining);
+			}
+			if (!running || pending.size() >= capacity) {
+				long count = dropped.incrementAndGet();
+				if (count % DROP_WARNING_INTERVAL == 1) {
+					log.warn("Metadata log buffer full or stopped, {} updates dropped so far", count);
+				}
+				return false;
+			}
+			pending.put(key, new PendingLog(requestId, logger));
+			if (pending.size() >= batchSize) {
+				flushWanted.signal();
+			}
+			return true;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			dropped.incrementAndGet();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		List<PendingLog> batch;
+		do {
+			batch = take();
+			if (!batch.isEmpty()) {
+				write(batch);
+			}
+		} while (!batch.isEmpty() || isRunning());
+	}
+
+	/**
+	 * Waits for a batch of updates or the flush interval, whichever comes first.
+	 *
+	 * @return updates to write, in the order they were first offered
+	 */
+	private List<PendingLog> take() {
+		lock.lock();
+		try {
+			long remaining = flushNanos;
+			while (running && pending.size() < batchSize && remaining > 0) {
+				remaining = flushWanted.awaitNanos(remaining);
+			}
+			List<PendingLog> batch = new ArrayList<>(pending.values());
+			pending.clear();
+			notFull.signalAll();
+			return batch;
+		} catch (InterruptedException ex) {
+			running = false;
+			return new ArrayList<>(0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the batchable updates as a JDBC batch per statement, and the
+	 * rest one at a time.
+	 *
+	 * @param batch updates to write
+	 */
+	void write(List<PendingLog> batch) {
+		Map<String, List<PendingLog>> statements = new LinkedHashMap<>();
+		for (PendingLog pendingLog : batch) {
+			if (pendingLog.logger instanceof IBatchMetadataLogger) {
+				String statement = ((IBatchMetadataLogger) pendingLog.logger).getStatement();
+				List<PendingLog> logs = statements.get(statement);
+				if (logs == null) {
+					logs = new ArrayList<>();
+					statements.put(statement, logs);
+				}
+				logs.add(pendingLog);
+			} else {
+				try {
+					pendingLog.logger.log(pendingLog.requestId);
+					written.incrementAndGet();
+				} catch (RuntimeException ex) {
+					failed.incrementAndGet();
+					log.debug("Problem logging metadata for " + pendingLog.requestId, ex);
+				}
+			}
+		}
+		if (!statements.isEmpty()) {
+			try (Connection connection = getConnectionHandler().getConnection()) {
+				for (Map.Entry<String, List<PendingLog>> entry : statements.entrySet()) {
+					try (PreparedStatement prepared = connection.prepareStatement(entry.getKey())) {
+						for (PendingLog pendingLog : entry.getValue()) {
+							((IBatchMetadataLogger) pendingLog.logger).setParameters(prepared, pendingLog.requestId);
+							prepared.addBatch();
+						}
+						prepared.executeBatch();
+						written.addAndGet(entry.getValue().size());
+					} catch (SQLException ex) {
+						failed.addAndGet(entry.getValue().size());
+						log.debug("Problem logging metadata batch", ex);
+					}
+				}
+			} catch (SQLException | RuntimeException ex) {
+				long count = 0;
+				for (List<PendingLog> logs : statements.values()) {
+					count += logs.size();
+				}
+				failed.addAndGet(count);
+				log.debug("Problem getting connection for metadata batch", ex);
+			}
+		}
+	}
+
+	private synchronized ConnectionHandler getConnectionHandler() {
+		if (connectionHandler == null) {
+			connectionHandler = DatabaseUtil.getJNDIConnectionHandler();
+		}
+		return connectionHandler;
+	}
+
+	/**
+	 * Stops taking updates and writes what is pending.
+	 *
+	 * @param timeoutMillis how long to wait for pending updates to be written
+	 * @return number of updates that could not be written in time
+	 */
+	int shutdown(long timeoutMillis) {
+		lock.lock();
+		try {
+			running = false;
+			flushWanted.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		Thread thread;
+		synchronized (this) {
+			thread = writer;
+		}
+		if (thread != null) {
+			try {
+				thread.join(Math.max(1, timeoutMillis));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		int notWritten;
+		lock.lock();
+		try {
+			notWritten = pending.size();
+			pending.clear();
+		} finally {
+			lock.unlock();
+		}
+		dropped.addAndGet(notWritten);
+		log.info("Metadata log sink stopped: {} offered, {} coalesced, {} written, {} failed, {} dropped",
+				new Object[] {offered.get(), coalesced.get(), written.get(), failed.get(), dropped.get()});
+		return notWritten;
+	}
+
+	private boolean isRunning() {
+		lock.lock();
+		try {
+			return running;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getOffered() {
+		return offered.get();
+	}
+
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getWritten() {
+		return written.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	static final class PendingLog {
+
+		final String requestId;
+		final IMetadataLogger logger;
+
+		PendingLog(String requestId, IMetadataLogger logger) {
+			this.requestId = requestId;
+			this.logger = logger;
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package gov.usgs.cida.gdp.wps.analytics;
 
-import java.util.List;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import org.slf4j.Logger;
@@ -13,6 +12,7 @@ import org.slf4j.LoggerFactory;
 public class MetadataWorkerServletListener implements ServletContextListener {
 	
 	private static final Logger log = LoggerFactory.getLogger(MetadataWorkerServletListener.class);
+	private static final long DRAIN_TIMEOUT_MILLIS = 10000;
 
 	@Override
 	public void contextInitialized(ServletContextEvent sce) {
@@ -21,9 +21,9 @@ public class MetadataWorkerServletListener implements ServletContextListener {
 
 	@Override
 	public void contextDestroyed(ServletContextEvent sce) {
-		List<MetadataLoggingWorker> notFinished = MetadataLoggingWorker.shutdownNow();
-		for (MetadataLoggingWorker worker : notFinished) {
-			log.debug("Unable to finish metadata log for: " + worker.toString());
+		int notFinished = MetadataLoggingWorker.shutdown(DRAIN_TIMEOUT_MILLIS);
+		if (notFinished > 0) {
+			log.debug("Unable to finish {} metadata logs", notFinished);
 		}
 	}
 	
@@ -14,10 +14,12 @@ import org.slf4j.LoggerFactory;
  * 
  * @author jiwalker
  */
-public class OutputInfo implements IMetadataLogger {
+public class OutputInfo implements IBatchMetadataLogger {
 	
 	private static final Logger log = LoggerFactory.getLogger(OutputInfo.class);
 	private static final ConnectionHandler connectionHandler = DatabaseUtil.getJNDIConnectionHandler();
+	private static final String STATEMENT = "INSERT INTO request_metadata (ID, REQUEST_ID, DATA_RETURNED)"
+			+ " VALUES (?, ?, ?) ON CONFLICT (REQUEST_ID) DO UPDATE SET DATA_RETURNED = ?";
 	
 	private long returnSize;
 	
@@ -28,20 +30,27 @@ public class OutputInfo implements IMetadataLogger {
 	@Override
 	public void log(String requestId) {
 		log.debug("Inserting data info for: {}", requestId);
-		try (Connection connection = connectionHandler.getConnection()) {
-			UUID pkey = UUID.randomUUID();
-			PreparedStatement prepared = connection.prepareStatement(
-					"INSERT INTO request_metadata (ID, REQUEST_ID, DATA_RETURNED)"
-							+ " VALUES (?, ?, ?) ON CONFLICT (REQUEST_ID) DO UPDATE SET DATA_RETURNED = ?");
-			prepared.setString(1, pkey.toString());
-			prepared.setString(2, requestId);
-			prepared.setLong(3, returnSize);
-			prepared.setLong(4, returnSize);
-			
+		try (Connection connection = connectionHandler.getConnection();
+				PreparedStatement prepared = connection.prepareStatement(STATEMENT)) {
+			setParameters(prepared, requestId);
 			prepared.execute();
 		} catch (SQLException ex) {
 			log.debug("Problem logging output info", ex);
 		}
 	}
 	
+	@Override
+	public String getStatement() {
+		return STATEMENT;
+	}
+	
+	@Override
+	public void setParameters(PreparedStatement prepared, String requestId) throws SQLException {
+		UUID pkey = UUID.randomUUID();
+		prepared.setString(1, pkey.toString());
+		prepared.setString(2, requestId);
+		prepared.setLong(3, returnSize);
+		prepared.setLong(4, returnSize);
+	}
+	
 }
@@ -13,10 +13,11 @@ import org.slf4j.LoggerFactory;
  * 
  * @author jiwalker
  */
-public class PercentCompleteInfo implements IMetadataLogger {
+public class PercentCompleteInfo implements IBatchMetadataLogger {
 	
 	private static final Logger log = LoggerFactory.getLogger(PercentCompleteInfo.class);
 	private static final ConnectionHandler connectionHandler = DatabaseUtil.getJNDIConnectionHandler();
+	private static final String STATEMENT = "UPDATE response SET percent_complete = ? WHERE request_id = ?";
 	
 	private final int percent;
 	
@@ -26,14 +27,24 @@ public class PercentCompleteInfo implements IMetadataLogger {
 	
 	@Override
 	public void log(String requestId) {
-		try (Connection connection = connectionHandler.getConnection()) {
-			PreparedStatement prepared = connection.prepareStatement("UPDATE response SET percent_complete = ? WHERE request_id = ?");
-			prepared.setInt(1, percent);
-			prepared.setString(2, requestId);
+		try (Connection connection = connectionHandler.getConnection();
+				PreparedStatement prepared = connection.prepareStatement(STATEMENT)) {
+			setParameters(prepared, requestId);
 			prepared.execute();
 		} catch (SQLException ex) {
 			log.debug("Problem logging user agent", ex);
 		}
 	}
+	
+	@Override
+	public String getStatement() {
+		return STATEMENT;
+	}
+	
+	@Override
+	public void setParameters(PreparedStatement prepared, String requestId) throws SQLException {
+		prepared.setInt(1, percent);
+		prepared.setString(2, requestId);
+	}
 
 }
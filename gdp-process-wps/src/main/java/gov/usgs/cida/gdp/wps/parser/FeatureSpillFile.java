@@ -0,0 +1,383 @@
+package gov.usgs.cida.gdp.wps.parser;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Features written once in a compact binary form so they can be read back
+ * many times without parsing GML. Each feature is a length prefixed record of
+ * its id followed by its attributes, each a type tag and value, geometries as
+ * WKB. The offset of each record is kept so features can also be read by
+ * index.
+ *
+ * Attribute types other than those GML parsing produces (strings, numbers,
+ * booleans, dates and geometries) are not supported, write fails with an
+ * IOException and the caller should fall back to parsing.
+ */
+final class FeatureSpillFile {
+
+	private static final int MAGIC = 0x47445046; // "GDPF"
+	private static final int VERSION = 2;
+	private static final int HEADER_LENGTH = 8;
+	private static final int BUFFER_SIZE = 16 << 10;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte FLOAT = 5;
+	private static final byte SHORT = 6;
+	private static final byte BYTE = 7;
+	private static final byte BOOLEAN = 8;
+	private static final byte BIG_DECIMAL = 9;
+	private static final byte BIG_INTEGER = 10;
+	private static final byte DATE = 11;
+	private static final byte SQL_DATE = 12;
+	private static final byte SQL_TIMESTAMP = 13;
+	private static final byte GEOMETRY = 14;
+
+	private final File file;
+	private DataOutputStream output;
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream record = new DataOutputStream(recordBuffer);
+	// SRID is kept in the WKB, the CRS is restored from the feature type
+	private final WKBWriter wkbWriter2D = new WKBWriter(2, true);
+	private final WKBWriter wkbWriter3D = new WKBWriter(3, true);
+	private long position;
+	private long[] offsets = new long[1024];
+	private int count;
+
+	FeatureSpillFile(File file) {
+		this.file = file;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return number of features written
+	 */
+	int size() {
+		return count;
+	}
+
+	void write(SimpleFeature feature) throws IOException {
+		if (output == null) {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			position = HEADER_LENGTH;
+		}
+		recordBuffer.reset();
+		String id = feature.getID();
+		record.writeBoolean(id != null);
+		if (id != null) {
+			writeString(record, id);
+		}
+		List<Object> attributes = feature.getAttributes();
+		record.writeInt(attributes.size());
+		for (Object attribute : attributes) {
+			writeAttribute(record, attribute);
+		}
+		record.flush();
+
+		if (count == offsets.length) {
+			offsets = Arrays.copyOf(offsets, count * 2);
+		}
+		offsets[count++] = position;
+		output.writeInt(recordBuffer.size());
+		recordBuffer.writeTo(output);
+		position += 4 + recordBuffer.size();
+	}
+
+	/**
+	 * Completes writing, the file may be read after this.
+	 */
+	void finish() throws IOException {
+		if (output != null) {
+			output.close();
+			output = null;
+		}
+		offsets = Arrays.copyOf(offsets, count);
+	}
+
+	void delete() {
+		IOUtils.closeQuietly(output);
+		output = null;
+		FileUtils.deleteQuietly(file);
+	}
+
+	/**
+	 * @param featureType type of the features returned
+	 * @return reader over all features in the order written
+	 */
+	SequentialReader openReader(SimpleFeatureType featureType) throws IOException {
+		return new SequentialReader(featureType);
+	}
+
+	/**
+	 * @param featureType type of the features returned
+	 * @return reader of features by index
+	 */
+	RandomAccessReader openRandomAccessReader(SimpleFeatureType featureType) throws IOException {
+		return new RandomAccessReader(featureType);
+	}
+
+	final class SequentialReader implements Closeable {
+
+		private final RecordDecoder decoder;
+		private DataInputStream input;
+		private int index;
+
+		private SequentialReader(SimpleFeatureType featureType) throws IOException {
+			decoder = new RecordDecoder(featureType);
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+			try {
+				readHeader(input);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		boolean hasNext() {
+			return input != null && index < count;
+		}
+
+		SimpleFeature next() throws IOException {
+			if (!hasNext()) {
+				throw new EOFException();
+			}
+			input.readInt(); // record length, only needed for random access
+			index++;
+			return decoder.decode(input);
+		}
+
+		@Override
+		public void close() {
+			IOUtils.closeQuietly(input);
+			input = null;
+		}
+	}
+
+	final class RandomAccessReader implements Closeable {
+
+		private final RecordDecoder decoder;
+		private RandomAccessFile input;
+		private byte[] buffer = new byte[BUFFER_SIZE];
+
+		private RandomAccessReader(SimpleFeatureType featureType) throws IOException {
+			decoder = new RecordDecoder(featureType);
+			input = new RandomAccessFile(file, "r");
+			try {
+				readHeader(input);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		SimpleFeature read(int index) throws IOException {
+			if (index < 0 || index >= count) {
+				throw new IndexOutOfBoundsException("Feature index " + index + " of " + count);
+			}
+			input.seek(offsets[index]);
+			int length = input.readInt();
+			if (buffer.length < length) {
+				buffer = new byte[length];
+			}
+			input.readFully(buffer, 0, length);
+			return decoder.decode(new DataInputStream(new ByteArrayInputStream(buffer, 0, length)));
+		}
+
+		@Override
+		public void close() {
+			IOUtils.closeQuietly(input);
+			input = null;
+		}
+	}
+
+	private static void readHeader(DataInput input) throws IOException {
+		if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+			throw new IOException("Not a feature spill file");
+		}
+	}
+
+	private static final class RecordDecoder {
+
+		private final SimpleFeatureType featureType;
+		private final CoordinateReferenceSystem[] crs;
+		private final WKBReader wkbReader = new WKBReader();
+
+		private RecordDecoder(SimpleFeatureType featureType) {
+			this.featureType = featureType;
+			// the attribute descriptors of a wrapped GML feature type come from
+			// the parser and carry no CRS, only the default geometry does
+			CoordinateReferenceSystem featureCRS = featureType.getCoordinateReferenceSystem();
+			List<AttributeDescriptor> descriptors = featureType.getAttributeDescriptors();
+			this.crs = new CoordinateReferenceSystem[descriptors.size()];
+			for (int index = 0; index < crs.length; ++index) {
+				AttributeDescriptor descriptor = descriptors.get(index);
+				if (descriptor instanceof GeometryDescriptor) {
+					CoordinateReferenceSystem descriptorCRS = ((GeometryDescriptor) descriptor).getCoordinateReferenceSystem();
+					crs[index] = descriptorCRS != null ? descriptorCRS : featureCRS;
+				}
+			}
+		}
+
+		private SimpleFeature decode(DataInput input) throws IOException {
+			String id = input.readBoolean() ? readString(input) : null;
+			int attributeCount = input.readInt();
+			List<Object> attributes = new ArrayList<>(attributeCount);
+			for (int index = 0; index < attributeCount; ++index) {
+				Object attribute = readAttribute(input);
+				// GML parsing leaves the CRS in the geometry's user data
+				if (attribute instanceof Geometry && index < crs.length && crs[index] != null) {
+					((Geometry) attribute).setUserData(crs[index]);
+				}
+				attributes.add(attribute);
+			}
+			return new SimpleFeatureImpl(attributes, featureType, id == null ? null : new FeatureIdImpl(id));
+		}
+
+		private Object readAttribute(DataInput input) throws IOException {
+			byte type = input.readByte();
+			switch (type) {
+				case NULL: return null;
+				case STRING: return readString(input);
+				case INTEGER: return input.readInt();
+				case LONG: return input.readLong();
+				case DOUBLE: return input.readDouble();
+				case FLOAT: return input.readFloat();
+				case SHORT: return input.readShort();
+				case BYTE: return input.readByte();
+				case BOOLEAN: return input.readBoolean();
+				case BIG_DECIMAL: return new BigDecimal(readString(input));
+				case BIG_INTEGER: return new BigInteger(readString(input));
+				case DATE: return new Date(input.readLong());
+				case SQL_DATE: return new java.sql.Date(input.readLong());
+				case SQL_TIMESTAMP: {
+					java.sql.Timestamp timestamp = new java.sql.Timestamp(input.readLong());
+					timestamp.setNanos(input.readInt());
+					return timestamp;
+				}
+				case GEOMETRY: {
+					byte[] wkb = new byte[input.readInt()];
+					input.readFully(wkb);
+					try {
+						return wkbReader.read(wkb);
+					} catch (ParseException e) {
+						throw new IOException("Unable to read geometry", e);
+					}
+				}
+				default: throw new IOException("Unknown attribute type " + type);
+			}
+		}
+	}
+
+	private void writeAttribute(DataOutputStream output, Object attribute) throws IOException {
+		if (attribute == null) {
+			output.writeByte(NULL);
+		} else if (attribute instanceof String) {
+			output.writeByte(STRING);
+			writeString(output, (String) attribute);
+		} else if (attribute instanceof Integer) {
+			output.writeByte(INTEGER);
+			output.writeInt((Integer) attribute);
+		} else if (attribute instanceof Long) {
+			output.writeByte(LONG);
+			output.writeLong((Long) attribute);
+		} else if (attribute instanceof Double) {
+			output.writeByte(DOUBLE);
+			output.writeDouble((Double) attribute);
+		} else if (attribute instanceof Float) {
+			output.writeByte(FLOAT);
+			output.writeFloat((Float) attribute);
+		} else if (attribute instanceof Short) {
+			output.writeByte(SHORT);
+			output.writeShort((Short) attribute);
+		} else if (attribute instanceof Byte) {
+			output.writeByte(BYTE);
+			output.writeByte((Byte) attribute);
+		} else if (attribute instanceof Boolean) {
+			output.writeByte(BOOLEAN);
+			output.writeBoolean((Boolean) attribute);
+		} else if (attribute instanceof BigDecimal) {
+			output.writeByte(BIG_DECIMAL);
+			writeString(output, attribute.toString());
+		} else if (attribute instanceof BigInteger) {
+			output.writeByte(BIG_INTEGER);
+			writeString(output, attribute.toString());
+		} else if (attribute.getClass() == Date.class) {
+			output.writeByte(DATE);
+			output.writeLong(((Date) attribute).getTime());
+		} else if (attribute.getClass() == java.sql.Date.class) {
+			output.writeByte(SQL_DATE);
+			output.writeLong(((Date) attribute).getTime());
+		} else if (attribute.getClass() == java.sql.Timestamp.class) {
+			java.sql.Timestamp timestamp = (java.sql.Timestamp) attribute;
+			output.writeByte(SQL_TIMESTAMP);
+			output.writeLong(timestamp.getTime());
+			output.writeInt(timestamp.getNanos());
+		} else if (attribute instanceof Geometry) {
+			Geometry geometry = (Geometry) attribute;
+			Coordinate coordinate = geometry.getCoordinate();
+			byte[] wkb = coordinate != null && !Double.isNaN(coordinate.z)
+					? wkbWriter3D.write(geometry)
+					: wkbWriter2D.write(geometry);
+			output.writeByte(GEOMETRY);
+			output.writeInt(wkb.length);
+			output.write(wkb);
+		} else {
+			throw new IOException("Unable to spill attribute of type " + attribute.getClass().getName());
+		}
+	}
+
+	// unlike writeUTF not limited to 64k
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(DataInput input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -1,6 +1,9 @@
 package gov.usgs.cida.gdp.wps.parser;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.wps.util.GMLUtil;
 import java.io.BufferedInputStream;
 import java.io.File;
@@ -8,8 +11,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamException;
@@ -34,14 +42,31 @@ import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.GeometryType;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterVisitor;
+import org.opengis.filter.spatial.BBOX;
 import org.opengis.filter.sort.SortBy;
+import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.TransformException;
 import org.opengis.util.ProgressListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
 /**
+ * Feature collection streamed from a GML file rather than held in memory.
+ *
+ * The file is parsed once up front for the bounds, size and feature type. In
+ * spill mode (gdp.gml.spill) the features are also written to a binary spill
+ * file on that pass and every iterator reads them back from there, otherwise
+ * each iterator parses the GML again.
+ *
+ * subCollection supports BBOX filters so callers can work with only the
+ * features near an area of interest. The envelopes of the features are
+ * indexed (STR-tree) on the first BBOX subCollection, collections that are
+ * never filtered do not pay for the index. Features match a BBOX filter when their
+ * envelope intersects it (a loose bbox). A sub-collection shares the file of
+ * the collection it came from and reads only its own features, by index from
+ * the spill file or by skipping the others while parsing.
  *
  * @author tkunicki
  */
@@ -53,15 +78,30 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 	private final ReferencedEnvelope bounds;
 	private final int size;
 	private final Configuration configuration;
+	private final FeatureSpillFile spillFile;
+	// built on the first BBOX subCollection, owned by the root collection
+	private STRtree featureIndex;
+	// indices of the features in this collection in file order, null for all
+	private final int[] selection;
+	private final GMLStreamingFeatureCollection parent;
 	private final String MSG_NOT_SUPP_YET = "Not supported yet.";
 	private final String MSG_READ_ONLY = "This instance is read-only";
+	private final static String SPILL_SUFFIX = ".spill";
 
 	GMLStreamingFeatureCollection(File file) {
+		this(file, Boolean.parseBoolean(AppConstant.GML_SPILL.getValue()));
+	}
+
+	GMLStreamingFeatureCollection(File file, boolean spill) {
         LOGGER.debug("Starting parse of file {}", file.getName());
 		this.file = file;
 		this.configuration = GMLUtil.generateGMLConfiguration(file);
 		
+		this.parent = null;
+		this.selection = null;
+		FeatureSpillFile spillWriter = spill ? new FeatureSpillFile(new File(file.getPath() + SPILL_SUFFIX)) : null;
 		StreamingFeatureIterator iterator = null;
+		boolean parsed = false;
 		try {
 			ReferencedEnvelope envelope = getEnvelope(file);
 			MetaDataFilter metaDataFilter;
@@ -73,8 +113,21 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 			
 			iterator = new StreamingFeatureIterator(metaDataFilter, false);
 			while (iterator.hasNext()) {
-				iterator.next();
+				Feature feature = iterator.next();
+				if (spillWriter != null) {
+					try {
+						spillWriter.write((SimpleFeature) feature);
+					} catch (IOException e) {
+						LOGGER.debug("Unable to spill features of file {}, features will be parsed on each iteration", file.getName(), e);
+						spillWriter.delete();
+						spillWriter = null;
+					}
+				}
+			}
+			if (spillWriter != null) {
+				spillWriter.finish();
 			}
+			this.spillFile = spillWriter;
 			this.bounds = metaDataFilter.collectionBounds;
 			this.featureType = metaDataFilter.wrappedFeatureType;
 			this.size = metaDataFilter.size;
@@ -82,6 +135,7 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
             if (size < 1) {
                 throw new RuntimeException("Empty Feature Collection");
             }
+			parsed = true;
 
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -93,9 +147,23 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 			if (iterator != null) {
 				iterator.close();
 			}
+			if (!parsed && spillWriter != null) {
+				spillWriter.delete();
+			}
 		}
         LOGGER.debug("Finished parse of file {}, {} features found", file.getName(), size);
 	}
+
+	private GMLStreamingFeatureCollection(GMLStreamingFeatureCollection parent, int[] selection, ReferencedEnvelope bounds) {
+		this.parent = parent;
+		this.selection = selection;
+		this.bounds = bounds;
+		this.size = selection.length;
+		this.file = parent.file;
+		this.configuration = parent.configuration;
+		this.featureType = parent.featureType;
+		this.spillFile = parent.spillFile;
+	}
 	
 	private ReferencedEnvelope getEnvelope(File file) {
 		try {
@@ -107,7 +175,14 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 	}
     
     public void dispose() {
+        if (parent != null) {
+            // files are owned by the collection this was taken from
+            return;
+        }
         FileUtils.deleteQuietly(file);
+        if (spillFile != null) {
+            spillFile.delete();
+        }
         configuration.getXSD().dispose();
     }
 
@@ -121,10 +196,16 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 		return createStreamingFeatureIterator();
 	}
 
-	private StreamingFeatureIterator createStreamingFeatureIterator() {
-		StreamingFeatureIterator iterator = null;
+	private CollectionFeatureIterator createStreamingFeatureIterator() {
+		CollectionFeatureIterator iterator = null;
 		try {
-			iterator = new StreamingFeatureIterator(filterPassthru);
+			if (spillFile != null) {
+				iterator = new SpillFeatureIterator();
+			} else if (selection != null) {
+				iterator = new StreamingFeatureIterator(new SelectionFilter(selection));
+			} else {
+				iterator = new StreamingFeatureIterator(filterPassthru);
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -142,8 +223,8 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 	}
 
 	protected void destroyStreamingFeatureIterator(Object object) {
-		if (object instanceof StreamingFeatureIterator) {
-			StreamingFeatureIterator iterator = (StreamingFeatureIterator) object;
+		if (object instanceof CollectionFeatureIterator) {
+			CollectionFeatureIterator iterator = (CollectionFeatureIterator) object;
 			if (iterator.getParent() == this) {
 				iterator.close();
 				return;
@@ -179,9 +260,90 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 
 	@Override
 	public FeatureCollection subCollection(Filter filter) {
+		if (filter == Filter.INCLUDE) {
+			return this;
+		}
+		if (filter == Filter.EXCLUDE) {
+			return new GMLStreamingFeatureCollection(parent == null ? this : parent, new int[0], new ReferencedEnvelope(featureType.getCoordinateReferenceSystem()));
+		}
+		if (filter instanceof BBOX) {
+			return subCollection(getEnvelope((BBOX) filter));
+		}
 		throw new UnsupportedOperationException(MSG_NOT_SUPP_YET);
 	}
 
+	private GMLStreamingFeatureCollection subCollection(ReferencedEnvelope envelope) {
+		List<IndexedFeature> matches = new ArrayList<IndexedFeature>();
+		for (Object item : getFeatureIndex().query(envelope)) {
+			IndexedFeature match = (IndexedFeature) item;
+			if (match.envelope.intersects(envelope) && isSelected(match.index)) {
+				matches.add(match);
+			}
+		}
+		Collections.sort(matches, INDEX_ORDER);
+
+		int[] matchSelection = new int[matches.size()];
+		ReferencedEnvelope matchBounds = new ReferencedEnvelope(featureType.getCoordinateReferenceSystem());
+		for (int i = 0; i < matchSelection.length; i++) {
+			IndexedFeature match = matches.get(i);
+			matchSelection[i] = match.index;
+			matchBounds.expandToInclude(match.envelope);
+		}
+		LOGGER.debug("{} of {} features of file {} intersect {}", new Object[] { matchSelection.length, size, file.getName(), envelope });
+		return new GMLStreamingFeatureCollection(parent == null ? this : parent, matchSelection, matchBounds);
+	}
+
+	private synchronized STRtree getFeatureIndex() {
+		if (parent != null) {
+			return parent.getFeatureIndex();
+		}
+		if (featureIndex == null) {
+			LOGGER.debug("Indexing features of file {}", file.getName());
+			STRtree index = new STRtree();
+			CollectionFeatureIterator iterator = createStreamingFeatureIterator();
+			try {
+				int featureCount = 0;
+				while (iterator.hasNext()) {
+					Object geometry = ((SimpleFeature) iterator.next()).getDefaultGeometry();
+					if (geometry instanceof Geometry && !((Geometry) geometry).isEmpty()) {
+						Envelope featureEnvelope = ((Geometry) geometry).getEnvelopeInternal();
+						index.insert(featureEnvelope, new IndexedFeature(featureCount, featureEnvelope));
+					}
+					featureCount++;
+				}
+			} finally {
+				iterator.close();
+			}
+			index.build();
+			featureIndex = index;
+		}
+		return featureIndex;
+	}
+
+	private boolean isSelected(int index) {
+		return selection == null || Arrays.binarySearch(selection, index) >= 0;
+	}
+
+	// BBOX envelope in the CRS of this collection
+	private ReferencedEnvelope getEnvelope(BBOX filter) {
+		CoordinateReferenceSystem collectionCRS = featureType.getCoordinateReferenceSystem();
+		try {
+			CoordinateReferenceSystem filterCRS = filter.getSRS() == null ? collectionCRS : CRS.decode(filter.getSRS());
+			ReferencedEnvelope envelope = new ReferencedEnvelope(
+					filter.getMinX(), filter.getMaxX(),
+					filter.getMinY(), filter.getMaxY(),
+					filterCRS);
+			if (filterCRS == null || collectionCRS == null || CRS.equalsIgnoreMetadata(filterCRS, collectionCRS)) {
+				return new ReferencedEnvelope(envelope, collectionCRS);
+			}
+			return envelope.transform(collectionCRS, true);
+		} catch (FactoryException e) {
+			throw new IllegalArgumentException("Unable to use BBOX filter SRS " + filter.getSRS(), e);
+		} catch (TransformException e) {
+			throw new IllegalArgumentException("Unable to transform BBOX filter to the collection CRS", e);
+		}
+	}
+
 	@Override
 	public FeatureCollection sort(SortBy order) {
 		throw new UnsupportedOperationException(MSG_NOT_SUPP_YET);
@@ -269,7 +431,12 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
                 base.getIdentifier());
     }
 
-	private final class StreamingFeatureIterator implements FeatureIterator<Feature>, Iterator<Feature> {
+	private interface CollectionFeatureIterator extends FeatureIterator<Feature>, Iterator<Feature> {
+
+		GMLStreamingFeatureCollection getParent();
+	}
+
+	private final class StreamingFeatureIterator implements CollectionFeatureIterator {
 
 		private PullParser parser;
 		private InputStream bufferedInputStream;
@@ -368,6 +535,7 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 			throw new UnsupportedOperationException();
 		}
 
+		@Override
 		public GMLStreamingFeatureCollection getParent() {
 			return GMLStreamingFeatureCollection.this;
 		}
@@ -387,6 +555,112 @@ public class GMLStreamingFeatureCollection implements FeatureCollection {
 		}
 	}
 
+	private final class SpillFeatureIterator implements CollectionFeatureIterator {
+
+		private FeatureSpillFile.SequentialReader reader;
+		private FeatureSpillFile.RandomAccessReader selectionReader;
+		private int position;
+
+		private SpillFeatureIterator() throws IOException {
+			if (selection == null) {
+				reader = spillFile.openReader(featureType);
+			} else {
+				selectionReader = spillFile.openRandomAccessReader(featureType);
+			}
+		}
+
+		@Override
+		public synchronized boolean hasNext() {
+			if (selectionReader != null) {
+				return position < selection.length;
+			}
+			return reader != null && reader.hasNext();
+		}
+
+		@Override
+		public synchronized Feature next() throws NoSuchElementException {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				if (selectionReader != null) {
+					return selectionReader.read(selection[position++]);
+				}
+				return reader.next();
+			} catch (IOException e) {
+				close();
+				throw new RuntimeException("Error reading features from spill file", e);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			if (reader != null) {
+				reader.close();
+				reader = null;
+			}
+			if (selectionReader != null) {
+				selectionReader.close();
+				selectionReader = null;
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public GMLStreamingFeatureCollection getParent() {
+			return GMLStreamingFeatureCollection.this;
+		}
+	}
+
+	private static final class IndexedFeature {
+
+		private final int index;
+		private final Envelope envelope;
+
+		private IndexedFeature(int index, Envelope envelope) {
+			this.index = index;
+			this.envelope = envelope;
+		}
+	}
+
+	private static final Comparator<IndexedFeature> INDEX_ORDER = new Comparator<IndexedFeature>() {
+		@Override
+		public int compare(IndexedFeature o1, IndexedFeature o2) {
+			return Integer.compare(o1.index, o2.index);
+		}
+	};
+
+	// passes the features at the selected indices, must see every feature in file order
+	private static final class SelectionFilter implements Filter {
+
+		private final int[] selection;
+		private int index;
+		private int position;
+
+		private SelectionFilter(int[] selection) {
+			this.selection = selection;
+		}
+
+		@Override
+		public boolean evaluate(Object object) {
+			boolean selected = position < selection.length && selection[position] == index;
+			if (selected) {
+				position++;
+			}
+			index++;
+			return selected;
+		}
+
+		@Override
+		public Object accept(FilterVisitor visitor, Object extraData) {
+			throw new UnsupportedOperationException("Unimplemented.");
+		}
+	}
+
 	private static Filter filterPassthru = new Filter() {
 		@Override public boolean evaluate(Object object) { return true; }
 		@Override public Object accept(FilterVisitor visitor, Object extraData) { return true; }
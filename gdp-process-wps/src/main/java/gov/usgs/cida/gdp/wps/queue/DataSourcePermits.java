@@ -0,0 +1,168 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import java.net.URI;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weighted semaphores protecting the data sources, configured on the
+ * throttle_queue_permit table. A row applies to a DATASET_URI exactly, to
+ * every dataset on a host, or ('*') to every other dataset individually. Each
+ * request holds permits on its data sources while it is queued or running,
+ * weighted by how much data it is estimated to read: one permit per
+ * PERMIT_SIZE bytes. A single request never holds more than half of a data
+ * source's permits so that one large request can not lock out a popular data
+ * source; requests whose size is not known yet hold that maximum. With the
+ * default of one permit no two requests share a data source.
+ *
+ * Smaller requests may overtake a request that does not fit, until that
+ * request has waited OVERTAKE_LIMIT_MILLIS, after which its data sources are
+ * held for it.
+ */
+public class DataSourcePermits {
+
+	static final String DEFAULT_DATA_SOURCE = "*";
+	static final long OVERTAKE_LIMIT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+	private static final Pool DEFAULT_POOL = new Pool(null, 1, null);
+	private static final String SELECT_PERMITS_STATEMENT = "SELECT data_source, permits, permit_size FROM throttle_queue_permit";
+
+	private final Map<String, Pool> pools;
+
+	DataSourcePermits(Map<String, Pool> pools) {
+		this.pools = pools;
+	}
+
+	public static DataSourcePermits load(Connection connection) throws SQLException {
+		Map<String, Pool> pools = new HashMap<>();
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(SELECT_PERMITS_STATEMENT)) {
+			while (rs.next()) {
+				String dataSource = rs.getString("data_source");
+				int permits = rs.getInt("permits");
+				long permitSize = rs.getLong("permit_size");
+				pools.put(dataSource, new Pool(dataSource, permits, rs.wasNull() ? null : permitSize));
+			}
+		}
+		return new DataSourcePermits(pools);
+	}
+
+	/**
+	 * Picks the requests to start, in the order given, that fit in the
+	 * permits left over by the running requests.
+	 *
+	 * @param running requests holding permits
+	 * @param waiting requests waiting for permits, in the order they should start
+	 * @param limit maximum number of requests to admit
+	 * @param now current time in epoch milliseconds
+	 * @return ids of the requests admitted
+	 */
+	List<String> admit(List<QueuedRequest> running, List<QueuedRequest> waiting, int limit, long now) {
+		Map<String, Integer> used = new HashMap<>();
+		for (QueuedRequest request : running) {
+			acquire(used, request);
+		}
+
+		List<String> admitted = new ArrayList<>();
+		Set<String> reserved = new HashSet<>();
+		for (QueuedRequest request : waiting) {
+			if (admitted.size() >= limit) {
+				break;
+			}
+			boolean fits = true;
+			for (String dataSource : request.getDataSources()) {
+				Pool pool = getPool(dataSource);
+				String key = pool.getKey(dataSource);
+				Integer inUse = used.get(key);
+				int weight = pool.getWeight(request.getEstimatedSize());
+				if (reserved.contains(key) || (inUse == null ? 0 : inUse) + weight > pool.permits) {
+					fits = false;
+				}
+			}
+			if (fits) {
+				acquire(used, request);
+				admitted.add(request.getRequestId());
+			} else if (now - request.getEnqueued() >= OVERTAKE_LIMIT_MILLIS) {
+				for (String dataSource : request.getDataSources()) {
+					reserved.add(getPool(dataSource).getKey(dataSource));
+				}
+			}
+		}
+		return admitted;
+	}
+
+	/**
+	 * @param dataSource DATASET_URI
+	 * @param estimatedSize estimated bytes read, null if unknown
+	 * @return permits a request needs on the data source
+	 */
+	int getWeight(String dataSource, Long estimatedSize) {
+		return getPool(dataSource).getWeight(estimatedSize);
+	}
+
+	private void acquire(Map<String, Integer> used, QueuedRequest request) {
+		for (String dataSource : request.getDataSources()) {
+			Pool pool = getPool(dataSource);
+			String key = pool.getKey(dataSource);
+			Integer inUse = used.get(key);
+			used.put(key, (inUse == null ? 0 : inUse) + pool.getWeight(request.getEstimatedSize()));
+		}
+	}
+
+	private Pool getPool(String dataSource) {
+		Pool pool = pools.get(dataSource);
+		if (pool == null) {
+			String host = null;
+			try {
+				host = URI.create(dataSource).getHost();
+			} catch (IllegalArgumentException e) {
+				// not a URI, can only match exactly
+			}
+			if (host != null) {
+				pool = pools.get(host);
+			}
+		}
+		if (pool == null) {
+			pool = pools.get(DEFAULT_DATA_SOURCE);
+		}
+		return pool == null ? DEFAULT_POOL : pool;
+	}
+
+	static final class Pool {
+
+		private final String dataSource;
+		private final int permits;
+		private final Long permitSize;
+
+		Pool(String dataSource, int permits, Long permitSize) {
+			this.dataSource = dataSource;
+			this.permits = Math.max(1, permits);
+			this.permitSize = permitSize;
+		}
+
+		// requests on the default pool each get a pool of their own per dataset
+		String getKey(String requestDataSource) {
+			return dataSource == null || DEFAULT_DATA_SOURCE.equals(dataSource) ? requestDataSource : dataSource;
+		}
+
+		int getWeight(Long estimatedSize) {
+			int maximum = (permits + 1) / 2;
+			if (estimatedSize == null) {
+				return maximum;
+			}
+			if (permitSize == null || permitSize <= 0) {
+				return 1;
+			}
+			long weight = (estimatedSize + permitSize - 1) / permitSize;
+			return (int) Math.max(1, Math.min(maximum, weight));
+		}
+	}
+}
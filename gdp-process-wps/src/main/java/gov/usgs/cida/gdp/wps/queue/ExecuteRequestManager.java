@@ -6,7 +6,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Manages the timer task which is responsible for triggering the act of placing work on the queue.
+ * Manages the dispatcher which places work on the queue whenever the throttle
+ * queue changes, and the timer task which triggers it periodically in case a
+ * change was missed.
  *
  * @author smlarson
  */
@@ -15,6 +17,8 @@ public class ExecuteRequestManager {
     private static final String TIMER_NAME = "RequestManagerPoll";
     private final ThrottleQueue queue;
     private final ExecuteRequestQueue executeQueue;
+    private final ThrottleQueueDispatcher dispatcher;
+    private final ThrottleQueueNotificationListener listener;
 
     private Timer timer = null;
     
@@ -22,6 +26,8 @@ public class ExecuteRequestManager {
     private ExecuteRequestManager() {
         this.queue = new ThrottleQueueImpl();
         this.executeQueue = new ExecuteRequestQueue();
+        this.dispatcher = new ThrottleQueueDispatcher(this.queue);
+        this.listener = new ThrottleQueueNotificationListener(this.dispatcher);
         init();
     }
     
@@ -48,6 +54,10 @@ public class ExecuteRequestManager {
     public ExecuteRequestQueue getExecuteRequestQueue() {
         return this.executeQueue;
     }
+
+    public ThrottleQueueDispatcher getDispatcher() {
+        return this.dispatcher;
+    }
     
     // here for debug purposes. 
     private String getQueueStatus(){
@@ -55,20 +65,24 @@ public class ExecuteRequestManager {
     }
     
     private void init() { 
-        LOGGER.debug("INIT Timer Task in RequestManager");
+        LOGGER.debug("INIT Dispatcher and Timer Task in RequestManager");
         long delay = 1000;  //milliseconds
-        long period = 6000;
-        
+        long period = 60000;
         
+        dispatcher.start();
+        listener.start();
+
         TimerTask task = new ThrottleQueueExecuter();
 
         timer = new Timer(TIMER_NAME);
-        timer.schedule(task, delay, period);  //Frequency that work is checked to be added to the queue. 1000, 6000 = milliseconds so a 1 second delay before the first execution and will check every 6 seconds
+        timer.schedule(task, delay, period);  //Safety net only, work is normally dispatched as soon as requests are accepted or finish. 1 second delay before the first execution and will check every 60 seconds
 
     }
 
     public void shutdown() {
         timer.cancel();
+        listener.shutdown();
+        dispatcher.shutdown();
     }
 
 }
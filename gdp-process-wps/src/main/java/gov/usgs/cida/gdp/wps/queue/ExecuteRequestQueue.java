@@ -1,7 +1,10 @@
 package gov.usgs.cida.gdp.wps.queue;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.n52.wps.server.ExceptionReport;
 import org.n52.wps.server.handler.RequestExecutor;
 import org.n52.wps.server.request.ExecuteRequest;
@@ -17,6 +20,7 @@ public class ExecuteRequestQueue {
 
     private final RequestExecutor POOL = new RequestExecutor();  //manages all the ExecuteRequests
     private final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(ExecuteRequestQueue.class);
+    private final AtomicInteger inFlight = new AtomicInteger(); //requests submitted to the POOL that have not yet completed
 
     /**
      *
@@ -35,7 +39,7 @@ public class ExecuteRequestQueue {
             if (execReq.isStoreResponse()) {
                 try {
                     LOGGER.info("Putting request on queue: " + execReq.getUniqueId());
-                    POOL.submit(execReq);
+                    submit(execReq);
                     ExecuteRequestManager.getInstance().getThrottleQueue().updateStatus(execReq, ThrottleStatus.ENQUEUE); //updates to ENQUEUED
                 } finally {
                     LOGGER.debug("Queue status: " + getStatus());
@@ -44,7 +48,7 @@ public class ExecuteRequestQueue {
             } else {
                 try {
                     LOGGER.info("Putting synch request on queue: " + execReq.getUniqueId());
-                    response = POOL.submit(execReq).get();  //this will block     
+                    response = submit(execReq).get();  //this will block     
                 } catch (ExecutionException ee) {
                     LOGGER.warn("exception while handling ExecuteRequest.");
                     // the computation threw an error
@@ -77,6 +81,37 @@ public class ExecuteRequestQueue {
 
     }
 
+    /**
+     * The number of requests that can be put on the queue without waiting for
+     * a worker thread. A slot is released as soon as a request completes, so
+     * the dispatcher can fill it before the worker thread itself is returned
+     * to the POOL.
+     *
+     * @return free worker slots, never negative
+     */
+    public int getAvailableSlots() {
+        return Math.max(0, POOL.getMaximumPoolSize() - inFlight.get());
+    }
+
+    // counts the request against the POOL until it completes, then lets the dispatcher know a slot is free
+    private FutureTask<Response> submit(ExecuteRequestWrapper execReq) {
+        FutureTask<Response> task = new FutureTask<Response>(execReq) {
+            @Override
+            protected void done() {
+                inFlight.decrementAndGet();
+                ExecuteRequestManager.getInstance().getDispatcher().wakeUp();
+            }
+        };
+        inFlight.incrementAndGet();
+        try {
+            POOL.execute(task);
+        } catch (RejectedExecutionException ree) {
+            inFlight.decrementAndGet();
+            throw ree;
+        }
+        return task;
+    }
+
     public String getStatus() {
         StringBuilder sb = new StringBuilder();
         String sep = System.lineSeparator();
@@ -116,6 +151,11 @@ public class ExecuteRequestQueue {
         sb.append("Largest pool size: ");
         sb.append(POOL.getLargestPoolSize());
         sb.append(sep);
+        sb.append("_____________________________________________");
+
+        sb.append("In flight: ");
+        sb.append(inFlight.get());
+        sb.append(sep);
         
         return sb.toString();
     }
@@ -0,0 +1,48 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A request on the throttle_queue table as seen by the dispatcher, along with
+ * the data sources (DATASET_URI inputs) it reads from.
+ */
+final class QueuedRequest {
+
+	private final String requestId;
+	private final long enqueued;
+	private final Long estimatedSize;
+	private final List<String> dataSources = new ArrayList<>(1);
+
+	QueuedRequest(String requestId, long enqueued, Long estimatedSize) {
+		this.requestId = requestId;
+		this.enqueued = enqueued;
+		this.estimatedSize = estimatedSize;
+	}
+
+	String getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * @return time the request was accepted (or put on the queue) in epoch milliseconds
+	 */
+	long getEnqueued() {
+		return enqueued;
+	}
+
+	/**
+	 * @return estimated bytes read from the data sources, null if not (yet) known
+	 */
+	Long getEstimatedSize() {
+		return estimatedSize;
+	}
+
+	List<String> getDataSources() {
+		return dataSources;
+	}
+
+	void addDataSource(String dataSource) {
+		dataSources.add(dataSource);
+	}
+}
@@ -0,0 +1,70 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import gov.usgs.cida.gdp.constants.AppConstant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the requests waiting on the throttle queue shortest estimated job
+ * first, with aging. Each request is ranked as if it had been accepted later
+ * by the time it takes to wait off its estimated size at the aging rate, so a
+ * small request is not held up behind large ones, while a large request is
+ * only overtaken by requests accepted less than that long after it. Requests
+ * with no estimated size, because the source can't be estimated or the
+ * estimate isn't in yet, are ranked as if they were of the unknown size, so
+ * they don't jump ahead of requests known to be small.
+ */
+public class RequestScheduler {
+
+	private final long agingRate;
+	private final long unknownSize;
+
+	public RequestScheduler() {
+		this(Long.parseLong(AppConstant.QUEUE_AGING_RATE.getValue()),
+				Long.parseLong(AppConstant.QUEUE_UNKNOWN_SIZE.getValue()));
+	}
+
+	/**
+	 * @param agingRate estimated bytes read per second waited, 0 or less
+	 * schedules first come first served
+	 * @param unknownSize estimated bytes read assumed for requests without
+	 * an estimate
+	 */
+	public RequestScheduler(long agingRate, long unknownSize) {
+		this.agingRate = agingRate;
+		this.unknownSize = unknownSize;
+	}
+
+	/**
+	 * @param waiting requests oldest first
+	 * @return the requests in the order they should be started, requests of
+	 * equal rank stay oldest first
+	 */
+	List<QueuedRequest> order(List<QueuedRequest> waiting) {
+		List<QueuedRequest> result = new ArrayList<>(waiting);
+		Collections.sort(result, new Comparator<QueuedRequest>() {
+			@Override
+			public int compare(QueuedRequest o1, QueuedRequest o2) {
+				return Long.compare(getRank(o1), getRank(o2));
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @param request
+	 * @return epoch milliseconds the request is treated as having been accepted at
+	 */
+	long getRank(QueuedRequest request) {
+		if (agingRate <= 0) {
+			return request.getEnqueued();
+		}
+		Long estimatedSize = request.getEstimatedSize();
+		if (estimatedSize == null) {
+			estimatedSize = unknownSize;
+		}
+		return request.getEnqueued() + (long) (estimatedSize * 1000d / agingRate);
+	}
+}
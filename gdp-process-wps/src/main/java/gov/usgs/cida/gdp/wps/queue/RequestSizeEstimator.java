@@ -0,0 +1,108 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import gov.usgs.cida.gdp.wps.algorithm.GDPAlgorithmConstants;
+import gov.usgs.cida.gdp.wps.algorithm.GDPAlgorithmUtil;
+import gov.usgs.cida.gdp.wps.util.DatabaseUtil;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.bind.DatatypeConverter;
+import org.n52.wps.server.database.connection.ConnectionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ucar.nc2.dt.GridDataset;
+import ucar.nc2.dt.GridDatatype;
+
+/**
+ * Estimates how much data a request will read from its data source before it
+ * is run, from the inputs stored with the request. Only the dataset metadata
+ * is read, the features are not fetched so the full spatial extent of the
+ * grid is assumed; the time range and number of variables are honored.
+ */
+public class RequestSizeEstimator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RequestSizeEstimator.class);
+	private static final ConnectionHandler CONNECTION_HANDLER = DatabaseUtil.getJNDIConnectionHandler();
+	private static final String SELECT_INPUTS_STATEMENT = "SELECT INPUT_IDENTIFIER, INPUT_VALUE FROM INPUT WHERE REQUEST_ID = ?";
+	private static final String GRID_SCHEME = "dods";
+
+	/**
+	 * @param requestId
+	 * @return estimated bytes read, null if it can not be estimated (not a
+	 * gridded OPeNDAP request, or the dataset could not be inspected)
+	 */
+	public Long estimateSize(String requestId) {
+		Long result = null;
+		try {
+			Map<String, List<String>> inputs = getInputs(requestId);
+			String datasetURI = getFirst(inputs, GDPAlgorithmConstants.DATASET_URI_IDENTIFIER);
+			List<String> datasetIds = inputs.get(GDPAlgorithmConstants.DATASET_ID_IDENTIFIER);
+			if (datasetURI != null && datasetIds != null) {
+				URI uri = new URI(datasetURI);
+				if (GRID_SCHEME.equals(uri.getScheme())) {
+					result = estimateSize(uri, datasetIds,
+							parseDate(getFirst(inputs, GDPAlgorithmConstants.TIME_START_IDENTIFIER)),
+							parseDate(getFirst(inputs, GDPAlgorithmConstants.TIME_END_IDENTIFIER)));
+				}
+			}
+		} catch (SQLException | URISyntaxException | IOException | RuntimeException e) {
+			LOGGER.debug("Unable to estimate size of request " + requestId, e);
+		}
+		LOGGER.debug("Estimated size of request {} is {} bytes", requestId, result);
+		return result;
+	}
+
+	// assumes all the variables requested are the same size, as the heuristics do
+	private Long estimateSize(URI datasetURI, List<String> datasetIds, Date timeStart, Date timeEnd) throws IOException {
+		Long result = null;
+		GridDataset gridDataset = GDPAlgorithmUtil.generateGridDataSet(datasetURI);
+		try {
+			GridDatatype gridDatatype = gridDataset.findGridDatatype(datasetIds.get(0));
+			if (gridDatatype != null) {
+				GDPAlgorithmUtil.DataCube dataCube = GDPAlgorithmUtil.calculateDataCube(gridDatatype, null, timeStart, timeEnd, false);
+				result = dataCube.getTotalSize() * datasetIds.size();
+			}
+		} finally {
+			gridDataset.close();
+		}
+		return result;
+	}
+
+	private Map<String, List<String>> getInputs(String requestId) throws SQLException {
+		Map<String, List<String>> result = new HashMap<>();
+		try (Connection connection = CONNECTION_HANDLER.getConnection();
+				PreparedStatement statement = connection.prepareStatement(SELECT_INPUTS_STATEMENT)) {
+			statement.setString(1, requestId);
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					String identifier = rs.getString(1);
+					List<String> values = result.get(identifier);
+					if (values == null) {
+						values = new ArrayList<>(1);
+						result.put(identifier, values);
+					}
+					values.add(rs.getString(2));
+				}
+			}
+		}
+		return result;
+	}
+
+	private static String getFirst(Map<String, List<String>> inputs, String identifier) {
+		List<String> values = inputs.get(identifier);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	private static Date parseDate(String dateTime) {
+		return dateTime == null ? null : DatatypeConverter.parseDateTime(dateTime).getTime();
+	}
+}
@@ -0,0 +1,91 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.n52.wps.server.ExceptionReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves ACCEPTED work from the throttle queue onto the ExecuteRequestQueue as
+ * soon as something changes rather than waiting for the next timer tick.
+ * Requests being accepted or finishing (locally, or on another node via the
+ * ThrottleQueueNotificationListener) call wakeUp(), signals arriving while a
+ * dispatch is running are coalesced into a single follow up dispatch. All
+ * dispatching happens on the one dispatcher thread.
+ */
+public class ThrottleQueueDispatcher implements Runnable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThrottleQueueDispatcher.class);
+	private static final String THREAD_NAME = "ThrottleQueueDispatcher";
+
+	private final ThrottleQueue queue;
+	private final Lock lock = new ReentrantLock();
+	private final Condition signalled = lock.newCondition();
+	private boolean pending = false;
+	private volatile boolean running = false;
+	private Thread thread = null;
+
+	public ThrottleQueueDispatcher(ThrottleQueue queue) {
+		this.queue = queue;
+	}
+
+	public synchronized void start() {
+		if (thread == null) {
+			running = true;
+			thread = new Thread(this, THREAD_NAME);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public synchronized void shutdown() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Requests a dispatch, returns immediately.
+	 */
+	public void wakeUp() {
+		lock.lock();
+		try {
+			pending = true;
+			signalled.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		LOGGER.debug("Throttle queue dispatcher started.");
+		while (running) {
+			try {
+				awaitSignal();
+				queue.enqueueRemainingWork();
+			} catch (InterruptedException e) {
+				LOGGER.debug("Throttle queue dispatcher interrupted.");
+			} catch (ExceptionReport | RuntimeException e) {
+				LOGGER.error("Error in attempting to dispatch work from the throttle queue.", e);
+			}
+		}
+		LOGGER.debug("Throttle queue dispatcher stopped.");
+	}
+
+	private void awaitSignal() throws InterruptedException {
+		lock.lock();
+		try {
+			while (!pending) {
+				signalled.await();
+			}
+			pending = false;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
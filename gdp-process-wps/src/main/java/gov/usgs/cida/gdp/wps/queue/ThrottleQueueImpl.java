@@ -1,9 +1,12 @@
 package gov.usgs.cida.gdp.wps.queue;
 
+import gov.usgs.cida.gdp.constants.AppConstant;
 import gov.usgs.cida.gdp.wps.util.DatabaseUtil;
 import gov.usgs.cida.gdp.wps.util.DocumentUtil;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.sql.Connection;
@@ -16,11 +19,17 @@ import java.sql.Statement;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang.StringUtils;
 import org.n52.wps.server.ExceptionReport;
 import org.n52.wps.server.request.ExecuteRequest;
 import org.slf4j.Logger;
@@ -34,7 +43,8 @@ import org.xml.sax.SAXException;
  * Implements the pre and post logic required for the processing threads
  * (ExecuteRequest) meant to protect the data resource by preventing the
  * re-running of previously finished or running requests and not running
- * multiple requests that would require the same data source to process. This is
+ * more requests against a data source than it has permits for (see
+ * DataSourcePermits). This is
  * not a 'real' queue in the sense that it is not inheriting from the
  * concurrency package nor using callable/runnable directly. Instead, it relies
  * heavily on the database status. ie request will go into 'waiting' status if
@@ -50,6 +60,18 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ThrottleQueueImpl.class);
 	private static final ConnectionHandler CONNECTION_HANDLER = DatabaseUtil.getJNDIConnectionHandler();
 	private static final int TIME_OUT_SECONDS = 20;
+	// recorded on the work this node dispatches so that a restart only reclaims its own
+	public static final String NODE_NAME = findNodeName();
+	private final RequestSizeEstimator sizeEstimator = new RequestSizeEstimator();
+	private final RequestScheduler scheduler = new RequestScheduler();
+	private final ExecutorService estimatorPool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ThrottleQueueEstimator");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
 	// queries     // fyi: throttle_queue status life cycle: ACCEPTED<insert>—> PREENQUEUE then ENQUEUE <update>with time—>STARTED<update> —>PROCESSED<update>
 	private static final String THROTTLE_QUEUE_TABLE = "throttle_queue";
@@ -59,11 +81,18 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 	private static final String UPDATE_STATUS_ENQUEUE_STATEMENT = "UPDATE " + THROTTLE_QUEUE_TABLE + " SET (STATUS, ENQUEUED) = (?, ?) WHERE REQUEST_ID = ?";
 	private static final String UPDATE_STATUS_STATEMENT = "UPDATE " + THROTTLE_QUEUE_TABLE + " SET (STATUS) = (?) WHERE REQUEST_ID = ?";
 	private static final String SELECT_DATA_SOURCES_STATEMENT = "SELECT INPUT_VALUE FROM INPUT WHERE INPUT_IDENTIFIER = 'DATASET_URI' AND REQUEST_ID = ?";
-	private static final String UPDATE_ONE_WORK_RETURNING = "UPDATE throttle_queue q SET STATUS = 'PREENQUEUE' FROM "
-			+ "(Select input.request_id, input_value FROM input input, throttle_queue throttle WHERE input.input_identifier = 'DATASET_URI' AND input.input_value NOT IN "
-			+ "(Select DISTINCT(INPUT_VALUE) FROM input input, response resp, throttle_queue throttle WHERE resp.request_id = input.request_id AND resp.request_id = throttle.request_id  "
-			+ "AND input.INPUT_IDENTIFIER = 'DATASET_URI' AND (resp.status = 'STARTED' OR throttle.status = 'ENQUEUE')) AND throttle.request_id = input.request_id AND throttle.status = 'ACCEPTED' "
-			+ "ORDER BY enqueued ASC LIMIT 1) sub WHERE q.request_id = sub.request_id RETURNING q.request_id";
+	// requests holding permits on their data sources, and those waiting for them oldest first
+	private static final String SELECT_RUNNING_WORK = "SELECT throttle.request_id, throttle.enqueued, throttle.estimated_size, input.input_value FROM throttle_queue throttle, input input "
+			+ "WHERE input.request_id = throttle.request_id AND input.input_identifier = 'DATASET_URI' AND throttle.status IN ('PREENQUEUE', 'ENQUEUE', 'STARTED')";
+	private static final String SELECT_WAITING_WORK = "SELECT throttle.request_id, throttle.enqueued, throttle.estimated_size, input.input_value FROM throttle_queue throttle, input input "
+			+ "WHERE input.request_id = throttle.request_id AND input.input_identifier = 'DATASET_URI' AND throttle.status = 'ACCEPTED' ORDER BY throttle.enqueued ASC, throttle.request_id";
+	private static final String UPDATE_PROMOTE_WORK = "UPDATE " + THROTTLE_QUEUE_TABLE + " SET (STATUS, OWNER_NODE) = ('PREENQUEUE', ?) WHERE REQUEST_ID = ? AND STATUS = 'ACCEPTED'";
+	private static final String UPDATE_ESTIMATED_SIZE_STATEMENT = "UPDATE " + THROTTLE_QUEUE_TABLE + " SET ESTIMATED_SIZE = ? WHERE REQUEST_ID = ?";
+	// serializes dispatching across nodes so that permits are not handed out twice
+	private static final String LOCK_DISPATCH_STATEMENT = "SELECT pg_advisory_xact_lock(" + THROTTLE_QUEUE_TABLE.hashCode() + ")";
+	// lets the dispatchers on other nodes know the throttle queue has changed
+	static final String NOTIFY_CHANNEL = THROTTLE_QUEUE_TABLE;
+	private static final String NOTIFY_STATEMENT = "SELECT pg_notify(?, ?)";
 
 	private static final String SELECT_REQUEST_XML = "SELECT request_xml FROM request WHERE request_id = ?";
 
@@ -106,6 +135,11 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 		} finally {
 			lock.unlock();
 		}
+
+		// synchronous requests are put on the ExecuteRequestQueue directly by the request handler
+		if (req.isStoreResponse()) {
+			signalQueueChanged();
+		}
 	}
 
 	/**
@@ -146,6 +180,27 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 			lock.unlock();
 		}
 
+		if (null != requestId) {
+			signalQueueChanged();
+		}
+	}
+
+	/**
+	 * Wakes the dispatcher on this node and, via NOTIFY, on every other node
+	 * sharing the throttle_queue table. Failing to notify only delays dispatch
+	 * until the safety net timer fires so it is logged rather than thrown.
+	 */
+	private void signalQueueChanged() {
+		ExecuteRequestManager.getInstance().getDispatcher().wakeUp();
+
+		try (Connection connection = CONNECTION_HANDLER.getConnection();
+				PreparedStatement statement = connection.prepareStatement(NOTIFY_STATEMENT)) {
+			statement.setString(1, NOTIFY_CHANNEL);
+			statement.setString(2, ThrottleQueueNotificationListener.NODE_ID);
+			statement.execute();
+		} catch (SQLException e) {
+			LOGGER.warn("Failed to notify other nodes of a change to the throttle queue.", e);
+		}
 	}
 
 	// this affects the DB (status ACCEPTED) and internal maps/sets, it does not place the work on the 'queue'
@@ -160,6 +215,33 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 
 		insertQueueRequest(requestId);//ACCEPTED
 
+		estimateSize(requestId);
+	}
+
+	/**
+	 * Estimates the data the request will read in the background, opening the
+	 * dataset is too slow to hold up the response. Until the estimate is in
+	 * place the request is weighted as if it were large.
+	 */
+	private void estimateSize(final String requestId) {
+		estimatorPool.execute(new Runnable() {
+			@Override
+			public void run() {
+				Long estimatedSize = sizeEstimator.estimateSize(requestId);
+				if (null != estimatedSize) {
+					try (Connection connection = CONNECTION_HANDLER.getConnection();
+							PreparedStatement preparedStatement = connection.prepareStatement(UPDATE_ESTIMATED_SIZE_STATEMENT)) {
+						preparedStatement.setLong(1, estimatedSize);
+						preparedStatement.setString(2, requestId);
+						preparedStatement.executeUpdate();
+					} catch (SQLException e) {
+						LOGGER.warn("Failed to update estimated size on throttle_queue table for request:" + requestId, e);
+					}
+					// a smaller weight may let it start now
+					signalQueueChanged();
+				}
+			}
+		});
 	}
 
 	/**
@@ -440,8 +522,9 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 
 	/**
 	 * Enqueues the work from the db found with a status of ACCEPTED on the
-	 * throttle queue. This is called from a timer task held onto by the
-	 * RequestManager. Forces a separation between processing the requests and
+	 * throttle queue, as many requests as the ExecuteRequestQueue has free
+	 * slots for. This is called from the ThrottleQueueDispatcher held onto by
+	 * the RequestManager. Forces a separation between processing the requests and
 	 * any pre-check logic ie if the request has been made before or if the
 	 * request's data source is in-use.
 	 *
@@ -453,9 +536,14 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 			lock.tryLock(TIME_OUT_SECONDS, TimeUnit.SECONDS);
 			//triggers the RM to return the resources and see if there is more work to be done
 
-			LOGGER.debug("Enqueing remaining work...");
+			// only take as much work as there are free worker threads, the rest stays ACCEPTED for the next dispatch
+			int availableSlots = ExecuteRequestManager.getInstance().getExecuteRequestQueue().getAvailableSlots();
+			LOGGER.debug("Enqueing remaining work for " + availableSlots + " available slots...");
+			if (availableSlots <= 0) {
+				return;
+			}
 			// getRemainingWork and add it to the queue
-			List<String> requestIds = getRemainingWork();
+			List<String> requestIds = getRemainingWork(availableSlots);
 
 			if (null != requestIds && requestIds.size() > 0) {
 				LOGGER.debug("Quantity of work to be addeded to queue:" + requestIds.size());
@@ -524,20 +612,36 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 		return result;
 	}
 
-	private List<String> getRemainingWork() throws ExceptionReport {
-		List<String> result = new ArrayList(10);
-		// check the throttle_queue table for any requests that are in 'ACCEPTED' status who's data resource is not in use
-		// limited to bringing back the (as in one) oldest request - could easily handle a list 
-		try (Connection connection = CONNECTION_HANDLER.getConnection();
-				PreparedStatement selectRequestStatement = connection.prepareStatement(UPDATE_ONE_WORK_RETURNING)) {
-
-			ResultSet rs = selectRequestStatement.executeQuery();
-
-			if (rs != null) {
-				while (rs.next()) {
-					result.add(rs.getString("request_id"));
-					LOGGER.info("Fetched work from throttle_queue with request id:" + rs.getString(1));
+	private List<String> getRemainingWork(int limit) throws ExceptionReport {
+		List<String> result = new ArrayList(limit);
+		// check the throttle_queue table for any requests that are in 'ACCEPTED' status who's data sources have enough permits free
+		// limited to bringing back the first requests by schedule that fit, no more than limit of them
+		try (Connection connection = CONNECTION_HANDLER.getConnection()) {
+			connection.setAutoCommit(false);
+			try {
+				try (Statement statement = connection.createStatement()) {
+					statement.execute(LOCK_DISPATCH_STATEMENT);
+				}
+				DataSourcePermits permits = DataSourcePermits.load(connection);
+				List<QueuedRequest> running = getQueuedRequests(connection, SELECT_RUNNING_WORK);
+				List<QueuedRequest> waiting = getQueuedRequests(connection, SELECT_WAITING_WORK);
+
+				try (PreparedStatement promoteStatement = connection.prepareStatement(UPDATE_PROMOTE_WORK)) {
+					for (String requestId : permits.admit(running, scheduler.order(waiting), limit, System.currentTimeMillis())) {
+						promoteStatement.setString(1, NODE_NAME);
+						promoteStatement.setString(2, requestId);
+						if (promoteStatement.executeUpdate() > 0) {
+							result.add(requestId);
+							LOGGER.info("Fetched work from throttle_queue with request id:" + requestId);
+						}
+					}
 				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
 			}
 		} catch (Exception e) {
 			String msg = "Failed to execute query to find remaining work from throttle_queue.";
@@ -547,4 +651,39 @@ public class ThrottleQueueImpl implements ThrottleQueue {
 
 		return result;
 	}
+
+	private static String findNodeName() {
+		String nodeName = AppConstant.QUEUE_NODE_NAME.getValue();
+		if (StringUtils.isBlank(nodeName)) {
+			try {
+				nodeName = InetAddress.getLocalHost().getHostName();
+			} catch (UnknownHostException e) {
+				LOGGER.warn("Unable to find host name, set " + AppConstant.QUEUE_NODE_NAME + " to tell throttle queue nodes apart", e);
+				nodeName = "localhost";
+			}
+		}
+		return nodeName;
+	}
+
+	// one QueuedRequest per request_id, in the order first seen, with all of its DATASET_URIs
+	private List<QueuedRequest> getQueuedRequests(Connection connection, String sql) throws SQLException {
+		Map<String, QueuedRequest> result = new LinkedHashMap<>();
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(sql)) {
+			while (rs.next()) {
+				String requestId = rs.getString("request_id");
+				QueuedRequest request = result.get(requestId);
+				if (null == request) {
+					Timestamp enqueued = rs.getTimestamp("enqueued");
+					long estimatedSize = rs.getLong("estimated_size");
+					request = new QueuedRequest(requestId,
+							null == enqueued ? System.currentTimeMillis() : enqueued.getTime(),
+							rs.wasNull() ? null : estimatedSize);
+					result.put(requestId, request);
+				}
+				request.addDataSource(rs.getString("input_value"));
+			}
+		}
+		return new ArrayList<>(result.values());
+	}
 }
@@ -0,0 +1,170 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import gov.usgs.cida.gdp.wps.util.DatabaseUtil;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import org.n52.wps.server.database.connection.ConnectionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LISTENs on the throttle queue channel so that a request accepted or finished
+ * on another node wakes this node's dispatcher. The connection is held for as
+ * long as the listener runs, so it comes from its own unpooled datasource
+ * (see DatabaseUtil.getNotificationConnectionHandler()); without one the
+ * listener isn't started and nodes rely on the polling safety net. The
+ * connection is reopened if it is lost. Notifications sent by this node carry
+ * its NODE_ID and are ignored, its dispatcher was already woken directly.
+ *
+ * The Postgres driver is loaded by the container alongside the JNDI
+ * datasource rather than by this webapp, so PGConnection is looked up through
+ * the connection's own class loader instead of being linked against.
+ */
+public class ThrottleQueueNotificationListener implements Runnable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThrottleQueueNotificationListener.class);
+	private static final String THREAD_NAME = "ThrottleQueueNotificationListener";
+	private static final String PG_CONNECTION_CLASS = "org.postgresql.PGConnection";
+	private static final String PG_NOTIFICATION_CLASS = "org.postgresql.PGNotification";
+	// drivers that can block waiting for notifications wait this long at a time
+	private static final int WAIT_MILLIS = 10000;
+	// older drivers only read notifications while processing a query
+	private static final long POLL_PERIOD_MILLIS = 5000;
+	private static final long RECONNECT_DELAY_MILLIS = 30000;
+
+	// sent as the notification payload so a node can ignore its own notifications
+	static final String NODE_ID = UUID.randomUUID().toString();
+
+	private final ThrottleQueueDispatcher dispatcher;
+	private final ConnectionHandler connectionHandler;
+	private volatile boolean running = false;
+	private volatile Connection connection = null;
+	private Thread thread = null;
+
+	public ThrottleQueueNotificationListener(ThrottleQueueDispatcher dispatcher) {
+		this(dispatcher, DatabaseUtil.getNotificationConnectionHandler());
+	}
+
+	/**
+	 * @param dispatcher dispatcher to wake
+	 * @param connectionHandler unpooled connections to listen on, null to not
+	 * listen
+	 */
+	ThrottleQueueNotificationListener(ThrottleQueueDispatcher dispatcher, ConnectionHandler connectionHandler) {
+		this.dispatcher = dispatcher;
+		this.connectionHandler = connectionHandler;
+	}
+
+	public synchronized void start() {
+		if (connectionHandler == null) {
+			LOGGER.info("No notification datasource configured, throttle queue will rely on polling across nodes.");
+			return;
+		}
+		if (thread == null) {
+			running = true;
+			thread = new Thread(this, THREAD_NAME);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	public synchronized void shutdown() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		// unblocks a driver waiting for notifications
+		Connection listening = connection;
+		if (listening != null) {
+			try {
+				listening.close();
+			} catch (SQLException e) {
+				LOGGER.debug("Error closing throttle queue notification connection.", e);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try (Connection listening = connectionHandler.getConnection()) {
+				connection = listening;
+				ClassLoader driverClassLoader = listening.getClass().getClassLoader();
+				Class<?> pgConnectionClass = Class.forName(PG_CONNECTION_CLASS, false, driverClassLoader);
+				if (!listening.isWrapperFor(pgConnectionClass)) {
+					throw new ClassNotFoundException(PG_CONNECTION_CLASS + " is not reachable through " + listening.getClass().getName());
+				}
+				Object pgConnection = listening.unwrap(pgConnectionClass);
+				Method getParameter = Class.forName(PG_NOTIFICATION_CLASS, false, driverClassLoader).getMethod("getParameter");
+				Method waitForNotifications = null;
+				try {
+					waitForNotifications = pgConnectionClass.getMethod("getNotifications", int.class);
+				} catch (NoSuchMethodException e) {
+					LOGGER.debug("Postgres driver can't wait for notifications, polling every {} ms.", POLL_PERIOD_MILLIS);
+				}
+				Method getNotifications = pgConnectionClass.getMethod("getNotifications");
+				try (Statement statement = listening.createStatement()) {
+					statement.execute("LISTEN " + ThrottleQueueImpl.NOTIFY_CHANNEL);
+					LOGGER.debug("Listening for throttle queue notifications.");
+					while (running) {
+						Object notifications;
+						if (waitForNotifications != null) {
+							notifications = waitForNotifications.invoke(pgConnection, WAIT_MILLIS);
+						} else {
+							statement.execute("SELECT 1");
+							notifications = getNotifications.invoke(pgConnection);
+						}
+						int received = countOtherNodes(notifications, getParameter);
+						if (received > 0) {
+							LOGGER.debug("Received {} throttle queue notifications.", received);
+							dispatcher.wakeUp();
+						}
+						if (waitForNotifications == null) {
+							Thread.sleep(POLL_PERIOD_MILLIS);
+						}
+					}
+				}
+			} catch (ClassNotFoundException | NoSuchMethodException e) {
+				LOGGER.warn("Postgres notifications are not available, throttle queue will rely on polling across nodes.", e);
+				running = false;
+			} catch (InterruptedException e) {
+				LOGGER.debug("Throttle queue notification listener interrupted.");
+			} catch (Exception e) {
+				if (!running) {
+					break;
+				}
+				LOGGER.error("Lost throttle queue notification connection, reconnecting.", e);
+				try {
+					Thread.sleep(RECONNECT_DELAY_MILLIS);
+				} catch (InterruptedException ie) {
+					LOGGER.debug("Throttle queue notification listener interrupted.");
+				}
+			} finally {
+				connection = null;
+			}
+		}
+	}
+
+	/**
+	 * @param notifications PGNotification array, may be null
+	 * @param getParameter PGNotification.getParameter()
+	 * @return number of notifications not sent by this node
+	 */
+	static int countOtherNodes(Object notifications, Method getParameter) throws ReflectiveOperationException {
+		int count = 0;
+		if (notifications != null) {
+			for (int index = 0; index < Array.getLength(notifications); ++index) {
+				Object payload = getParameter.invoke(Array.get(notifications, index));
+				if (!NODE_ID.equals(payload)) {
+					++count;
+				}
+			}
+		}
+		return count;
+	}
+}
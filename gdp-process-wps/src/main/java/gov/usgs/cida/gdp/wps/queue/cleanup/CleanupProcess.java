@@ -2,6 +2,7 @@ package gov.usgs.cida.gdp.wps.queue.cleanup;
 
 import gov.usgs.cida.gdp.wps.queue.ExecuteRequestManager;
 import gov.usgs.cida.gdp.wps.queue.ThrottleQueue;
+import gov.usgs.cida.gdp.wps.queue.ThrottleQueueImpl;
 import gov.usgs.cida.gdp.wps.util.DatabaseUtil;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -23,7 +24,12 @@ public class CleanupProcess {
 	
 	private static final String REASON = "Server restart";
 	
-	private static final String REMOVE_ZOMBIE_QUEUE = "DELETE FROM throttle_queue WHERE status = 'STARTED' OR status = 'PROCESSED'";
+	// work dispatched by other nodes is left alone, they may still be running it
+	// rows without an owner were dispatched before OWNER_NODE was recorded
+	private static final String OWNED_BY_NODE = "(owner_node = ? OR owner_node IS NULL)";
+	private static final String REMOVE_ZOMBIE_QUEUE = "DELETE FROM throttle_queue WHERE status = 'PROCESSED' OR (status = 'STARTED' AND " + OWNED_BY_NODE + ")";
+	// work handed to a worker thread that no longer exists, holds permits on its data sources so must be run again
+	private static final String REQUEUE_ZOMBIE_QUEUE = "UPDATE throttle_queue SET (status, owner_node) = ('ACCEPTED', NULL) WHERE (status = 'PREENQUEUE' OR status = 'ENQUEUE') AND " + OWNED_BY_NODE;
 	private static final String UPDATE_ZOMBIE_RESPONSE = "UPDATE response SET status = 'FAILED', exception_text = ? WHERE status = 'STARTED'";
 	
 	public CleanupProcess() {
@@ -34,6 +40,7 @@ public class CleanupProcess {
 	public void cleanup() {
 		try (Connection connection = connectionHandler.getConnection()) {
 			try (PreparedStatement removeZombies = connection.prepareStatement(REMOVE_ZOMBIE_QUEUE)) {
+				removeZombies.setString(1, ThrottleQueueImpl.NODE_NAME);
 				int removed = removeZombies.executeUpdate();
 				log.debug("Removed {} items from throttle queue", removed);
 			} catch (SQLException ex) {
@@ -41,6 +48,15 @@ public class CleanupProcess {
 				log.error(message, ex);
 			}
 			
+			try (PreparedStatement requeueZombies = connection.prepareStatement(REQUEUE_ZOMBIE_QUEUE)) {
+				requeueZombies.setString(1, ThrottleQueueImpl.NODE_NAME);
+				int requeued = requeueZombies.executeUpdate();
+				log.debug("Requeued {} items on throttle queue", requeued);
+			} catch (SQLException ex) {
+				String message = "Unable to requeue process queue";
+				log.error(message, ex);
+			}
+			
 			try (PreparedStatement updateResponse = connection.prepareStatement(UPDATE_ZOMBIE_RESPONSE)) {
 				updateResponse.setString(1, REASON);
 				int updated = updateResponse.executeUpdate();
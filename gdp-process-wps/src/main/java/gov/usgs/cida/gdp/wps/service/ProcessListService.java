@@ -4,29 +4,18 @@ import com.google.gson.GsonBuilder;
 import gov.usgs.cida.gdp.wps.analytics.ClientInfo;
 import gov.usgs.cida.gdp.wps.analytics.DataFetchInfo;
 import gov.usgs.cida.gdp.wps.analytics.OutputInfo;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.bind.DatatypeConverter;
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.JAXBException;
-import javax.xml.transform.stream.StreamSource;
-import net.opengis.wps.v_1_0_0.ExecuteResponse;
-import net.opengis.wps.v_1_0_0.StatusType;
 import org.apache.commons.lang.ClassUtils;
 import org.apache.commons.lang.StringUtils;
 import org.n52.wps.ServerDocument;
@@ -160,40 +149,4 @@ public class ProcessListService extends BaseProcessServlet {
 		}
 		return data;
 	}
-
-	private String getStatus(String xml) throws JAXBException, IOException {
-		StringBuilder status = new StringBuilder();
-		StatusType statusElement = getStatusElement(xml);
-		if (statusElement.isSetProcessAccepted()) {
-			status.append("Accepted");
-		} else if (statusElement.isSetProcessFailed()) {
-			status.append("Failed");
-		} else if (statusElement.isSetProcessPaused()) {
-			status.append("Paused");
-		} else if (statusElement.isSetProcessStarted()) {
-			status.append("Started");
-		} else if (statusElement.isSetProcessSucceeded()) {
-			status.append("Succeeded");
-		}
-		return status.toString();
-	}
-
-	private StatusType getStatusElement(String xml) throws JAXBException, IOException {
-		StreamSource source;
-
-		if (xml.toLowerCase().endsWith(".gz")) {
-			source = new StreamSource(new GZIPInputStream(new FileInputStream(new File(xml))));
-		} else {
-			source = new StreamSource(new StringReader(xml));
-		}
-		JAXBElement<ExecuteResponse> executeResponseElement = wpsUnmarshaller.unmarshal(source, ExecuteResponse.class);
-		ExecuteResponse executeResponse = executeResponseElement.getValue();
-		return executeResponse.getStatus();
-	}
-
-	private long getStartTime(String xml) throws JAXBException, IOException {
-		final StatusType statusElement = getStatusElement(xml);
-		Calendar start = DatatypeConverter.parseDateTime(statusElement.getCreationTime().toString());
-		return start.getTimeInMillis();
-	}
 }
@@ -47,4 +47,24 @@ public class DatabaseUtil {
 		}
 		return handler;
 	}
+
+	/**
+	 * Connections for LISTENing to notifications are held for as long as the
+	 * webapp runs, so they come from their own, unpooled, datasource.
+	 *
+	 * @return handler for the datasource named by the notificationJndiName
+	 * database property or null if none is configured
+	 */
+	public static ConnectionHandler getNotificationConnectionHandler() {
+		ConnectionHandler handler = null;
+		String jndiName = getDatabaseProperty("notificationJndiName");
+		if (null != jndiName) {
+			try {
+				handler = new JNDIConnectionHandler(jndiName);
+			} catch (NamingException e) {
+				log.error("Error creating notification connection handler", e);
+			}
+		}
+		return handler;
+	}
 }
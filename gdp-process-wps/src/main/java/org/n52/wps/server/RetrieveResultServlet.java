@@ -26,16 +26,23 @@
  */
 package org.n52.wps.server;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPInputStream;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.n52.wps.server.database.DatabaseFactory;
 import org.n52.wps.server.database.IDatabase;
@@ -52,6 +59,9 @@ public class RetrieveResultServlet extends HttpServlet {
 	public final static String SERVLET_PATH = "RetrieveResultServlet";
 	// in future parameterize
 	private final boolean indentXML = false;
+	private final static String SUFFIX_GZIP = ".gz";
+	private final static String BYTES_UNIT = "bytes";
+	private final static long[] UNSATISFIABLE_RANGE = new long[0];
 
 	@Override
 	public void init(ServletConfig config) throws ServletException {
@@ -107,6 +117,7 @@ public class RetrieveResultServlet extends HttpServlet {
 				}
 
 				response.setContentType(mimeType);
+				File responseFile = "xml".equals(suffix) ? null : getResponseFile(db, id);
 
 				if ("xml".equals(suffix)) {
 
@@ -122,6 +133,11 @@ public class RetrieveResultServlet extends HttpServlet {
 						throw new IOException("Error obtaining output stream for response", e);
 					}
 					copyResponseAsXML(inputStream, outputStream, useAttachment || indentXML, id);
+				} else if (responseFile != null) {
+					// served from the stored file, the stream isn't needed
+					IOUtils.closeQuietly(inputStream);
+					inputStream = null;
+					copyResponseFile(request, response, responseFile, id, contentLength);
 				} else {
 
 					if (contentLength > -1) {
@@ -183,6 +199,233 @@ public class RetrieveResultServlet extends HttpServlet {
 		LOGGER.info("{} bytes written in response to id {}", contentWritten, id);
 	}
 
+	/**
+	 * Writes an output from the file it is stored in. A gzipped file is sent
+	 * as is (Content-Encoding: gzip) to clients that accept gzip, so it isn't
+	 * inflated here only to be deflated again by the client's transport. A
+	 * Range request is always answered with the identity encoding, as
+	 * resumed downloads address bytes of the output itself. The ETag changes
+	 * when the file is replaced and differs between encodings.
+	 */
+	protected void copyResponseFile(
+			HttpServletRequest request,
+			HttpServletResponse response,
+			File responseFile,
+			String id,
+			long contentLength) throws IOException {
+		boolean compressed = responseFile.getName().endsWith(SUFFIX_GZIP);
+		String rangeHeader = request.getHeader("Range");
+		boolean sendCompressed = compressed && rangeHeader == null && acceptsGzip(request.getHeader("Accept-Encoding"));
+		// length of the identity encoding
+		long length = compressed ? contentLength : responseFile.length();
+
+		String etag = createETag(id, responseFile, sendCompressed);
+		response.setHeader("ETag", etag);
+		if (compressed) {
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+		if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		if (sendCompressed) {
+			response.setHeader("Content-Encoding", "gzip");
+			response.setHeader("Content-Length", Long.toString(responseFile.length()));
+			copyFile(responseFile, 0, responseFile.length(), getOutputStream(response), id);
+			return;
+		}
+
+		long[] range = null;
+		if (length > -1) {
+			response.setHeader("Accept-Ranges", BYTES_UNIT);
+			String ifRange = request.getHeader("If-Range");
+			if (ifRange == null || ifRange.equals(etag)) {
+				range = parseRange(rangeHeader, length);
+			}
+		}
+		if (range == UNSATISFIABLE_RANGE) {
+			response.setHeader("Content-Range", BYTES_UNIT + " */" + length);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+		long start = 0;
+		long count = length;
+		if (range != null) {
+			start = range[0];
+			count = range[1] - range[0] + 1;
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + length);
+		}
+		if (count > -1) {
+			response.setHeader("Content-Length", Long.toString(count));
+		} else {
+			LOGGER.warn("Content-Length unknown for response to id {}", id);
+		}
+
+		OutputStream outputStream = getOutputStream(response);
+		if (compressed) {
+			InputStream inputStream = new GZIPInputStream(new FileInputStream(responseFile), 64 << 10);
+			try {
+				IOUtils.skipFully(inputStream, start);
+				copyResponseStream(
+						count > -1 ? new BoundedInputStream(inputStream, count) : inputStream,
+						outputStream, id, count);
+			} finally {
+				IOUtils.closeQuietly(inputStream);
+			}
+		} else {
+			copyFile(responseFile, start, count, outputStream, id);
+		}
+	}
+
+	private OutputStream getOutputStream(HttpServletResponse response) throws IOException {
+		try {
+			return response.getOutputStream();
+		} catch (IOException e) {
+			throw new IOException("Error obtaining output stream for response", e);
+		}
+	}
+
+	protected void copyFile(
+			File file,
+			long start,
+			long count,
+			OutputStream outputStream,
+			String id) throws IOException {
+		long contentWritten = 0;
+		FileInputStream inputStream = new FileInputStream(file);
+		try {
+			FileChannel channel = inputStream.getChannel();
+			WritableByteChannel target = Channels.newChannel(outputStream);
+			while (contentWritten < count) {
+				long written = channel.transferTo(start + contentWritten, count - contentWritten, target);
+				if (written <= 0) {
+					throw new IOException("Unexpected end of file " + file.getName());
+				}
+				contentWritten += written;
+			}
+		} catch (IOException e) {
+			throw new IOException(String.format("Error writing response to output stream for id %s, %d of %d bytes written", id, contentWritten, count), e);
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+		LOGGER.info("{} bytes written in response to id {}", contentWritten, id);
+	}
+
+	private File getResponseFile(IDatabase db, String id) {
+		try {
+			File responseFile = db.lookupResponseAsFile(id);
+			return responseFile != null && responseFile.isFile() ? responseFile : null;
+		} catch (UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parameters = coding.split(";");
+			String name = parameters[0].trim();
+			if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+				for (int i = 1; i < parameters.length; i++) {
+					String parameter = parameters[i].trim();
+					if (parameter.startsWith("q=")) {
+						try {
+							return Double.parseDouble(parameter.substring(2)) > 0;
+						} catch (NumberFormatException e) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static String createETag(String id, File file, boolean compressed) {
+		return new StringBuilder("\"")
+				.append(id).append('-')
+				.append(Long.toHexString(file.lastModified())).append('-')
+				.append(Long.toHexString(file.length()))
+				.append(compressed ? "-gzip" : "")
+				.append('"').toString();
+	}
+
+	static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			// weak comparison
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if ("*".equals(candidate) || etag.equals(candidate)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param range Range header value
+	 * @param length length of the content
+	 * @return first and last (inclusive) byte of a single byte range, null if
+	 * there is no range to honor (absent, malformed or multiple ranges, the
+	 * whole content is sent) or UNSATISFIABLE_RANGE
+	 */
+	static long[] parseRange(String range, long length) {
+		if (range == null || !range.startsWith(BYTES_UNIT + "=") || range.indexOf(',') > -1) {
+			return null;
+		}
+		String spec = range.substring(BYTES_UNIT.length() + 1).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		long first;
+		long last;
+		try {
+			String firstText = spec.substring(0, dash).trim();
+			String lastText = spec.substring(dash + 1).trim();
+			if (firstText.isEmpty()) {
+				// suffix range, the final bytes
+				if (lastText.isEmpty()) {
+					return null;
+				}
+				long suffixLength = Long.parseLong(lastText);
+				if (suffixLength <= 0) {
+					return UNSATISFIABLE_RANGE;
+				}
+				first = Math.max(0, length - suffixLength);
+				last = length - 1;
+			} else {
+				first = Long.parseLong(firstText);
+				if (lastText.isEmpty()) {
+					last = length - 1;
+				} else {
+					last = Long.parseLong(lastText);
+					if (last < first) {
+						// invalid, not unsatisfiable
+						return null;
+					}
+					last = Math.min(last, length - 1);
+				}
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (first < 0 || first >= length || last < first) {
+			return UNSATISFIABLE_RANGE;
+		}
+		return new long[] { first, last };
+	}
+
 	protected void copyResponseAsXML(
 			InputStream inputStream,
 			OutputStream outputStream,
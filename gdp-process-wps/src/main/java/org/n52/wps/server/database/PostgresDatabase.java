@@ -9,14 +9,18 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -27,6 +31,7 @@ import javax.naming.NamingException;
 
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
 import org.n52.wps.ServerDocument;
@@ -41,6 +46,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Joiner;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 
 import java.sql.Savepoint;
 import java.sql.Timestamp;
@@ -92,6 +98,7 @@ public class PostgresDatabase extends AbstractDatabase {
 
 	private static final String FILE_URI_PREFIX = "file://";
 	private static final String SUFFIX_GZIP = "gz";
+	private static final String SUFFIX_TEMP = ".tmp";
 	private static final String DEFAULT_BASE_DIRECTORY
 		= Joiner.on(File.separator).join(System.getProperty("java.io.tmpdir", "."), "Database", "Results");
 	private static final ServerDocument.Server server = WPSConfig.getInstance().getWPSConfig().getServer();
@@ -103,7 +110,20 @@ public class PostgresDatabase extends AbstractDatabase {
 	private static PostgresDatabase instance;
 	private static ConnectionHandler connectionHandler;
 	private final static  boolean SAVE_RESULTS_TO_DB = Boolean.parseBoolean(getDatabaseProperties("saveResultsToDB"));
-	protected final Object storeResponseLock = new Object();
+	// per request locks so storing the response of one request doesn't hold up others
+	private static final int REQUEST_LOCK_STRIPES = 64;
+	private final Object[] requestLocks = new Object[REQUEST_LOCK_STRIPES];
+	// rendered execute responses of recently polled requests, served again while the status columns are unchanged
+	private static final int STATUS_DOCUMENT_CACHE_SIZE = 1000;
+	private final Map<String, StatusDocument> statusDocuments = Collections.synchronizedMap(
+			new LinkedHashMap<String, StatusDocument>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, StatusDocument> eldest) {
+					return size() > STATUS_DOCUMENT_CACHE_SIZE;
+				}
+			});
 
 	private static Timer wipeTimer;
 	private final String DATABASE_NAME;
@@ -139,6 +159,9 @@ public class PostgresDatabase extends AbstractDatabase {
 		String baseDirectoryPath = propertyUtil.extractString(KEY_DATABASE_PATH, DEFAULT_BASE_DIRECTORY);
 		String dbName = getDatabaseProperties(PROPERTY_NAME_DATABASE_NAME);
 		DATABASE_NAME = (StringUtils.isBlank(dbName)) ? "wps" : dbName;
+		for (int i = 0; i < requestLocks.length; i++) {
+			requestLocks[i] = new Object();
+		}
 		try {
 			Class.forName("org.postgresql.Driver");
 			initializeBaseDirectory(baseDirectoryPath);
@@ -296,6 +319,7 @@ public class PostgresDatabase extends AbstractDatabase {
 		WpsResponse wpsResponse = new WpsResponse(id, inputStream);
 		wpsResponse.setStartTime(new DateTime());
 		insertWpsResponse(wpsResponse);
+		statusDocuments.remove(id);
 		return generateRetrieveResultURL(id);
 	}
 	
@@ -364,8 +388,31 @@ public class PostgresDatabase extends AbstractDatabase {
 		return (dateTime == null) ? null : new Timestamp(dateTime.getMillis());
 	}
 	
+	private Object getRequestLock(String id) {
+		return requestLocks[(id.hashCode() & Integer.MAX_VALUE) % requestLocks.length];
+	}
+
+	/**
+	 * Inserts the response or updates its status, ordered per request id.
+	 */
+	@Override
+	public String storeResponse(String id, InputStream inputStream) {
+		synchronized (getRequestLock(id)) {
+			if (readWpsResponseFromDB(id) == null) {
+				return insertResponse(id, inputStream);
+			} else {
+				updateResponse(id, inputStream);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Not synchronized, the output is written to a file of its own and the
+	 * output row inserted once it is complete.
+	 */
 	@Override
-	public synchronized String storeComplexValue(String requestid, String outputIdentifier, InputStream stream, String type, String mimeType) {
+	public String storeComplexValue(String requestid, String outputIdentifier, InputStream stream, String type, String mimeType) {
 		String wpsResponseId = readWpsResponseFromDB(requestid).getId();
 		// For now id will just be requestId + wps identifier which is unique as long as requests can only run once
 		String outputId = requestid + outputIdentifier;
@@ -377,7 +424,7 @@ public class PostgresDatabase extends AbstractDatabase {
 			try {
 				// The result contents won't be saved to the database, only a pointer to the file system. I am therefore
 				// going to GZip the data to save space
-				FileReferenceInfo info = writeInputStreamToDisk(requestid, stream, true);
+				FileReferenceInfo info = writeInputStreamToDisk(outputId, stream, true);
 				output.setLocation(info.getFileLocation());
 				output.setResponseLength(info.getFileSize());
 			} catch (IOException ex) {
@@ -390,11 +437,14 @@ public class PostgresDatabase extends AbstractDatabase {
 		} catch (Exception e) {
 			throw new RuntimeException("issue writing output", e);
 		}
+		statusDocuments.remove(requestid);
 		return generateRetrieveResultURL(outputId);
 	}
 	
 	/**
-	 * Writes an input stream to disk
+	 * Writes an input stream to disk. The data is written to a temporary file
+	 * that is renamed into place when complete, so the file is never seen
+	 * partially written.
 	 * @param filename base filename
 	 * @param data String of data to write to disk, compressed using gzip
 	 * @param compress true to GZip results
@@ -402,22 +452,20 @@ public class PostgresDatabase extends AbstractDatabase {
 	 * @throws IOException
 	 */
 	private FileReferenceInfo writeInputStreamToDisk(String filename, InputStream data, boolean compress) throws IOException {
-		FileReferenceInfo info = null;
 		Path filePath = BASE_DIRECTORY.resolve(Joiner.on(".").join(filename, SUFFIX_GZIP));
-		Files.deleteIfExists(filePath);
-		Path createdFilePath = Files.createFile(filePath);
-
-		OutputStream os = new FileOutputStream(createdFilePath.toFile());
-
-		if (compress) {
-			os = new GZIPOutputStream(os);
+		Path tempPath = Files.createTempFile(BASE_DIRECTORY, filename, SUFFIX_TEMP);
+		long bytesCopied;
+		try {
+			try (OutputStream os = compress ?
+					new GZIPOutputStream(new FileOutputStream(tempPath.toFile()), 64 << 10) :
+					new FileOutputStream(tempPath.toFile())) {
+				bytesCopied = IOUtils.copyLarge(data, os);
+			}
+			Files.move(tempPath, filePath, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempPath);
 		}
-
-		long bytesCopied = IOUtils.copyLarge(data, os);
-		IOUtils.closeQuietly(os);
-		info = new FileReferenceInfo(createdFilePath.toUri().toString().replaceFirst(FILE_URI_PREFIX, ""), bytesCopied);
-		
-		return info;
+		return new FileReferenceInfo(filePath.toUri().toString().replaceFirst(FILE_URI_PREFIX, ""), bytesCopied);
 	}
 	
 	private WpsRequest readWpsRequestFromDB(String requestId) {
@@ -552,10 +600,22 @@ public class PostgresDatabase extends AbstractDatabase {
 	
 
 	
-	private InputStream buildExecuteResponse(String id) {
-		InputStream is = null;
-		
-		WpsResponse responseObj = readWpsResponseFromDB(id);
+	/**
+	 * @param id request id
+	 * @param responseObj response row of the request
+	 * @return the execute response document, rendered again only when the
+	 * status columns changed since it was last rendered
+	 */
+	private byte[] getStatusDocument(String id, WpsResponse responseObj) {
+		StatusDocument cached = statusDocuments.get(id);
+		if (cached == null || !cached.isFor(responseObj)) {
+			cached = new StatusDocument(responseObj, buildExecuteResponse(id, responseObj));
+			statusDocuments.put(id, cached);
+		}
+		return cached.document;
+	}
+	
+	private byte[] buildExecuteResponse(String id, WpsResponse responseObj) {
 		WpsRequest request = readWpsRequestFromDB(id);
 		List<WpsOutput> outputList = readOutputsByRequestFromDB(id);
 		
@@ -619,7 +679,15 @@ public class PostgresDatabase extends AbstractDatabase {
 				reference.setHref(generateRetrieveResultURL(output.getOutputId()));
 			}
 		}
-		return doc.newInputStream(XMLBeansHelper.getXmlOptions());
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try {
+			doc.save(os, XMLBeansHelper.getXmlOptions());
+		} catch (IOException e) {
+			String msg = "Failed to render execute response";
+			LOGGER.error(msg, e);
+			throw new RuntimeException(msg, e);
+		}
+		return os.toByteArray();
 	}
 	
 	private void addResponseHeaders(ExecuteResponseDocument doc) {
@@ -676,6 +744,7 @@ public class PostgresDatabase extends AbstractDatabase {
 		} catch (SQLException ex) {
 			LOGGER.error(MessageFormat.format("Failed to update data in database with  id of:{0}", id), ex);
 		}
+		statusDocuments.remove(id);
 	}
 	
 	/**
@@ -686,45 +755,44 @@ public class PostgresDatabase extends AbstractDatabase {
 	public InputStream lookupResponse(String id) {
 		
 		InputStream result = null;
-		synchronized (storeResponseLock) {
-			if (StringUtils.isNotBlank(id)) {
-				
-				//first select to see if what we are looking up is in the Response Table
-				WpsResponse responseFromDb = readWpsResponseFromDB(id);
-				//next select to see if what we are looking up is in the output Table
-				WpsOutput outputFromDb = readOutputFromDB(id);
-				
-				if (responseFromDb != null) {
-					result = buildExecuteResponse(id);
-				} else if (outputFromDb != null) {
-					// TODO switch to ascii stream
-					// result = rs.getAsciiStream(SELECTION_STRING_RESPONSE_COLUMN_INDEX);
-					String inDbContent = outputFromDb.getContent();
-					String location = outputFromDb.getLocation();
-					if (inDbContent != null) {
-						result = new ByteArrayInputStream(inDbContent.getBytes());
-					} else if (location != null) {
-						LOGGER.debug("ID {} is output and saved to disk instead of database. Path = " + location);
-						if (Files.exists(Paths.get(location))) {
-							try {
-								result = new GZIPInputStream(new FileInputStream(location));
-							} catch (IOException e) {
-								String msg = "Problem reading file";
-								LOGGER.warn(msg + " at " + location);
-								throw new RuntimeException(msg, e);
-							}
-						} else {
-							String msg = "Response not found on disk for id " + id;
+		// no lock, output rows are never updated and their files are complete once the row exists
+		if (StringUtils.isNotBlank(id)) {
+			
+			//first select to see if what we are looking up is in the Response Table
+			WpsResponse responseFromDb = readWpsResponseFromDB(id);
+			//next select to see if what we are looking up is in the output Table
+			WpsOutput outputFromDb = (responseFromDb == null) ? readOutputFromDB(id) : null;
+			
+			if (responseFromDb != null) {
+				result = new ByteArrayInputStream(getStatusDocument(id, responseFromDb));
+			} else if (outputFromDb != null) {
+				// TODO switch to ascii stream
+				// result = rs.getAsciiStream(SELECTION_STRING_RESPONSE_COLUMN_INDEX);
+				String inDbContent = outputFromDb.getContent();
+				String location = outputFromDb.getLocation();
+				if (inDbContent != null) {
+					result = new ByteArrayInputStream(inDbContent.getBytes());
+				} else if (location != null) {
+					LOGGER.debug("ID {} is output and saved to disk instead of database. Path = " + location);
+					if (Files.exists(Paths.get(location))) {
+						try {
+							result = new GZIPInputStream(new FileInputStream(location));
+						} catch (IOException e) {
+							String msg = "Problem reading file";
 							LOGGER.warn(msg + " at " + location);
-							throw new RuntimeException(msg);
+							throw new RuntimeException(msg, e);
 						}
 					} else {
-						throw new RuntimeException("No content to return");
+						String msg = "Response not found on disk for id " + id;
+						LOGGER.warn(msg + " at " + location);
+						throw new RuntimeException(msg);
 					}
+				} else {
+					throw new RuntimeException("No content to return");
 				}
-			} else {
-				LOGGER.warn("tried to look up response for null id, returned null");
 			}
+		} else {
+			LOGGER.warn("tried to look up response for null id, returned null");
 		}
 		return result;
 	}
@@ -755,9 +823,48 @@ public class PostgresDatabase extends AbstractDatabase {
 		return contentLength;
 	}
 	
+	/**
+	 * @param id
+	 * @return the gzipped file an output was saved to on disk, null for
+	 * execute responses and outputs saved in the database
+	 */
 	@Override
 	public File lookupResponseAsFile(String id) {
-		throw new UnsupportedOperationException("This is only supported in FlatFileDatabase");
+		File result = null;
+		if (StringUtils.isNotBlank(id) && readWpsResponseFromDB(id) == null) {
+			WpsOutput outputFromDb = readOutputFromDB(id);
+			if (outputFromDb != null && outputFromDb.getContent() == null && outputFromDb.getLocation() != null) {
+				File location = new File(outputFromDb.getLocation());
+				if (location.exists()) {
+					result = location;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Rendered execute response along with the status columns it was rendered from.
+	 */
+	private static final class StatusDocument {
+		
+		private final WpsStatus status;
+		private final Integer percentComplete;
+		private final String exceptionText;
+		private final byte[] document;
+		
+		StatusDocument(WpsResponse response, byte[] document) {
+			this.status = response.getStatus();
+			this.percentComplete = response.getPercentComplete();
+			this.exceptionText = response.getExceptionText();
+			this.document = document;
+		}
+		
+		boolean isFor(WpsResponse response) {
+			return status == response.getStatus()
+					&& ObjectUtils.equals(percentComplete, response.getPercentComplete())
+					&& ObjectUtils.equals(exceptionText, response.getExceptionText());
+		}
 	}
 
 	private class WipeTimerTask extends TimerTask {
@@ -0,0 +1,108 @@
+package gov.usgs.cida.gdp.wps.analytics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import org.junit.Test;
+
+public class MetadataLogSinkTest {
+
+	private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	@Test
+	public void testUpdatesAreCoalescedPerRequestAndType() {
+		RecordingSink sink = new RecordingSink(10, 10, HOUR_MILLIS, 0);
+		sink.start();
+		assertThat(sink.offer("a", new Percent(10)), is(true));
+		assertThat(sink.offer("a", new Output(100)), is(true));
+		assertThat(sink.offer("b", new Percent(5)), is(true));
+		assertThat(sink.offer("a", new Percent(20)), is(true));
+
+		// shutting down writes what is pending
+		assertThat(sink.shutdown(HOUR_MILLIS), is(0));
+		assertThat(sink.written, hasSize(3));
+		assertThat(sink.written.get(0).requestId, is("a"));
+		assertThat(((Percent) sink.written.get(0).logger).percent, is(20));
+		assertThat(((Output) sink.written.get(1).logger).size, is(100L));
+		assertThat(sink.written.get(2).requestId, is("b"));
+		assertThat(sink.getCoalesced(), is(equalTo(1L)));
+		assertThat(sink.getDropped(), is(equalTo(0L)));
+	}
+
+	@Test
+	public void testFullBufferDrops() {
+		RecordingSink sink = new RecordingSink(2, 10, HOUR_MILLIS, 0);
+		assertThat(sink.offer("a", new Percent(10)), is(true));
+		assertThat(sink.offer("b", new Percent(10)), is(true));
+		assertThat(sink.offer("c", new Percent(10)), is(false));
+		// coalescing never needs room
+		assertThat(sink.offer("a", new Percent(20)), is(true));
+		assertThat(sink.getDropped(), is(equalTo(1L)));
+
+		// never started, nothing could be written
+		assertThat(sink.shutdown(0), is(2));
+		assertThat(sink.offer("d", new Percent(10)), is(false));
+		assertThat(sink.getDropped(), is(equalTo(4L)));
+	}
+
+	@Test
+	public void testFullBatchIsWrittenBeforeFlushInterval() throws Exception {
+		RecordingSink sink = new RecordingSink(10, 2, HOUR_MILLIS, 0);
+		sink.start();
+		try {
+			sink.offer("a", new Percent(10));
+			sink.offer("b", new Percent(10));
+			assertThat(sink.batchWritten.await(10, TimeUnit.SECONDS), is(true));
+			assertThat(sink.written, hasSize(2));
+		} finally {
+			sink.shutdown(HOUR_MILLIS);
+		}
+	}
+
+	private static class RecordingSink extends MetadataLogSink {
+
+		private final List<PendingLog> written = new CopyOnWriteArrayList<>();
+		private final CountDownLatch batchWritten = new CountDownLatch(1);
+
+		RecordingSink(int capacity, int batchSize, long flushMillis, long offerWaitMillis) {
+			super(capacity, batchSize, flushMillis, offerWaitMillis);
+		}
+
+		@Override
+		void write(List<PendingLog> batch) {
+			written.addAll(batch);
+			batchWritten.countDown();
+		}
+	}
+
+	private static class Percent implements IMetadataLogger {
+
+		private final int percent;
+
+		Percent(int percent) {
+			this.percent = percent;
+		}
+
+		@Override
+		public void log(String requestId) {
+		}
+	}
+
+	private static class Output implements IMetadataLogger {
+
+		private final long size;
+
+		Output(long size) {
+			this.size = size;
+		}
+
+		@Override
+		public void log(String requestId) {
+		}
+	}
+}
@@ -2,9 +2,18 @@ package gov.usgs.cida.gdp.wps.parser;
 
 import com.vividsolutions.jts.geom.Geometry;
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
@@ -12,9 +21,13 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertThat;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 /**
  *
@@ -23,6 +36,7 @@ import org.opengis.feature.simple.SimpleFeature;
 public class GMLStreamingFeatureCollectionTest {
 
     private static File conusStates;
+    private static File conusStatesBoxes;
     private static File arcGis;
 
     @BeforeClass
@@ -30,10 +44,16 @@ public class GMLStreamingFeatureCollectionTest {
         URL url = GMLStreamingFeatureCollectionTest.class.getResource("/gml/conus-states-sample.xml");
         conusStates = new File(url.toURI());
 
+        url = GMLStreamingFeatureCollectionTest.class.getResource("/gml/conus-states-boxes-sample.xml");
+        conusStatesBoxes = new File(url.toURI());
+
         url = GMLStreamingFeatureCollectionTest.class.getResource("/gml/arcgis-sample.xml");
         arcGis = new File(url.toURI());
     }
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     public GMLStreamingFeatureCollectionTest() {
     }
 
@@ -64,6 +84,141 @@ public class GMLStreamingFeatureCollectionTest {
         }
     }
 
+    @Test
+    public void testSpilledFeaturesMatchParsed() throws IOException {
+        File copy = temporaryFolder.newFile("conus-states-sample.xml");
+        FileUtils.copyFile(conusStates, copy);
+
+        GMLStreamingFeatureCollection parsed = new GMLStreamingFeatureCollection(copy, false);
+        GMLStreamingFeatureCollection spilled = new GMLStreamingFeatureCollection(copy, true);
+        assertThat(new File(copy.getPath() + ".spill").exists(), is(true));
+        assertThat(spilled.size(), equalTo(parsed.size()));
+        assertThat(spilled.getBounds(), equalTo(parsed.getBounds()));
+
+        FeatureIterator parsedIterator = null;
+        FeatureIterator spilledIterator = null;
+        try {
+            parsedIterator = parsed.features();
+            spilledIterator = spilled.features();
+            while (parsedIterator.hasNext()) {
+                assertThat(spilledIterator.hasNext(), is(true));
+                SimpleFeature expected = (SimpleFeature) parsedIterator.next();
+                SimpleFeature actual = (SimpleFeature) spilledIterator.next();
+                assertThat(actual.getID(), equalTo(expected.getID()));
+                assertThat(actual.getAttributeCount(), equalTo(expected.getAttributeCount()));
+                for (int i = 0; i < expected.getAttributeCount(); i++) {
+                    Object value = expected.getAttribute(i);
+                    if (value instanceof Geometry) {
+                        Geometry expectedGeometry = (Geometry) value;
+                        Geometry actualGeometry = (Geometry) actual.getAttribute(i);
+                        assertThat(expectedGeometry.equalsExact(actualGeometry), is(true));
+                        assertThat(actualGeometry.getSRID(), equalTo(expectedGeometry.getSRID()));
+                        assertThat(actualGeometry.getUserData(), instanceOf(CoordinateReferenceSystem.class));
+                        assertThat(CRS.equalsIgnoreMetadata(
+                                expectedGeometry.getUserData(), actualGeometry.getUserData()), is(true));
+                    } else {
+                        assertThat(actual.getAttribute(i), equalTo(value));
+                    }
+                }
+            }
+            assertThat(spilledIterator.hasNext(), is(false));
+        } finally {
+            if (parsedIterator != null) {
+                parsedIterator.close();
+            }
+            if (spilledIterator != null) {
+                spilledIterator.close();
+            }
+        }
+
+        spilled.dispose();
+        assertThat(new File(copy.getPath() + ".spill").exists(), is(false));
+    }
+
+    @Test
+    public void testBBOXSubCollection() throws IOException {
+        File copy = temporaryFolder.newFile("conus-states-sample.xml");
+        FileUtils.copyFile(conusStates, copy);
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+        for (boolean spill : new boolean[] { false, true }) {
+            GMLStreamingFeatureCollection fc = new GMLStreamingFeatureCollection(copy, spill);
+            ReferencedEnvelope bounds = fc.getBounds();
+
+            FeatureCollection inside = fc.subCollection(ff.bbox("the_geom",
+                    bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY(), null));
+            assertThat(inside.size(), equalTo(fc.size()));
+            assertThat(inside.getBounds().isNull(), is(false));
+            assertThat(countFeatures(inside), equalTo(fc.size()));
+
+            FeatureCollection outside = fc.subCollection(ff.bbox("the_geom",
+                    bounds.getMaxX() + 1, bounds.getMaxY() + 1, bounds.getMaxX() + 2, bounds.getMaxY() + 2, null));
+            assertThat(outside.size(), equalTo(0));
+            assertThat(outside.getBounds().isNull(), is(true));
+            assertThat(countFeatures(outside), equalTo(0));
+
+            // disposing a sub-collection leaves the file for the collection it came from
+            ((GMLStreamingFeatureCollection) outside).dispose();
+            assertThat(copy.exists(), is(true));
+        }
+    }
+
+    @Test
+    public void testBBOXPartialSubCollection() throws IOException {
+        File copy = temporaryFolder.newFile("conus-states-boxes-sample.xml");
+        FileUtils.copyFile(conusStatesBoxes, copy);
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
+
+        for (boolean spill : new boolean[] { false, true }) {
+            GMLStreamingFeatureCollection fc = new GMLStreamingFeatureCollection(copy, spill);
+            assertThat(fc.size(), equalTo(3));
+            ReferencedEnvelope bounds = fc.getBounds();
+            double midX = bounds.getMinX() + bounds.getWidth() / 2;
+            double midY = bounds.getMinY() + bounds.getHeight() / 2;
+
+            // the boxes run diagonally, the lower half holds the first two
+            FeatureCollection lower = fc.subCollection(ff.bbox("the_geom",
+                    bounds.getMinX(), bounds.getMinY(), midX, midY, null));
+            assertThat(lower.size(), equalTo(2));
+            assertThat(states(lower), equalTo(Arrays.asList("Southwest", "Central")));
+
+            // the upper half touches the last two, only one of them is in the sub-collection
+            FeatureCollection upper = lower.subCollection(ff.bbox("the_geom",
+                    midX, midY, bounds.getMaxX(), bounds.getMaxY(), null));
+            assertThat(upper.size(), equalTo(1));
+            assertThat(states(upper), equalTo(Arrays.asList("Central")));
+            assertThat(fc.subCollection(ff.bbox("the_geom",
+                    midX, midY, bounds.getMaxX(), bounds.getMaxY(), null)).size(), equalTo(2));
+        }
+    }
+
+    private static List<String> states(FeatureCollection fc) {
+        List<String> states = new ArrayList<String>();
+        FeatureIterator fi = fc.features();
+        try {
+            while (fi.hasNext()) {
+                states.add((String) ((SimpleFeature) fi.next()).getAttribute("STATE"));
+            }
+        } finally {
+            fi.close();
+        }
+        return states;
+    }
+
+    private static int countFeatures(FeatureCollection fc) {
+        int count = 0;
+        FeatureIterator fi = fc.features();
+        try {
+            while (fi.hasNext()) {
+                assertThat(fi.next(), instanceOf(SimpleFeature.class));
+                count++;
+            }
+        } finally {
+            fi.close();
+        }
+        return count;
+    }
+
 	// Ignoring this test for the time being while it has an external dependency to 
 	// science base. The plan is to make a separate tests with external dependencies
 	// into an integration testing module
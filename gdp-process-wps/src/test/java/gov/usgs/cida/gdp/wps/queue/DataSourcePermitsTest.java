@@ -0,0 +1,113 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataSourcePermitsTest {
+
+	private static final String PRISM = "dods://cida.usgs.gov/thredds/dodsC/prism";
+	private static final String DAYMET = "dods://thredds.daac.ornl.gov/thredds/dodsC/daymet";
+	private static final String MAURER = "dods://cida.usgs.gov/thredds/dodsC/maurer";
+	private static final long GB = 1024L * 1024L * 1024L;
+	private static final long NOW = 100L * DataSourcePermits.OVERTAKE_LIMIT_MILLIS;
+
+	private DataSourcePermits permits;
+
+	@Before
+	public void setup() {
+		Map<String, DataSourcePermits.Pool> pools = new HashMap<>();
+		pools.put(DataSourcePermits.DEFAULT_DATA_SOURCE, new DataSourcePermits.Pool(DataSourcePermits.DEFAULT_DATA_SOURCE, 1, null));
+		pools.put(PRISM, new DataSourcePermits.Pool(PRISM, 4, GB));
+		pools.put("thredds.daac.ornl.gov", new DataSourcePermits.Pool("thredds.daac.ornl.gov", 2, null));
+		permits = new DataSourcePermits(pools);
+	}
+
+	@Test
+	public void testWeight() {
+		assertThat(permits.getWeight(PRISM, 1L), is(equalTo(1)));
+		assertThat(permits.getWeight(PRISM, GB + 1), is(equalTo(2)));
+		// never more than half of the permits, or unknown size
+		assertThat(permits.getWeight(PRISM, 40 * GB), is(equalTo(2)));
+		assertThat(permits.getWeight(PRISM, null), is(equalTo(2)));
+		assertThat(permits.getWeight(DAYMET, 40 * GB), is(equalTo(1)));
+		assertThat(permits.getWeight(MAURER, 40 * GB), is(equalTo(1)));
+	}
+
+	@Test
+	public void testDefaultIsExclusivePerDataset() {
+		List<String> admitted = permits.admit(
+				Collections.singletonList(request("running", 0, 1L, MAURER)),
+				Arrays.asList(
+						request("a", 1, 1L, MAURER),
+						request("b", 2, 1L, MAURER + "2"),
+						request("c", 3, 1L, MAURER + "2")),
+				10, NOW);
+		assertThat(admitted, contains("b"));
+	}
+
+	@Test
+	public void testHostPermitsAreShared() {
+		List<String> admitted = permits.admit(
+				Collections.<QueuedRequest>emptyList(),
+				Arrays.asList(
+						request("a", 1, null, DAYMET),
+						request("b", 2, null, DAYMET + "2"),
+						request("c", 3, null, DAYMET + "3")),
+				10, NOW);
+		assertThat(admitted, contains("a", "b"));
+	}
+
+	@Test
+	public void testSmallRequestsOvertakeLargeOnes() {
+		List<String> admitted = permits.admit(
+				Arrays.asList(
+						request("conus", 0, 40 * GB, PRISM),
+						request("small", 0, 1L, PRISM)),
+				Arrays.asList(
+						request("large", NOW - 1, 40 * GB, PRISM),
+						request("tiny", NOW, 1L, PRISM)),
+				10, NOW);
+		assertThat(admitted, contains("tiny"));
+	}
+
+	@Test
+	public void testLongWaitingRequestIsNotOvertaken() {
+		List<String> admitted = permits.admit(
+				Arrays.asList(
+						request("conus", 0, 40 * GB, PRISM),
+						request("small", 0, 1L, PRISM)),
+				Arrays.asList(
+						request("large", NOW - DataSourcePermits.OVERTAKE_LIMIT_MILLIS, 40 * GB, PRISM),
+						request("tiny", NOW, 1L, PRISM),
+						request("other", NOW, 1L, MAURER)),
+				10, NOW);
+		assertThat(admitted, contains("other"));
+	}
+
+	@Test
+	public void testLimit() {
+		List<String> admitted = permits.admit(
+				Collections.<QueuedRequest>emptyList(),
+				Arrays.asList(
+						request("a", 1, 1L, PRISM),
+						request("b", 2, 1L, PRISM)),
+				0, NOW);
+		assertThat(admitted, is(empty()));
+	}
+
+	private static QueuedRequest request(String requestId, long enqueued, Long estimatedSize, String dataSource) {
+		QueuedRequest request = new QueuedRequest(requestId, enqueued, estimatedSize);
+		request.addDataSource(dataSource);
+		return request;
+	}
+}
@@ -0,0 +1,63 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import org.junit.Test;
+
+public class RequestSchedulerTest {
+
+	private static final long MB = 1024L * 1024L;
+	private static final long HOUR = 60L * 60L * 1000L;
+
+	@Test
+	public void testSmallRequestsGoFirst() {
+		RequestScheduler scheduler = new RequestScheduler(MB, 1000 * MB);
+		List<QueuedRequest> ordered = scheduler.order(Arrays.asList(
+				new QueuedRequest("conus", 0, 40000 * MB),
+				new QueuedRequest("unknown", 1000, null),
+				new QueuedRequest("small", 2000, 1 * MB)));
+		assertThat(ids(ordered), contains("small", "unknown", "conus"));
+	}
+
+	@Test
+	public void testLargeRequestsAge() {
+		RequestScheduler scheduler = new RequestScheduler(MB, 1000 * MB);
+		// a 3600 MB request has waited off its size after an hour at 1 MB/s
+		List<QueuedRequest> ordered = scheduler.order(Arrays.asList(
+				new QueuedRequest("large", 0, 3600 * MB),
+				new QueuedRequest("before", HOUR - 2000, 1 * MB),
+				new QueuedRequest("after", HOUR, 1 * MB)));
+		assertThat(ids(ordered), contains("before", "large", "after"));
+	}
+
+	@Test
+	public void testUnknownSizeAges() {
+		RequestScheduler scheduler = new RequestScheduler(MB, 1000 * MB);
+		// an unknown request is ranked as 1000 MB, so 1000 seconds behind
+		List<QueuedRequest> ordered = scheduler.order(Arrays.asList(
+				new QueuedRequest("unknown", 0, null),
+				new QueuedRequest("before", 998 * 1000, 1 * MB),
+				new QueuedRequest("after", 1000 * 1000, 1 * MB)));
+		assertThat(ids(ordered), contains("before", "unknown", "after"));
+	}
+
+	@Test
+	public void testNoAgingRateIsFirstComeFirstServed() {
+		RequestScheduler scheduler = new RequestScheduler(0, 1000 * MB);
+		List<QueuedRequest> ordered = scheduler.order(Arrays.asList(
+				new QueuedRequest("conus", 0, 40000 * MB),
+				new QueuedRequest("small", 1000, 1 * MB)));
+		assertThat(ids(ordered), contains("conus", "small"));
+	}
+
+	private static List<String> ids(List<QueuedRequest> requests) {
+		List<String> result = new ArrayList<>();
+		for (QueuedRequest request : requests) {
+			result.add(request.getRequestId());
+		}
+		return result;
+	}
+}
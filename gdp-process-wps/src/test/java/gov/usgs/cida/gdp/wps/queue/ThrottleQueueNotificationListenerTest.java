@@ -0,0 +1,36 @@
+package gov.usgs.cida.gdp.wps.queue;
+
+import java.lang.reflect.Method;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import org.junit.Test;
+
+public class ThrottleQueueNotificationListenerTest {
+
+	@Test
+	public void testOwnNotificationsIgnored() throws Exception {
+		Method getParameter = Notification.class.getMethod("getParameter");
+		Notification[] notifications = new Notification[] {
+			new Notification(ThrottleQueueNotificationListener.NODE_ID),
+			new Notification("another-node"),
+			new Notification(""),
+			new Notification(ThrottleQueueNotificationListener.NODE_ID)
+		};
+		assertThat(ThrottleQueueNotificationListener.countOtherNodes(notifications, getParameter), equalTo(2));
+		assertThat(ThrottleQueueNotificationListener.countOtherNodes(new Notification[0], getParameter), equalTo(0));
+		assertThat(ThrottleQueueNotificationListener.countOtherNodes(null, getParameter), equalTo(0));
+	}
+
+	public static class Notification {
+
+		private final String parameter;
+
+		Notification(String parameter) {
+			this.parameter = parameter;
+		}
+
+		public String getParameter() {
+			return parameter;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package org.n52.wps.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.FileUtils;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RetrieveResultServletTest {
+
+	private static final String ETAG = "\"id-1-2\"";
+	private static final String ID = "output";
+	private static final int CONTENT_LENGTH = 100000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private byte[] content;
+	private File gzipFile;
+	private HttpServletRequest request;
+	private HttpServletResponse response;
+	private ByteArrayOutputStream written;
+
+	@Before
+	public void setUp() throws IOException {
+		// random content so the bytes at an offset depend on inflating up to it
+		content = new byte[CONTENT_LENGTH];
+		new Random(42).nextBytes(content);
+		gzipFile = temporaryFolder.newFile(ID + ".csv.gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+			out.write(content);
+		}
+
+		request = mock(HttpServletRequest.class);
+		response = mock(HttpServletResponse.class);
+		written = new ByteArrayOutputStream();
+		when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				written.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				written.write(b, off, len);
+			}
+		});
+	}
+
+	@Test
+	public void testGzipPassthrough() throws IOException {
+		when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate");
+
+		copyResponseFile();
+
+		assertThat(written.toByteArray(), is(equalTo(FileUtils.readFileToByteArray(gzipFile))));
+		verify(response).setHeader("Content-Encoding", "gzip");
+		verify(response).setHeader("Content-Length", Long.toString(gzipFile.length()));
+		verify(response).setHeader("ETag", RetrieveResultServlet.createETag(ID, gzipFile, true));
+		verify(response, never()).setStatus(anyInt());
+	}
+
+	@Test
+	public void testIdentityWithoutAcceptEncoding() throws IOException {
+		copyResponseFile();
+
+		assertThat(written.toByteArray(), is(equalTo(content)));
+		verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+		verify(response).setHeader("Content-Length", Integer.toString(CONTENT_LENGTH));
+		verify(response).setHeader("ETag", RetrieveResultServlet.createETag(ID, gzipFile, false));
+	}
+
+	@Test
+	public void testRangeOfGzippedFile() throws IOException {
+		when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+		when(request.getHeader("Range")).thenReturn("bytes=70000-70099");
+
+		copyResponseFile();
+
+		// ranges address the inflated output
+		assertThat(written.toByteArray(), is(equalTo(Arrays.copyOfRange(content, 70000, 70100))));
+		verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		verify(response).setHeader("Content-Range", "bytes 70000-70099/" + CONTENT_LENGTH);
+		verify(response).setHeader("Content-Length", "100");
+		verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+	}
+
+	@Test
+	public void testNotModified() throws IOException {
+		when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+		when(request.getHeader("If-None-Match")).thenReturn(RetrieveResultServlet.createETag(ID, gzipFile, true));
+
+		copyResponseFile();
+
+		verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		verify(response, never()).getOutputStream();
+	}
+
+	@Test
+	public void testUnsatisfiableRange() throws IOException {
+		when(request.getHeader("Range")).thenReturn("bytes=" + CONTENT_LENGTH + "-");
+
+		copyResponseFile();
+
+		verify(response).setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		verify(response).setHeader("Content-Range", "bytes */" + CONTENT_LENGTH);
+		verify(response, never()).getOutputStream();
+	}
+
+	@Test
+	public void testIfRangeMismatchSendsEverything() throws IOException {
+		when(request.getHeader("Range")).thenReturn("bytes=0-99");
+		when(request.getHeader("If-Range")).thenReturn("\"stale\"");
+
+		copyResponseFile();
+
+		assertThat(written.toByteArray(), is(equalTo(content)));
+		verify(response, never()).setStatus(anyInt());
+		verify(response, never()).setHeader(eq("Content-Range"), anyString());
+		verify(response).setHeader("Content-Length", Integer.toString(CONTENT_LENGTH));
+	}
+
+	@Test
+	public void testIfRangeMatchSendsRange() throws IOException {
+		when(request.getHeader("Range")).thenReturn("bytes=0-99");
+		when(request.getHeader("If-Range")).thenReturn(RetrieveResultServlet.createETag(ID, gzipFile, false));
+
+		copyResponseFile();
+
+		assertThat(written.toByteArray(), is(equalTo(Arrays.copyOfRange(content, 0, 100))));
+		verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+	}
+
+	private void copyResponseFile() throws IOException {
+		new RetrieveResultServlet().copyResponseFile(request, response, gzipFile, ID, CONTENT_LENGTH);
+	}
+
+	@Test
+	public void testParseRange() {
+		assertThat(RetrieveResultServlet.parseRange("bytes=0-99", 1000), is(equalTo(new long[] { 0, 99 })));
+		assertThat(RetrieveResultServlet.parseRange("bytes=900-", 1000), is(equalTo(new long[] { 900, 999 })));
+		assertThat(RetrieveResultServlet.parseRange("bytes=-100", 1000), is(equalTo(new long[] { 900, 999 })));
+		assertThat(RetrieveResultServlet.parseRange("bytes=-2000", 1000), is(equalTo(new long[] { 0, 999 })));
+		// last byte past the end is clipped
+		assertThat(RetrieveResultServlet.parseRange("bytes=500-5000", 1000), is(equalTo(new long[] { 500, 999 })));
+	}
+
+	@Test
+	public void testRangeIgnored() {
+		assertThat(RetrieveResultServlet.parseRange(null, 1000), is(nullValue()));
+		assertThat(RetrieveResultServlet.parseRange("items=0-99", 1000), is(nullValue()));
+		assertThat(RetrieveResultServlet.parseRange("bytes=0-99,200-299", 1000), is(nullValue()));
+		assertThat(RetrieveResultServlet.parseRange("bytes=99-0", 1000), is(nullValue()));
+		assertThat(RetrieveResultServlet.parseRange("bytes=a-b", 1000), is(nullValue()));
+	}
+
+	@Test
+	public void testRangeUnsatisfiable() {
+		assertThat(RetrieveResultServlet.parseRange("bytes=1000-", 1000).length, is(equalTo(0)));
+		assertThat(RetrieveResultServlet.parseRange("bytes=-0", 1000).length, is(equalTo(0)));
+		assertThat(RetrieveResultServlet.parseRange("bytes=0-", 0).length, is(equalTo(0)));
+	}
+
+	@Test
+	public void testAcceptsGzip() {
+		assertThat(RetrieveResultServlet.acceptsGzip(null), is(false));
+		assertThat(RetrieveResultServlet.acceptsGzip("gzip, deflate"), is(true));
+		assertThat(RetrieveResultServlet.acceptsGzip("deflate, x-gzip;q=0.5"), is(true));
+		assertThat(RetrieveResultServlet.acceptsGzip("gzip;q=0"), is(false));
+		assertThat(RetrieveResultServlet.acceptsGzip("identity"), is(false));
+	}
+
+	@Test
+	public void testMatchesETag() {
+		assertThat(RetrieveResultServlet.matchesETag(null, ETAG), is(false));
+		assertThat(RetrieveResultServlet.matchesETag(ETAG, ETAG), is(true));
+		assertThat(RetrieveResultServlet.matchesETag("\"other\", W/" + ETAG, ETAG), is(true));
+		assertThat(RetrieveResultServlet.matchesETag("*", ETAG), is(true));
+		assertThat(RetrieveResultServlet.matchesETag("\"other\"", ETAG), is(false));
+	}
+}
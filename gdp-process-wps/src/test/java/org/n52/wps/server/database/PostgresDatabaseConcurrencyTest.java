@@ -0,0 +1,124 @@
+package org.n52.wps.server.database;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.junit.Ignore;
+import org.junit.Test;
+
+@Ignore
+public class PostgresDatabaseConcurrencyTest extends AbstractPostgresDatabaseTest {
+
+	private static final long LARGE_OUTPUT_SIZE = 256L * 1024L * 1024L;
+	private static final long STALLED_AT = 1024L * 1024L;
+	private static final long POLL_TIMEOUT_SECONDS = 10;
+
+	@Test
+	public void testPollsCompleteWhileLargeOutputIsStored() throws Exception {
+		final PostgresDatabase database = PostgresDatabase.getInstance();
+		database.insertRequest("large", getResource("request.xml"), true);
+		database.insertResponse("large", getResource("accepted.xml"));
+		database.insertRequest("small", getResource("request.xml"), true);
+		database.insertResponse("small", getResource("accepted.xml"));
+		database.storeComplexValue("small", "OUTPUT", new SyntheticInputStream(1024, null, null), "ComplexData", "text/csv");
+
+		final CountDownLatch stalled = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			Future<String> largeStore = executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return database.storeComplexValue("large", "OUTPUT",
+							new SyntheticInputStream(LARGE_OUTPUT_SIZE, stalled, release), "ComplexData", "application/x-netcdf");
+				}
+			});
+			assertThat("large output started", stalled.await(POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS), is(true));
+
+			// the large output is partway through being written, other requests carry on
+			Future<?> poll = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					assertThat(database.getMimeTypeForStoreResponse("small"), is("text/xml"));
+					assertThat(database.storeResponse("small", getResource("succeeded.xml")) == null, is(true));
+					InputStream output = database.lookupResponse("smallOUTPUT");
+					try {
+						assertThat(IOUtils.toByteArray(output).length, is(1024));
+					} finally {
+						IOUtils.closeQuietly(output);
+					}
+					assertThat(database.storeComplexValue("small", "OTHER", new SyntheticInputStream(1024, null, null), "ComplexData", "text/csv"), notNullValue());
+					// not visible until it is complete
+					assertThat(database.lookupResponseAsFile("largeOUTPUT") == null, is(true));
+					return null;
+				}
+			});
+			poll.get(POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			assertThat("large output still being stored", largeStore.isDone(), is(false));
+
+			release.countDown();
+			assertThat(largeStore.get(), notNullValue());
+			assertThat(database.getContentLengthForStoreResponse("largeOUTPUT"), is(LARGE_OUTPUT_SIZE));
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	private static InputStream getResource(String name) {
+		return PostgresDatabaseConcurrencyTest.class.getClassLoader().getResourceAsStream(name);
+	}
+
+	// stream of zeros that blocks once STALLED_AT bytes are read until released
+	private static class SyntheticInputStream extends InputStream {
+
+		private final long size;
+		private final CountDownLatch stalled;
+		private final CountDownLatch release;
+		private long position;
+
+		private SyntheticInputStream(long size, CountDownLatch stalled, CountDownLatch release) {
+			this.size = size;
+			this.stalled = stalled;
+			this.release = release;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0];
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= size) {
+				return -1;
+			}
+			if (release != null && position >= STALLED_AT && release.getCount() > 0) {
+				stalled.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+			}
+			int count = (int) Math.min(len, size - position);
+			for (int i = 0; i < count; i++) {
+				b[off + i] = 0;
+			}
+			position += count;
+			return count;
+		}
+	}
+}
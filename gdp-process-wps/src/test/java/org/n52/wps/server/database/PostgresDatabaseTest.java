@@ -1,10 +1,13 @@
 package org.n52.wps.server.database;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.Statement;
+import org.apache.commons.io.IOUtils;
 import org.junit.Ignore;
 
 import org.junit.Test;
@@ -43,5 +46,33 @@ public class PostgresDatabaseTest extends AbstractPostgresDatabaseTest {
 		assertThat(statement.getResultSet().next(), is(true));
 		assertThat(statement.getResultSet().getString("REQUEST_ID"), is("test"));
 	}
+	
+	@Test
+	@Ignore
+	public void testStatusDocumentFollowsStatusColumns() throws Exception {
+		PostgresDatabase database = PostgresDatabase.getInstance();
+		database.insertRequest("status", PostgresDatabaseTest.class.getClassLoader().getResourceAsStream("request.xml"), true);
+		database.insertResponse("status", PostgresDatabaseTest.class.getClassLoader().getResourceAsStream("accepted.xml"));
+		String accepted = lookupResponse(database, "status");
+		assertThat(accepted, containsString("ProcessAccepted"));
+		assertThat(lookupResponse(database, "status"), is(accepted));
+		
+		// progress is written straight to the columns, the cached document follows
+		Connection conn = ds.getConnection();
+		final Statement statement = conn.createStatement();
+		statement.executeUpdate("UPDATE response SET status = 'STARTED', percent_complete = 42 WHERE request_id = 'status';");
+		String started = lookupResponse(database, "status");
+		assertThat(started, containsString("ProcessStarted"));
+		assertThat(started, containsString("percentCompleted=\"42\""));
+	}
+	
+	private static String lookupResponse(PostgresDatabase database, String id) throws Exception {
+		InputStream response = database.lookupResponse(id);
+		try {
+			return IOUtils.toString(response, "UTF-8");
+		} finally {
+			IOUtils.closeQuietly(response);
+		}
+	}
 
 }
@@ -1,12 +1,18 @@
 package gov.usgs.cida.blacklist;
 
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Bad requests are counted per client in buckets of REQUEST_EXPIRY_TIME, a
+ * client's count is what it racked up in the current and the previous bucket.
+ * Older buckets are dropped whole, so counts expire without sweeping and each
+ * bucket tracks at most MAX_TRACKED_CLIENTS clients.
  *
  * @author jwalker
  */
@@ -16,14 +22,17 @@ public class ExponentialDelayBlacklist implements BlacklistInterface {
 	public static final long INITIAL_SLEEP = 1000 * 5; // five seconds
 	public static final long REQUEST_EXPIRY_TIME = 1000 * 60 * 60; // one hour
 	public static final Integer MAX_REQUESTS = new Integer(5);
+	public static final int MAX_TRACKED_CLIENTS = 10000;
 
 	private static ExponentialDelayBlacklist singleton = null;
-	private Map<String, Date> ipBlacklist = null;
-	private Map<String, Pair<Date, Integer>> requestDelayMap = null;
+	private final ConcurrentMap<String, Long> ipBlacklist;
+	private volatile Bucket currentBucket;
+	private volatile Bucket previousBucket;
 
-	private ExponentialDelayBlacklist() {
-		ipBlacklist = Collections.synchronizedMap(new HashMap<String, Date>());
-		requestDelayMap = Collections.synchronizedMap(new HashMap<String, Pair<Date, Integer>>());
+	ExponentialDelayBlacklist() {
+		ipBlacklist = new ConcurrentHashMap<String, Long>();
+		currentBucket = new Bucket(0);
+		previousBucket = new Bucket(-1);
 	}
 
 	public synchronized static ExponentialDelayBlacklist getInstance() {
@@ -40,8 +49,8 @@ public class ExponentialDelayBlacklist implements BlacklistInterface {
     @Override
 	public Properties outputBlacklist() {
 		Properties props = new Properties();
-		for (String key : ipBlacklist.keySet()) {
-			props.put(key, ipBlacklist.get(key).toString());
+		for (Map.Entry<String, Long> entry : ipBlacklist.entrySet()) {
+			props.put(entry.getKey(), new Date(entry.getValue()).toString());
 		}
 		return props;
 	}
@@ -54,7 +63,8 @@ public class ExponentialDelayBlacklist implements BlacklistInterface {
     @Override
 	public void remove(String key) {
 		ipBlacklist.remove(key);
-		requestDelayMap.remove(key);
+		currentBucket.strikes.remove(key);
+		previousBucket.strikes.remove(key);
 	}
 
 	/**
@@ -64,13 +74,14 @@ public class ExponentialDelayBlacklist implements BlacklistInterface {
 	 */
     @Override
 	public boolean isBlacklisted(String key) {
-		if (ipBlacklist.containsKey(key)) {
-			Date addedToBlacklist = ipBlacklist.get(key);
+		return isBlacklisted(key, System.currentTimeMillis());
+	}
 
-			Date expires = new Date(addedToBlacklist.getTime() + BLACKLIST_EXPIRY_TIME);
-			Date now = new Date();
-			if (now.after(expires)) {
-				ipBlacklist.remove(key);
+	boolean isBlacklisted(String key, long now) {
+		Long addedToBlacklist = ipBlacklist.get(key);
+		if (addedToBlacklist != null) {
+			if (now > addedToBlacklist + BLACKLIST_EXPIRY_TIME) {
+				ipBlacklist.remove(key, addedToBlacklist);
 				return false;
 			}
 			return true;
@@ -87,24 +98,74 @@ public class ExponentialDelayBlacklist implements BlacklistInterface {
 	 */
     @Override
 	public long determineSleepTime(String key) {
-		long timeToSleep = INITIAL_SLEEP;
-		if (requestDelayMap.containsKey(key)) {
-			Pair<Date, Integer> pair = requestDelayMap.get(key);
-			Date now = new Date();
-			Date requestWindow = new Date(pair.val1.getTime() + REQUEST_EXPIRY_TIME);
-			if (now.after(requestWindow)) {
-				requestDelayMap.put(key, new Pair<Date, Integer>(now, new Integer(0)));
+		return determineSleepTime(key, System.currentTimeMillis());
+	}
+
+	long determineSleepTime(String key, long now) {
+		Bucket bucket = getBucket(now);
+		AtomicInteger strikes = bucket.strikes.get(key);
+		if (strikes == null) {
+			if (bucket.strikes.size() >= MAX_TRACKED_CLIENTS) {
+				// too many clients misbehaving at once to keep track of, treat as a first offence
+				return INITIAL_SLEEP;
 			}
-			timeToSleep = INITIAL_SLEEP * (long)Math.pow(2, pair.val2);
-			pair.val2 = new Integer(pair.val2.intValue() + 1);
-			if (pair.val2.compareTo(MAX_REQUESTS) >= 0) {
-				ipBlacklist.put(key, new Date());
+			AtomicInteger created = new AtomicInteger();
+			strikes = bucket.strikes.putIfAbsent(key, created);
+			if (strikes == null) {
+				strikes = created;
 			}
 		}
-		else {
-			Pair<Date, Integer> requestCounts = new Pair<Date, Integer>(new Date(), new Integer(1));
-			requestDelayMap.put(key, requestCounts);
+		int count = strikes.getAndIncrement();
+		Bucket previous = previousBucket;
+		if (previous.index == bucket.index - 1) {
+			AtomicInteger earlier = previous.strikes.get(key);
+			if (earlier != null) {
+				count += earlier.get();
+			}
+		}
+		if (count + 1 >= MAX_REQUESTS) {
+			blacklist(key, now);
+		}
+		return INITIAL_SLEEP * (1L << Math.min(count, MAX_REQUESTS - 1));
+	}
+
+	private void blacklist(String key, long now) {
+		if (ipBlacklist.size() >= MAX_TRACKED_CLIENTS) {
+			Iterator<Long> added = ipBlacklist.values().iterator();
+			while (added.hasNext()) {
+				if (now > added.next() + BLACKLIST_EXPIRY_TIME) {
+					added.remove();
+				}
+			}
+		}
+		if (ipBlacklist.size() < MAX_TRACKED_CLIENTS) {
+			ipBlacklist.putIfAbsent(key, now);
+		}
+	}
+
+	private Bucket getBucket(long now) {
+		long index = now / REQUEST_EXPIRY_TIME;
+		Bucket bucket = currentBucket;
+		if (bucket.index != index) {
+			synchronized (this) {
+				bucket = currentBucket;
+				if (bucket.index != index) {
+					previousBucket = bucket;
+					bucket = new Bucket(index);
+					currentBucket = bucket;
+				}
+			}
+		}
+		return bucket;
+	}
+
+	private static class Bucket {
+
+		private final long index;
+		private final ConcurrentMap<String, AtomicInteger> strikes = new ConcurrentHashMap<String, AtomicInteger>();
+
+		private Bucket(long index) {
+			this.index = index;
 		}
-		return timeToSleep;
 	}
 }
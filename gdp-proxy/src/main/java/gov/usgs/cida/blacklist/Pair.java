@@ -1,11 +0,0 @@
-package gov.usgs.cida.blacklist;
-
-public class Pair<A, B> {
-	public A val1;
-	public B val2;
-
-	public Pair(A val1, B val2) {
-		this.val1 = val1;
-		this.val2 = val2;
-	}
-}
\ No newline at end of file
@@ -20,6 +20,8 @@ import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -88,6 +90,10 @@ public class OWSProxyServletX extends HttpServlet {
     private final static int CLIENT_SOCKET_TIMEOUT = 5 * 60 * 1000; // 5 minutes, default is infinite
     private final static int CLIENT_CONNECTION_TIMEOUT = 15 * 1000; // 15 seconds, default is infinte
 
+    // Rejected requests are held before the 403 is sent, at most this many at once
+    // so misbehaving clients can't tie up the container threads real users need
+    private final static int TARPIT_MAX_REQUESTS = 8;
+
     public static final String INVALID_ENDPOINT
             = "Service you are requesting is not a valid OWS service."
             + "  If this is incorrect, register this url by submitting a GetCapabilities request.";
@@ -95,6 +101,8 @@ public class OWSProxyServletX extends HttpServlet {
 
     private Set<Endpoint> verifiedEndpointCache = Collections.synchronizedSet(new HashSet<Endpoint>());
     private BlacklistInterface blacklist = BlacklistFactory.setActiveBlacklist(DELAY_ONLY);
+    private final Semaphore tarpitPermits = new Semaphore(TARPIT_MAX_REQUESTS);
+    private final Set<String> tarpitClients = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     private ThreadSafeClientConnManager clientConnectionManager;
 
@@ -492,16 +500,38 @@ public class OWSProxyServletX extends HttpServlet {
                 verifiedEndpointCache.addAll(OGCCommons.getOperationEndpoints(capabilitiesDocument));
                 return true;
             } else {
-                long timeToSleep = blacklist.determineSleepTime(remoteAddr);
+                tarpit(remoteAddr);
+            }
+        }
+        return false;
+    }
 
-                try {
-                    Thread.sleep(timeToSleep);
-                } catch (InterruptedException ex) {
-                    LOGGER.debug("Sleep interrupted for 403 error wait", ex);
+    /**
+     * Holds a rejected request for the blacklist's delay. Only one request per
+     * client and TARPIT_MAX_REQUESTS overall are held, any others are rejected
+     * straight away, the delay still counts against the client.
+     */
+    private void tarpit(String remoteAddr) {
+        long timeToSleep = blacklist.determineSleepTime(remoteAddr);
+        if (tarpitClients.add(remoteAddr)) {
+            try {
+                if (tarpitPermits.tryAcquire()) {
+                    try {
+                        Thread.sleep(timeToSleep);
+                    } catch (InterruptedException ex) {
+                        LOGGER.debug("Sleep interrupted for 403 error wait", ex);
+                    } finally {
+                        tarpitPermits.release();
+                    }
+                } else {
+                    LOGGER.debug("Tarpit full, rejecting request from {} without delay", remoteAddr);
                 }
+            } finally {
+                tarpitClients.remove(remoteAddr);
             }
+        } else {
+            LOGGER.debug("Request from {} already held, rejecting without delay", remoteAddr);
         }
-        return false;
     }
 
     private void readValidEndpointsFromConfig(InputStream in) {
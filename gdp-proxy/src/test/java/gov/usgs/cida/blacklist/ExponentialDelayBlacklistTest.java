@@ -0,0 +1,64 @@
+package gov.usgs.cida.blacklist;
+
+import static gov.usgs.cida.blacklist.ExponentialDelayBlacklist.BLACKLIST_EXPIRY_TIME;
+import static gov.usgs.cida.blacklist.ExponentialDelayBlacklist.INITIAL_SLEEP;
+import static gov.usgs.cida.blacklist.ExponentialDelayBlacklist.REQUEST_EXPIRY_TIME;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExponentialDelayBlacklistTest {
+
+	private static final String CLIENT = "10.0.0.1";
+	private static final long START = 100 * REQUEST_EXPIRY_TIME;
+
+	private ExponentialDelayBlacklist blacklist;
+
+	@Before
+	public void setUp() {
+		blacklist = new ExponentialDelayBlacklist();
+	}
+
+	@Test
+	public void testDelayDoublesUntilBlacklisted() {
+		assertThat(blacklist.determineSleepTime(CLIENT, START), is(equalTo(INITIAL_SLEEP)));
+		assertThat(blacklist.determineSleepTime(CLIENT, START), is(equalTo(INITIAL_SLEEP * 2)));
+		assertThat(blacklist.determineSleepTime(CLIENT, START), is(equalTo(INITIAL_SLEEP * 4)));
+		assertThat(blacklist.determineSleepTime(CLIENT, START), is(equalTo(INITIAL_SLEEP * 8)));
+		assertThat(blacklist.isBlacklisted(CLIENT, START), is(false));
+		assertThat(blacklist.determineSleepTime(CLIENT, START), is(equalTo(INITIAL_SLEEP * 16)));
+		assertThat(blacklist.isBlacklisted(CLIENT, START), is(true));
+		assertThat(blacklist.isBlacklisted("10.0.0.2", START), is(false));
+		assertThat(blacklist.outputBlacklist().containsKey(CLIENT), is(true));
+
+		// the delay stops growing
+		assertThat(blacklist.determineSleepTime(CLIENT, START), is(equalTo(INITIAL_SLEEP * 16)));
+
+		assertThat(blacklist.isBlacklisted(CLIENT, START + BLACKLIST_EXPIRY_TIME + 1), is(false));
+		assertThat(blacklist.outputBlacklist().containsKey(CLIENT), is(false));
+	}
+
+	@Test
+	public void testStrikesExpire() {
+		blacklist.determineSleepTime(CLIENT, START);
+		blacklist.determineSleepTime(CLIENT, START);
+		// the previous bucket still counts
+		assertThat(blacklist.determineSleepTime(CLIENT, START + REQUEST_EXPIRY_TIME), is(equalTo(INITIAL_SLEEP * 4)));
+		// the one before that does not
+		assertThat(blacklist.determineSleepTime(CLIENT, START + 2 * REQUEST_EXPIRY_TIME), is(equalTo(INITIAL_SLEEP * 2)));
+		assertThat(blacklist.determineSleepTime(CLIENT, START + 4 * REQUEST_EXPIRY_TIME), is(equalTo(INITIAL_SLEEP)));
+	}
+
+	@Test
+	public void testRemove() {
+		for (int i = 0; i < ExponentialDelayBlacklist.MAX_REQUESTS; i++) {
+			blacklist.determineSleepTime(CLIENT, START);
+		}
+		assertThat(blacklist.isBlacklisted(CLIENT, START), is(true));
+		blacklist.remove(CLIENT);
+		assertThat(blacklist.isBlacklisted(CLIENT, START), is(false));
+		assertThat(blacklist.determineSleepTime(CLIENT, START), is(equalTo(INITIAL_SLEEP)));
+	}
+}